@@ -0,0 +1,378 @@
+package bogus.graphics;
+
+import bogus.math.geom.Rect;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+
+/**
+ * Keeps the last frame in an image and only redraws and presents the parts of
+ * it that changed. The scene marks what it changes with {@link #damage}; each
+ * frame the damaged rectangles are merged into a few regions, the scene paints
+ * each region of the kept frame, clipped to it, and only those regions are
+ * copied to the screen. A screen that hardly changes costs hardly anything.
+ *
+ * Damaged rectangles are merged when they overlap or touch, or when their
+ * union is not much bigger than the two together, as redrawing a few extra
+ * pixels is cheaper than another pass over the scene. Past
+ * {@link #maxRegions}, or once most of the screen is damaged, rectangles
+ * merge regardless.
+ *
+ * Runs as the handler of a {@link RenderLoop}, presenting into its back
+ * buffer; when that doesn't hold the last frame, the whole kept frame is
+ * presented, but still only damaged regions are redrawn.
+ */
+public class Compositor implements RenderLoop.Handler{
+    public interface Scene{
+        /**
+         * Advance the scene by one fixed step, marking what changed on the compositor
+         *
+         * @param step Length of the step in seconds
+         */
+        void update(float step);
+
+        /**
+         * Draw everything that overlaps a region. The region has been cleared to the
+         * background; graphics and drawer are clipped to it, and the drawer is
+         * flushed after the graphics' drawing.
+         *
+         * @param region Area to redraw, in whole pixels
+         */
+        void paint(Drawer drawer, Graphics2D g, Rect region);
+    }
+
+    /** Regions kept apart at most; past this the new one merges into the region it grows least */
+    public static final int maxRegions = 16;
+    // Two rectangles merge when their union is at most this much larger than both together
+    private static final float mergeSlack = 1.5f;
+    // Past this fraction of the screen damaged, the whole screen is redrawn in one pass
+    private static final float fullRatio = 0.6f;
+    // Frames an outline of the debug overlay stays on screen, fading out
+    private static final int overlayFrames = 15;
+
+    private final Scene scene;
+    private final Component component;
+    private volatile Color background = Color.BLACK;
+    private volatile boolean overlay;
+
+    // Size, damage since the last frame as x0, y0, x1, y1, and whether the screen lost the frame, guarded by this
+    private int width, height;
+    private int[] pending = new int[4 * maxRegions];
+    private int pendingCount;
+    private boolean invalid = true;
+
+    // The frame being drawn, only touched by the render thread
+    private BufferedImage frame;
+    private Drawer drawer;
+    private int[] regions = new int[4 * maxRegions];
+    private int regionCount;
+    private final Rect region = new Rect();
+    private volatile long repaintedPixels;
+
+    // Debug outlines on screen as x0, y0, x1, y1, age
+    private int[] outlines = new int[5 * maxRegions];
+    private int outlineCount;
+
+    /**
+     * @param component Component the frame is presented in, whose size the frame follows
+     */
+    public Compositor(Scene scene, Component component){
+        this.scene = scene;
+        this.component = component;
+    }
+
+    /**
+     * Composite a frame of a fixed size, e.g. into an image
+     */
+    public Compositor(Scene scene, int width, int height){
+        this(scene, (Component)null);
+        setSize(width, height);
+    }
+
+    /**
+     * Resize the frame, redrawing all of it on the next render
+     */
+    public synchronized void setSize(int width, int height){
+        if(width == this.width && height == this.height) return;
+        this.width = width;
+        this.height = height;
+        damageAll();
+    }
+
+    public Color getBackground(){
+        return background;
+    }
+
+    /** @param background Color damaged regions are cleared to before the scene paints them */
+    public synchronized void setBackground(Color background){
+        this.background = background;
+        damageAll();
+    }
+
+    public boolean getOverlay(){
+        return overlay;
+    }
+
+    /**
+     * @param overlay Whether to outline every presented region on screen, fading over the next frames, to see what gets repainted
+     */
+    public void setOverlay(boolean overlay){
+        this.overlay = overlay;
+    }
+
+    /**
+     * Mark an area as changed, to redraw on the next render. Safe to call from any thread.
+     */
+    public synchronized void damage(int x, int y, int width, int height){
+        if(width <= 0 || height <= 0) return;
+        int x0 = Math.max(0, x), y0 = Math.max(0, y);
+        int x1 = (int)Math.min(this.width, (long)x + width), y1 = (int)Math.min(this.height, (long)y + height);
+        if(x0 >= x1 || y0 >= y1) return;
+        addRegion(x0, y0, x1, y1);
+    }
+
+    /**
+     * Mark an area as changed, grown out to whole pixels
+     */
+    public void damage(Rect rect){
+        int x0 = (int)Math.floor(rect.x), y0 = (int)Math.floor(rect.y);
+        int x1 = (int)Math.ceil(rect.x + rect.width), y1 = (int)Math.ceil(rect.y + rect.height);
+        damage(x0, y0, x1 - x0, y1 - y0);
+    }
+
+    /**
+     * Mark everything as changed
+     */
+    public synchronized void damageAll(){
+        pendingCount = 0;
+        if(width > 0 && height > 0) addRegion(0, 0, width, height);
+    }
+
+    /**
+     * Add a damaged region, merging it with any it is worth merging with
+     */
+    private void addRegion(int x0, int y0, int x1, int y1){
+        int[] r = pending;
+
+        // Merging grows the region, which can make it worth merging with one it wasn't before
+        for(int i = 0; i < pendingCount; i++){
+            if(worthMerging(x0, y0, x1, y1, r[i * 4], r[i * 4 + 1], r[i * 4 + 2], r[i * 4 + 3])){
+                x0 = Math.min(x0, r[i * 4]);
+                y0 = Math.min(y0, r[i * 4 + 1]);
+                x1 = Math.max(x1, r[i * 4 + 2]);
+                y1 = Math.max(y1, r[i * 4 + 3]);
+                pendingCount--;
+                System.arraycopy(r, pendingCount * 4, r, i * 4, 4);
+                i = -1;
+            }
+        }
+
+        if(pendingCount == maxRegions){
+            // Out of regions: merge into the one whose union adds the fewest pixels
+            int best = 0;
+            long bestGrowth = Long.MAX_VALUE;
+            for(int i = 0; i < pendingCount; i++){
+                long union = area(Math.min(x0, r[i * 4]), Math.min(y0, r[i * 4 + 1]), Math.max(x1, r[i * 4 + 2]), Math.max(y1, r[i * 4 + 3]));
+                long growth = union - area(r[i * 4], r[i * 4 + 1], r[i * 4 + 2], r[i * 4 + 3]);
+                if(growth < bestGrowth){
+                    bestGrowth = growth;
+                    best = i;
+                }
+            }
+            int bx0 = Math.min(x0, r[best * 4]), by0 = Math.min(y0, r[best * 4 + 1]);
+            int bx1 = Math.max(x1, r[best * 4 + 2]), by1 = Math.max(y1, r[best * 4 + 3]);
+            pendingCount--;
+            System.arraycopy(r, pendingCount * 4, r, best * 4, 4);
+            addRegion(bx0, by0, bx1, by1);
+            return;
+        }
+
+        r[pendingCount * 4] = x0;
+        r[pendingCount * 4 + 1] = y0;
+        r[pendingCount * 4 + 2] = x1;
+        r[pendingCount * 4 + 3] = y1;
+        pendingCount++;
+    }
+
+    private static boolean worthMerging(int ax0, int ay0, int ax1, int ay1, int bx0, int by0, int bx1, int by1){
+        if(ax0 <= bx1 && bx0 <= ax1 && ay0 <= by1 && by0 <= ay1) return true;
+        long union = area(Math.min(ax0, bx0), Math.min(ay0, by0), Math.max(ax1, bx1), Math.max(ay1, by1));
+        return union <= (area(ax0, ay0, ax1, ay1) + area(bx0, by0, bx1, by1)) * mergeSlack;
+    }
+
+    private static long area(int x0, int y0, int x1, int y1){
+        return (long)(x1 - x0) * (y1 - y0);
+    }
+
+    @Override
+    public void update(float step){
+        scene.update(step);
+    }
+
+    @Override
+    public synchronized void invalidate(){
+        invalid = true;
+    }
+
+    /**
+     * Redraw the damaged regions of the kept frame and present them. The frame is
+     * drawn as of the last update; alpha is not used.
+     */
+    @Override
+    public void render(Graphics2D g, float alpha){
+        if(component != null) setSize(component.getWidth(), component.getHeight());
+
+        boolean presentAll;
+        synchronized(this){
+            if(width <= 0 || height <= 0) return;
+            if(frame == null || frame.getWidth() != width || frame.getHeight() != height){
+                frame = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+                if(drawer == null){
+                    drawer = new Drawer(frame);
+                }else{
+                    drawer.setTarget(frame);
+                }
+                invalid = true;
+            }
+
+            // Take this frame's damage, leaving the other array to collect the next frame's
+            int[] taken = pending;
+            pending = regions;
+            regions = taken;
+            regionCount = pendingCount;
+            pendingCount = 0;
+
+            presentAll = invalid;
+            invalid = false;
+        }
+
+        long damaged = 0;
+        for(int i = 0; i < regionCount; i++){
+            damaged += area(regions[i * 4], regions[i * 4 + 1], regions[i * 4 + 2], regions[i * 4 + 3]);
+        }
+        if(damaged > fullRatio * width * height){
+            regionCount = 1;
+            regions[0] = regions[1] = 0;
+            regions[2] = width;
+            regions[3] = height;
+            damaged = (long)width * height;
+        }
+        repaintedPixels = damaged;
+
+        compose();
+        present(g, presentAll);
+    }
+
+    /**
+     * Have the scene redraw every damaged region of the kept frame
+     */
+    private void compose(){
+        if(regionCount == 0) return;
+        Graphics2D graphics = frame.createGraphics();
+        try{
+            for(int i = 0; i < regionCount; i++){
+                int x = regions[i * 4], y = regions[i * 4 + 1];
+                int w = regions[i * 4 + 2] - x, h = regions[i * 4 + 3] - y;
+
+                // A fresh graphics per region, so nothing the scene sets carries over
+                Graphics2D g = (Graphics2D)graphics.create();
+                try{
+                    g.setClip(x, y, w, h);
+                    g.setColor(background);
+                    g.fillRect(x, y, w, h);
+                    drawer.setClip(x, y, w, h);
+                    scene.paint(drawer, g, region.set(x, y, w, h));
+                    drawer.flush();
+                }finally{
+                    g.dispose();
+                }
+            }
+        }finally{
+            graphics.dispose();
+            drawer.clearClip();
+        }
+    }
+
+    /**
+     * Copy the redrawn regions of the kept frame to the screen, or all of it if the screen lost it
+     */
+    private void present(Graphics2D g, boolean all){
+        if(all){
+            g.drawImage(frame, 0, 0, null);
+        }else{
+            for(int i = 0; i < regionCount; i++){
+                presentRegion(g, regions[i * 4], regions[i * 4 + 1], regions[i * 4 + 2], regions[i * 4 + 3]);
+            }
+        }
+
+        if(overlay){
+            drawOverlay(g, all);
+        }else{
+            outlineCount = 0;
+        }
+    }
+
+    private void presentRegion(Graphics2D g, int x0, int y0, int x1, int y1){
+        g.drawImage(frame, x0, y0, x1, y1, x0, y0, x1, y1, null);
+    }
+
+    /**
+     * Outline the regions presented this frame and the last few, fading with age
+     */
+    private void drawOverlay(Graphics2D g, boolean all){
+        int[] o = outlines;
+        int kept = 0;
+        for(int i = 0; i < outlineCount; i++){
+            // Last frame's outline is still on screen, so present the frame over it before drawing it fainter
+            if(!all) presentRegion(g, o[i * 5], o[i * 5 + 1], o[i * 5 + 2], o[i * 5 + 3]);
+            if(++o[i * 5 + 4] < overlayFrames){
+                System.arraycopy(o, i * 5, o, kept * 5, 5);
+                kept++;
+            }
+        }
+        outlineCount = kept;
+
+        if(o.length < (outlineCount + regionCount) * 5){
+            outlines = o = Arrays.copyOf(o, Math.max(o.length * 2, (outlineCount + regionCount) * 5));
+        }
+        for(int i = 0; i < regionCount; i++){
+            System.arraycopy(regions, i * 4, o, outlineCount * 5, 4);
+            o[outlineCount * 5 + 4] = 0;
+            outlineCount++;
+        }
+
+        for(int i = 0; i < outlineCount; i++){
+            int x = o[i * 5], y = o[i * 5 + 1], w = o[i * 5 + 2] - x, h = o[i * 5 + 3] - y;
+            int fade = 255 * (overlayFrames - o[i * 5 + 4]) / overlayFrames;
+            g.setColor(new Color(255, 0, 255, fade / 4));
+            g.fillRect(x, y, w, h);
+            g.setColor(new Color(255, 0, 255, fade));
+            g.drawRect(x, y, w - 1, h - 1);
+        }
+    }
+
+    /** @return Regions redrawn by the last render */
+    public int getRegionCount(){
+        return regionCount;
+    }
+
+    /**
+     * @param index Region of the last render, below {@link #getRegionCount()}
+     * @param out Set to the region's bounds
+     */
+    public Rect getRegion(int index, Rect out){
+        int x = regions[index * 4], y = regions[index * 4 + 1];
+        return out.set(x, y, regions[index * 4 + 2] - x, regions[index * 4 + 3] - y);
+    }
+
+    /** @return Pixels redrawn by the last render */
+    public long getRepaintedPixels(){
+        return repaintedPixels;
+    }
+
+    /** @return The kept frame, or null before the first render */
+    public BufferedImage getFrame(){
+        return frame;
+    }
+}
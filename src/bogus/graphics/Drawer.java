@@ -1,7 +1,493 @@
 package bogus.graphics;
 
 import bogus.assets.*;
+import bogus.math.Affine2;
+import bogus.struct.ObjectIntMap;
 
-public class Drawer {
-    
+import java.awt.*;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Batches sprite draws into an image. Draw calls are only queued, in flat
+ * command arrays; {@link #flush()} sorts them by layer and then by image, and
+ * draws them all in one pass.
+ *
+ * Sprites that are only moved, not rotated or scaled, are copied straight into
+ * the target's pixel array when it is int-packed (TYPE_INT_RGB, TYPE_INT_ARGB
+ * or TYPE_INT_ARGB_PRE), tinted and alpha-blended on the way. Everything else
+ * goes through one Graphics2D per flush.
+ *
+ * Within a layer, sprites of one image are drawn together, so the order of
+ * overlapping sprites from different images is only kept across layers, or
+ * with sorting by image turned off.
+ */
+public class Drawer{
+    // Floats per command: the sprite's transform, m00, m01, m02, m10, m11, m12
+    private static final int floatStride = 6;
+    // Ints per command: image, layer, tint, then the source region as x, y, width, height
+    private static final int intStride = 7;
+    // Commands are numbered in the low bits of their sort key, images above them
+    private static final int sequenceBits = 20, imageBits = 12;
+    private static final int maxCommands = 1 << sequenceBits, maxImages = 1 << imageBits;
+    // Pixels from which a row is worth copying out to blend without branches
+    private static final int copiedRow = 32;
+
+    private BufferedImage target;
+    private int layer;
+    private int tint = 0xFFFFFFFF;
+    private boolean sortByImage = true;
+    // Area flushes draw into, or the whole target with no clip
+    private boolean clipped;
+    private int clipX, clipY, clipWidth, clipHeight;
+    private int left, top, right, bottom;
+
+    private float[] floats = new float[floatStride * 256];
+    private int[] ints = new int[intStride * 256];
+    private long[] keys = new long[256];
+    private int count;
+
+    // Images referenced by the queued commands, and their pixels for the flush in progress
+    private final ArrayList<BufferedImage> images = new ArrayList<>();
+    private final ObjectIntMap<BufferedImage> imageIds = new ObjectIntMap<>();
+    private int[][] pixels = new int[16][];
+    private boolean[] premultiplied = new boolean[16];
+    private int[][] scratch = new int[16][];
+    // Runs of pixels to copy instead of every row of each image, or null to copy the image whole
+    private int[][] runs = new int[16][];
+    // Rows copied out of a sprite and the target, so blending them indexes both from 0
+    private int[] sourceRow = new int[0], destRow = new int[0];
+
+    private final Affine2 scratchTransform = new Affine2();
+    private final AffineTransform awtTransform = new AffineTransform();
+    private int blitted, fallbacks;
+
+    public Drawer(BufferedImage target){
+        this.target = target;
+    }
+
+    public BufferedImage getTarget(){
+        return target;
+    }
+
+    /**
+     * Draw into another image from now on, flushing what was queued for the last one
+     */
+    public void setTarget(BufferedImage target){
+        if(target != this.target) flush();
+        this.target = target;
+    }
+
+    public int getLayer(){
+        return layer;
+    }
+
+    /** @param layer Layer of the sprites drawn next; higher layers are drawn over lower ones */
+    public void setLayer(int layer){
+        this.layer = layer;
+    }
+
+    public int getTint(){
+        return tint;
+    }
+
+    /** @param argb Color the sprites drawn next are multiplied by, as 0xAARRGGBB; white leaves them as they are */
+    public void setTint(int argb){
+        this.tint = argb;
+    }
+
+    public void setTint(Color color){
+        this.tint = color.getRGB();
+    }
+
+    public boolean getSortByImage(){
+        return sortByImage;
+    }
+
+    /**
+     * @param sort Whether to group sprites of one image within a layer; without it, sprites are drawn in the order they were queued
+     */
+    public void setSortByImage(boolean sort){
+        this.sortByImage = sort;
+    }
+
+    /**
+     * Only draw into an area of the target from the next flush on
+     */
+    public void setClip(int x, int y, int width, int height){
+        clipped = true;
+        clipX = x;
+        clipY = y;
+        clipWidth = width;
+        clipHeight = height;
+    }
+
+    /** Draw into the whole target again */
+    public void clearClip(){
+        clipped = false;
+    }
+
+    /** Queue a whole image at a position */
+    public void draw(BufferedImage image, float x, float y){
+        draw(image, 0, 0, image.getWidth(), image.getHeight(), scratchTransform.setToTranslation(x, y));
+    }
+
+    /** Queue a region of an image at a position */
+    public void draw(BufferedImage image, int srcX, int srcY, int srcWidth, int srcHeight, float x, float y){
+        draw(image, srcX, srcY, srcWidth, srcHeight, scratchTransform.setToTranslation(x, y));
+    }
+
+    /** Queue an image asset at a position */
+    public void draw(ImageAsset asset, float x, float y){
+        draw(asset.getImage(), x, y);
+    }
+
+    /**
+     * Queue a whole image of which only runs of pixels along its rows are copied into the target, skipping the
+     * transparent gaps between them. Drawn whole where it can't be copied, e.g. into other image types.
+     *
+     * @param runs Row, first column and end column of each run, three ints per run; read at the flush,
+     *             and used for every draw of the image queued before it
+     */
+    void draw(BufferedImage image, int[] runs, float x, float y){
+        draw(image, x, y);
+        int id = imageIds.get(image, -1);
+        if(id >= this.runs.length){
+            this.runs = Arrays.copyOf(this.runs, Math.max(id + 1, this.runs.length * 2));
+        }
+        this.runs[id] = runs;
+    }
+
+    /**
+     * Queue a region of an image
+     *
+     * @param transform Maps the region, with its top left corner at 0, 0, into the target; copied, so it may be reused
+     */
+    public void draw(BufferedImage image, int srcX, int srcY, int srcWidth, int srcHeight, Affine2 transform){
+        if(count == maxCommands || (images.size() == maxImages && !imageIds.containsKey(image))){
+            flush();
+        }
+
+        int id = imageIds.get(image, -1);
+        if(id < 0){
+            id = images.size();
+            images.add(image);
+            imageIds.put(image, id);
+        }
+
+        if(count == keys.length){
+            floats = Arrays.copyOf(floats, floats.length * 2);
+            ints = Arrays.copyOf(ints, ints.length * 2);
+            keys = Arrays.copyOf(keys, keys.length * 2);
+        }
+
+        int f = count * floatStride;
+        floats[f] = transform.m00;
+        floats[f + 1] = transform.m01;
+        floats[f + 2] = transform.m02;
+        floats[f + 3] = transform.m10;
+        floats[f + 4] = transform.m11;
+        floats[f + 5] = transform.m12;
+
+        int i = count * intStride;
+        ints[i] = id;
+        ints[i + 1] = layer;
+        ints[i + 2] = tint;
+        ints[i + 3] = srcX;
+        ints[i + 4] = srcY;
+        ints[i + 5] = srcWidth;
+        ints[i + 6] = srcHeight;
+
+        // Layer in the high half, signed; image and sequence in the low half, unsigned
+        long low = ((long)(sortByImage ? id : 0) << sequenceBits) | count;
+        keys[count] = ((long)layer << 32) | low;
+        count++;
+    }
+
+    /** @return Sprites queued since the last flush */
+    public int getQueued(){
+        return count;
+    }
+
+    /** @return Sprites the last flush copied straight into the target */
+    public int getBlitted(){
+        return blitted;
+    }
+
+    /** @return Sprites the last flush drew through Graphics2D */
+    public int getFallbacks(){
+        return fallbacks;
+    }
+
+    /**
+     * Draw every queued sprite into the target
+     */
+    public void flush(){
+        blitted = fallbacks = 0;
+        if(count == 0) return;
+
+        Arrays.sort(keys, 0, count);
+
+        left = top = 0;
+        right = target.getWidth();
+        bottom = target.getHeight();
+        if(clipped){
+            left = Math.max(left, clipX);
+            top = Math.max(top, clipY);
+            right = Math.min(right, clipX + clipWidth);
+            bottom = Math.min(bottom, clipY + clipHeight);
+        }
+
+        int[] dest = Rasters.data(target);
+        int type = target.getType();
+        boolean direct = dest != null && (type == BufferedImage.TYPE_INT_RGB || Rasters.isIntArgb(target));
+        Graphics2D graphics = null;
+
+        try{
+            for(int k = 0; k < count; k++){
+                int command = (int)(keys[k] & (maxCommands - 1));
+                int f = command * floatStride, i = command * intStride;
+                int id = ints[i];
+
+                boolean translation = floats[f] == 1 && floats[f + 1] == 0 && floats[f + 3] == 0 && floats[f + 4] == 1;
+                if(direct && translation){
+                    blit(dest, type, id, ints[i + 2], ints[i + 3], ints[i + 4], ints[i + 5], ints[i + 6],
+                        pixel(floats[f + 2]), pixel(floats[f + 5]));
+                    blitted++;
+                }else{
+                    if(graphics == null){
+                        graphics = target.createGraphics();
+                        if(clipped) graphics.clipRect(clipX, clipY, clipWidth, clipHeight);
+                    }
+                    drawTransformed(graphics, command);
+                    fallbacks++;
+                }
+            }
+        }finally{
+            if(graphics != null) graphics.dispose();
+        }
+
+        count = 0;
+        images.clear();
+        imageIds.clear();
+        Arrays.fill(pixels, null);
+        Arrays.fill(runs, null);
+    }
+
+    /**
+     * @return The pixel a sprite edge at this position starts at, the one whose center it covers
+     */
+    private static int pixel(float position){
+        return (int)Math.ceil(position - 0.5f);
+    }
+
+    /**
+     * @return The non-premultiplied pixels of an image, read once per flush
+     */
+    private int[] pixels(int id){
+        if(id >= pixels.length){
+            pixels = Arrays.copyOf(pixels, Math.max(id + 1, pixels.length * 2));
+            premultiplied = Arrays.copyOf(premultiplied, pixels.length);
+            scratch = Arrays.copyOf(scratch, pixels.length);
+        }
+        if(pixels[id] == null){
+            BufferedImage image = images.get(id);
+            int[] data = Rasters.data(image);
+            if(data != null && Rasters.isIntArgb(image)){
+                // Read in place; premultiplied pixels are converted one at a time
+                pixels[id] = data;
+                premultiplied[id] = image.isAlphaPremultiplied();
+            }else{
+                pixels[id] = scratch[id] = Rasters.readArgb(image, scratch[id]);
+                premultiplied[id] = false;
+            }
+        }
+        return pixels[id];
+    }
+
+    /**
+     * Copy a region of an image into the target at a whole-pixel position, clipped to both
+     */
+    private void blit(int[] dest, int type, int id, int tint, int srcX, int srcY, int srcWidth, int srcHeight, int x, int y){
+        BufferedImage image = images.get(id);
+        int[] source = pixels(id);
+        boolean sourcePremultiplied = premultiplied[id];
+        int stride = image.getWidth(), width = target.getWidth();
+
+        // Clip the region to the image, then to the target and its clip
+        int x0 = Math.max(0, -srcX), y0 = Math.max(0, -srcY);
+        int x1 = Math.min(srcWidth, stride - srcX), y1 = Math.min(srcHeight, image.getHeight() - srcY);
+        x0 = Math.max(x0, left - x);
+        y0 = Math.max(y0, top - y);
+        x1 = Math.min(x1, right - x);
+        y1 = Math.min(y1, bottom - y);
+
+        int[] rows = id < runs.length ? runs[id] : null;
+        if(rows != null){
+            // Only the runs, each clipped to the region like a row
+            for(int r = 0; r < rows.length; r += 3){
+                int sy = rows[r] - srcY;
+                int start = Math.max(x0, rows[r + 1] - srcX), end = Math.min(x1, rows[r + 2] - srcX);
+                if(sy < y0 || sy >= y1 || start >= end) continue;
+                blendRow(source, (srcY + sy) * stride + srcX + start, dest, (y + sy) * width + x + start, end - start, type, tint, sourcePremultiplied);
+            }
+            return;
+        }
+
+        for(int sy = y0; sy < y1; sy++){
+            blendRow(source, (srcY + sy) * stride + srcX + x0, dest, (y + sy) * width + x + x0, x1 - x0, type, tint, sourcePremultiplied);
+        }
+    }
+
+    /**
+     * Tint a row of pixels and blend it into the target
+     */
+    private void blendRow(int[] source, int from, int[] dest, int to, int length, int type, int tint, boolean sourcePremultiplied){
+        boolean plain = tint == 0xFFFFFFFF && !sourcePremultiplied;
+        if(plain && type == BufferedImage.TYPE_INT_RGB){
+            blendRowOpaque(source, from, dest, to, length);
+            return;
+        }
+
+        for(int i = 0; i < length; i++){
+            int color = source[from + i];
+            if(!plain){
+                if(sourcePremultiplied) color = Rasters.unpremultiply(color);
+                color = multiply(color, tint);
+            }
+
+            int alpha = color >>> 24;
+            if(alpha == 255){
+                dest[to + i] = color;
+            }else if(alpha != 0){
+                dest[to + i] = blend(color, dest[to + i], type);
+            }
+        }
+    }
+
+    /**
+     * Draw a row of untinted pixels over an opaque target, the common case kept in a loop of its own.
+     * Longer rows are copied out and every pixel blended, as blending is exact for opaque and empty
+     * pixels too: a loop without branches over arrays indexed from 0 is one the JIT can vectorize,
+     * where sprites mixing opaque, empty and edge pixels, like text, keep a branch on alpha guessing wrong.
+     */
+    private void blendRowOpaque(int[] source, int from, int[] dest, int to, int length){
+        if(length < copiedRow){
+            for(int i = 0; i < length; i++){
+                int color = source[from + i];
+                int alpha = color >>> 24;
+                if(alpha == 255){
+                    dest[to + i] = color;
+                }else if(alpha != 0){
+                    dest[to + i] = blendOpaque(color, dest[to + i]);
+                }
+            }
+            return;
+        }
+
+        if(sourceRow.length < length){
+            sourceRow = new int[length];
+            destRow = new int[length];
+        }
+        int[] colors = sourceRow, under = destRow;
+        System.arraycopy(source, from, colors, 0, length);
+        System.arraycopy(dest, to, under, 0, length);
+        for(int i = 0; i < length; i++){
+            under[i] = blendOpaque(colors[i], under[i]);
+        }
+        System.arraycopy(under, 0, dest, to, length);
+    }
+
+    /**
+     * Draw a translucent non-premultiplied color over an opaque pixel
+     */
+    static int blendOpaque(int color, int under){
+        // Red and blue are blended together, a channel in each half of the int
+        int alpha = color >>> 24, inverse = 255 - alpha;
+        int rb = (color & 0xFF00FF) * alpha + (under & 0xFF00FF) * inverse + 0x800080;
+        rb = ((rb + ((rb >> 8) & 0xFF00FF)) >> 8) & 0xFF00FF;
+        int g = ((color >> 8) & 0xFF) * alpha + ((under >> 8) & 0xFF) * inverse + 128;
+        g = (g + (g >> 8)) >> 8;
+        return rb | (g << 8);
+    }
+
+    /**
+     * Draw a queued sprite through Graphics2D, for transforms a plain copy can't do
+     */
+    private void drawTransformed(Graphics2D graphics, int command){
+        int f = command * floatStride, i = command * intStride;
+        BufferedImage image = images.get(ints[i]);
+        int tint = ints[i + 2];
+        int srcX = Math.max(0, ints[i + 3]), srcY = Math.max(0, ints[i + 4]);
+        int srcWidth = Math.min(ints[i + 5], image.getWidth() - srcX), srcHeight = Math.min(ints[i + 6], image.getHeight() - srcY);
+        if(srcWidth <= 0 || srcHeight <= 0) return;
+
+        BufferedImage region = srcX == 0 && srcY == 0 && srcWidth == image.getWidth() && srcHeight == image.getHeight()
+            ? image : image.getSubimage(srcX, srcY, srcWidth, srcHeight);
+
+        if(tint != 0xFFFFFFFF){
+            // Graphics2D can't tint, so tint a copy of the region
+            int[] source = pixels(ints[i]);
+            boolean sourcePremultiplied = premultiplied[ints[i]];
+            BufferedImage tinted = new BufferedImage(srcWidth, srcHeight, BufferedImage.TYPE_INT_ARGB);
+            int[] out = Rasters.data(tinted);
+            for(int y = 0; y < srcHeight; y++){
+                for(int x = 0; x < srcWidth; x++){
+                    int color = source[(srcY + y) * image.getWidth() + srcX + x];
+                    if(sourcePremultiplied) color = Rasters.unpremultiply(color);
+                    out[y * srcWidth + x] = multiply(color, tint);
+                }
+            }
+            region = tinted;
+        }
+
+        // Affine2 keeps m00, m01, m02 in its first row; AffineTransform takes columns
+        awtTransform.setTransform(floats[f], floats[f + 3], floats[f + 1], floats[f + 4], floats[f + 2], floats[f + 5]);
+        graphics.drawImage(region, awtTransform, null);
+    }
+
+    /**
+     * @return A non-premultiplied color multiplied channel by channel by a tint
+     */
+    private static int multiply(int color, int tint){
+        int a = ((color >>> 24) * (tint >>> 24) + 127) / 255;
+        int r = (((color >> 16) & 0xFF) * ((tint >> 16) & 0xFF) + 127) / 255;
+        int g = (((color >> 8) & 0xFF) * ((tint >> 8) & 0xFF) + 127) / 255;
+        int b = ((color & 0xFF) * (tint & 0xFF) + 127) / 255;
+        return (a << 24) | (r << 16) | (g << 8) | b;
+    }
+
+    /**
+     * Draw a translucent non-premultiplied color over a pixel of the target
+     */
+    static int blend(int color, int under, int type){
+        int alpha = color >>> 24, inverse = 255 - alpha;
+        int r = ((color >> 16) & 0xFF) * alpha, g = ((color >> 8) & 0xFF) * alpha, b = (color & 0xFF) * alpha;
+
+        if(type == BufferedImage.TYPE_INT_RGB){
+            r = (r + ((under >> 16) & 0xFF) * inverse + 127) / 255;
+            g = (g + ((under >> 8) & 0xFF) * inverse + 127) / 255;
+            b = (b + (under & 0xFF) * inverse + 127) / 255;
+            return (r << 16) | (g << 8) | b;
+        }
+
+        if(type == BufferedImage.TYPE_INT_ARGB_PRE){
+            int a = alpha + ((under >>> 24) * inverse + 127) / 255;
+            r = (r + ((under >> 16) & 0xFF) * inverse + 127) / 255;
+            g = (g + ((under >> 8) & 0xFF) * inverse + 127) / 255;
+            b = (b + (under & 0xFF) * inverse + 127) / 255;
+            return (a << 24) | (r << 16) | (g << 8) | b;
+        }
+
+        // Non-premultiplied: blend premultiplied, then divide by the new alpha
+        int underAlpha = (under >>> 24) * inverse;
+        int a = alpha * 255 + underAlpha;
+        if(a == 0) return 0;
+        r = ((r * 255 + ((under >> 16) & 0xFF) * underAlpha) + a / 2) / a;
+        g = ((g * 255 + ((under >> 8) & 0xFF) * underAlpha) + a / 2) / a;
+        b = ((b * 255 + (under & 0xFF) * underAlpha) + a / 2) / a;
+        return (((a + 127) / 255) << 24) | (r << 16) | (g << 8) | b;
+    }
 }
@@ -0,0 +1,113 @@
+package bogus.graphics;
+
+import java.util.Arrays;
+
+/**
+ * Frame times of a {@link RenderLoop}. The last frames are kept in a ring
+ * buffer, so averages and percentiles cover a recent window and reading them
+ * doesn't allocate. Written by the render thread and safe to read from any other.
+ */
+public class FrameStats{
+    // Duration of each of the last frames in nanoseconds, oldest first from next once full
+    private final long[] times;
+    private final long[] sorted;
+    private int count, next;
+
+    private long frames, updates, droppedUpdates;
+
+    public FrameStats(int capacity){
+        times = new long[capacity];
+        sorted = new long[capacity];
+    }
+
+    /** Keeps the last two seconds at 60 frames per second */
+    public FrameStats(){
+        this(120);
+    }
+
+    synchronized void addFrame(long nanos){
+        times[next] = nanos;
+        next = (next + 1) % times.length;
+        count = Math.min(count + 1, times.length);
+        frames++;
+    }
+
+    synchronized void addUpdates(int count, long dropped){
+        updates += count;
+        droppedUpdates += dropped;
+    }
+
+    /** @return Frames shown since the loop started */
+    public synchronized long getFrames(){
+        return frames;
+    }
+
+    /** @return Fixed-step updates run since the loop started */
+    public synchronized long getUpdates(){
+        return updates;
+    }
+
+    /** @return Updates skipped because the loop fell too far behind to catch up */
+    public synchronized long getDroppedUpdates(){
+        return droppedUpdates;
+    }
+
+    /** @return Frames in the window the other figures cover */
+    public synchronized int getWindow(){
+        return count;
+    }
+
+    public synchronized float getAverageMillis(){
+        if(count == 0) return 0;
+        long total = 0;
+        for(int i = 0; i < count; i++) total += times[i];
+        return total / (float)count / 1e6f;
+    }
+
+    /** @return Frames per second over the window */
+    public float getFps(){
+        float average = getAverageMillis();
+        return average == 0 ? 0 : 1000f / average;
+    }
+
+    public synchronized float getMinMillis(){
+        return getPercentileMillis(0);
+    }
+
+    public synchronized float getMaxMillis(){
+        return getPercentileMillis(1);
+    }
+
+    /**
+     * @param percentile From 0 to 1, e.g. 0.99 for the frame time 99% of frames beat
+     */
+    public synchronized float getPercentileMillis(float percentile){
+        if(count == 0) return 0;
+        System.arraycopy(times, 0, sorted, 0, count);
+        Arrays.sort(sorted, 0, count);
+        int index = Math.min(count - 1, Math.max(0, (int)Math.ceil(percentile * count) - 1));
+        return sorted[index] / 1e6f;
+    }
+
+    /** @return Standard deviation of the frame time over the window, the stutter a player sees */
+    public synchronized float getJitterMillis(){
+        if(count == 0) return 0;
+        double mean = 0;
+        for(int i = 0; i < count; i++) mean += times[i];
+        mean /= count;
+        double variance = 0;
+        for(int i = 0; i < count; i++) variance += (times[i] - mean) * (times[i] - mean);
+        return (float)(Math.sqrt(variance / count) / 1e6);
+    }
+
+    public synchronized void reset(){
+        count = next = 0;
+        frames = updates = droppedUpdates = 0;
+    }
+
+    @Override
+    public String toString(){
+        return String.format("%.1f fps, avg %.2fms, p99 %.2fms, max %.2fms, jitter %.2fms, %d dropped updates",
+            getFps(), getAverageMillis(), getPercentileMillis(0.99f), getMaxMillis(), getJitterMillis(), getDroppedUpdates());
+    }
+}
@@ -0,0 +1,206 @@
+package bogus.graphics;
+
+import bogus.struct.IntIntMap;
+
+import java.awt.*;
+import java.awt.font.FontRenderContext;
+import java.awt.font.GlyphVector;
+import java.awt.font.LineMetrics;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+
+/**
+ * Glyphs of one font, drawn once each into a shared image as white with
+ * antialiased alpha, to be copied out and tinted instead of rendering the font
+ * again. Plain, bold and italic glyphs share the image, so text of any style
+ * draws from one sprite sheet.
+ *
+ * Glyphs are packed in rows, added as they are first asked for. When the image
+ * is full it doubles in height, keeping every glyph where it was, up to
+ * {@link #maxSize}; past that it starts over empty and bumps its generation,
+ * and positions taken from it earlier are no longer valid.
+ */
+public class GlyphAtlas{
+    /** Largest width and height of the atlas image */
+    public static final int maxSize = 4096;
+    // Ints per glyph: x, y, width and height in the atlas, offset from the pen, advance
+    static final int stride = 7;
+    // Empty pixels around each glyph, so tinting doesn't bleed between neighbours
+    private static final int padding = 1;
+
+    private final Font font;
+    private final Font[] styles = new Font[4];
+    private final FontRenderContext context = new FontRenderContext(null, true, false);
+    private final int ascent, lineHeight;
+    private final int width;
+
+    private BufferedImage image;
+    private final IntIntMap ids = new IntIntMap();
+    int[] glyphs = new int[stride * 128];
+    private int glyphCount;
+    // Packing row being filled, and its position returned by place
+    private int shelfX, shelfY, shelfHeight;
+    private final int[] placed = new int[2];
+    private int generation;
+
+    // A solid white block, copied out for underlines and backgrounds
+    private int solidX, solidY;
+    private final int solidWidth = 64, solidHeight;
+
+    public GlyphAtlas(Font font){
+        this.font = font;
+        styles[font.getStyle() & 3] = font;
+        LineMetrics metrics = font.getLineMetrics("Ag", context);
+        ascent = (int)Math.ceil(metrics.getAscent());
+        lineHeight = Math.max(1, (int)Math.ceil(metrics.getAscent() + metrics.getDescent() + metrics.getLeading()));
+        solidHeight = lineHeight;
+        width = Math.min(maxSize, Math.max(256, Integer.highestOneBit(Math.max(1, font.getSize()) * 16)));
+        reset();
+    }
+
+    public Font getFont(){
+        return font;
+    }
+
+    /** @return Distance from the top of a line to its baseline */
+    public int getAscent(){
+        return ascent;
+    }
+
+    public int getLineHeight(){
+        return lineHeight;
+    }
+
+    /** @return The atlas image, replaced when the atlas grows or starts over */
+    public BufferedImage getImage(){
+        return image;
+    }
+
+    /** @return Bumped whenever the atlas starts over, invalidating every glyph position */
+    public int getGeneration(){
+        return generation;
+    }
+
+    public int getGlyphCount(){
+        return glyphCount;
+    }
+
+    int getSolidX(){
+        return solidX;
+    }
+
+    int getSolidY(){
+        return solidY;
+    }
+
+    int getSolidWidth(){
+        return solidWidth;
+    }
+
+    /**
+     * Get a glyph, drawing it into the atlas the first time
+     *
+     * @param style Font.BOLD, Font.ITALIC or both, added to the font's own style; Font.PLAIN for the font as it is
+     * @return Index of the glyph, its data starting at index * {@link #stride} in {@link #glyphs}
+     */
+    public int glyph(char c, int style){
+        style = (font.getStyle() | style) & 3;
+        int key = (style << 16) | c;
+        int id = ids.get(key, -1);
+        if(id >= 0) return id;
+
+        Font styled = styles[style];
+        if(styled == null) styled = styles[style] = font.deriveFont(style);
+        GlyphVector vector = styled.createGlyphVector(context, new char[]{c});
+        Rectangle bounds = vector.getPixelBounds(context, 0, 0);
+        int advance = Math.round(vector.getGlyphMetrics(0).getAdvanceX());
+
+        int x = 0, y = 0, w = 0, h = 0;
+        // Glyphs that could never fit are left out, as they would empty the atlas over and over
+        if(bounds.width > 0 && bounds.height > 0 && bounds.width + padding * 2 <= width && bounds.height + padding * 2 <= maxSize / 2){
+            int[] place = place(bounds.width, bounds.height);
+            if(place == null){
+                // The atlas started over, so add the glyph to the new one
+                return glyph(c, style);
+            }
+            x = place[0];
+            y = place[1];
+            w = bounds.width;
+            h = bounds.height;
+
+            Graphics2D g = image.createGraphics();
+            try{
+                g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+                g.setColor(Color.WHITE);
+                g.clipRect(x, y, w, h);
+                g.drawGlyphVector(vector, x - bounds.x, y - bounds.y);
+            }finally{
+                g.dispose();
+            }
+        }
+
+        id = glyphCount++;
+        if(glyphs.length < glyphCount * stride){
+            glyphs = Arrays.copyOf(glyphs, glyphs.length * 2);
+        }
+        int i = id * stride;
+        glyphs[i] = x;
+        glyphs[i + 1] = y;
+        glyphs[i + 2] = w;
+        glyphs[i + 3] = h;
+        glyphs[i + 4] = bounds.x;
+        glyphs[i + 5] = bounds.y;
+        glyphs[i + 6] = advance;
+        ids.put(key, id);
+        return id;
+    }
+
+    /**
+     * Find room for a block in the current row, a new row, or a taller image
+     *
+     * @return The block's position, or null if the atlas was full and started over
+     */
+    private int[] place(int w, int h){
+        w += padding * 2;
+        h += padding * 2;
+        if(shelfX + w > width){
+            shelfY += shelfHeight;
+            shelfX = shelfHeight = 0;
+        }
+        while(shelfY + h > image.getHeight()){
+            if(image.getHeight() * 2 > maxSize){
+                reset();
+                generation++;
+                return null;
+            }
+            BufferedImage taller = new BufferedImage(width, image.getHeight() * 2, BufferedImage.TYPE_INT_ARGB);
+            int[] from = Rasters.data(image), to = Rasters.data(taller);
+            System.arraycopy(from, 0, to, 0, from.length);
+            image = taller;
+        }
+
+        placed[0] = shelfX + padding;
+        placed[1] = shelfY + padding;
+        shelfX += w;
+        shelfHeight = Math.max(shelfHeight, h);
+        return placed;
+    }
+
+    /**
+     * Empty the atlas, keeping only the solid block
+     */
+    private void reset(){
+        image = new BufferedImage(width, Math.max(64, Integer.highestOneBit(lineHeight * 4)), BufferedImage.TYPE_INT_ARGB);
+        ids.clear();
+        glyphCount = 0;
+        shelfX = shelfY = shelfHeight = 0;
+
+        int[] place = place(solidWidth, solidHeight);
+        solidX = place[0];
+        solidY = place[1];
+        int[] data = Rasters.data(image);
+        for(int y = solidY; y < solidY + solidHeight; y++){
+            Arrays.fill(data, y * width + solidX, y * width + solidX + solidWidth, 0xFFFFFFFF);
+        }
+    }
+}
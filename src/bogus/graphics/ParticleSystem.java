@@ -0,0 +1,368 @@
+package bogus.graphics;
+
+import bogus.math.CumulativeDistribution;
+import bogus.math.Interp;
+import bogus.math.Mathf;
+import bogus.math.Rand;
+import bogus.util.Disposable;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Particles kept as parallel arrays, one per property, instead of an object
+ * each. Updating them is a few tight loops over flat arrays, dead particles are
+ * removed by moving the last particle into their place, and nothing is
+ * allocated once the arrays have grown to the particle count, so even hundreds
+ * of thousands of particles leave the garbage collector nothing to do.
+ *
+ * Particles are drawn as squares blended straight into an int-packed image in
+ * one pass, sized and faded over their life by {@link #sizeOverLife} and
+ * {@link #alphaOverLife}. With a parallelism above 1, the update of large
+ * counts is split over a {@link ForkJoinPool}.
+ */
+public class ParticleSystem implements Disposable{
+    /** Particles below which the update stays on the calling thread, as splitting costs more than it saves */
+    public static final int parallelThreshold = 1 << 15;
+
+    /** Acceleration of every particle, in pixels per second squared */
+    public float gravityX, gravityY;
+    /** Fraction of its velocity a particle loses per second */
+    public float drag;
+    /** Multiplies a particle's size by its age, from 0 when emitted to 1 when it dies */
+    public Interp sizeOverLife = Interp.one;
+    /** Multiplies a particle's alpha by its age */
+    public Interp alphaOverLife = Interp.reverse;
+
+    private final int capacity;
+    private final ArrayList<Emitter> emitters = new ArrayList<>();
+
+    private float[] x, y, vx, vy, life, lifetime, size;
+    private int[] color;
+    private int count;
+    private long dropped;
+
+    private int parallelism = 1;
+    private ForkJoinPool pool;
+    // Made with the pool and reused every update, so a parallel update allocates nothing
+    private UpdateAction update;
+
+    /**
+     * Spawns particles from an area at a rate, picking each particle's properties at random.
+     * Ranges are picked from through {@link #distribution}, so e.g. {@link Interp#pow2In} favours their minimums.
+     */
+    public static class Emitter{
+        /** Center of the area particles spawn in */
+        public float x, y;
+        /** Size of the area particles spawn in, 0 for a point */
+        public float width, height;
+        /** Particles per second */
+        public float rate;
+        /** Direction particles move in, in degrees, and the width of the cone around it */
+        public float angle, spread = 360;
+        /** Speed in pixels per second */
+        public float speedMin = 20, speedMax = 40;
+        /** Life in seconds */
+        public float lifeMin = 1, lifeMax = 1;
+        /** Size in pixels */
+        public float sizeMin = 2, sizeMax = 2;
+        /** Maps a uniform random number to where in each range a particle lands */
+        public Interp distribution = Interp.linear;
+        /** Color of every particle, as 0xAARRGGBB, when there is no palette */
+        public int color = 0xFFFFFFFF;
+        /** Colors picked by weight, or null; must be generated normalized */
+        public CumulativeDistribution<Color> palette;
+        public Rand rand = new Rand();
+
+        // Fraction of a particle not yet emitted
+        private float accumulator;
+
+        public Emitter(){
+        }
+
+        public Emitter(float x, float y, float rate){
+            this.x = x;
+            this.y = y;
+            this.rate = rate;
+        }
+
+        private float pick(float min, float max){
+            return min + (max - min) * distribution.apply(rand.nextFloat());
+        }
+    }
+
+    /**
+     * @param capacity Most particles alive at once; particles emitted past it are dropped
+     */
+    public ParticleSystem(int capacity){
+        this.capacity = capacity;
+        allocate(Math.min(capacity, 1024));
+    }
+
+    private void allocate(int length){
+        x = x == null ? new float[length] : Arrays.copyOf(x, length);
+        y = y == null ? new float[length] : Arrays.copyOf(y, length);
+        vx = vx == null ? new float[length] : Arrays.copyOf(vx, length);
+        vy = vy == null ? new float[length] : Arrays.copyOf(vy, length);
+        life = life == null ? new float[length] : Arrays.copyOf(life, length);
+        lifetime = lifetime == null ? new float[length] : Arrays.copyOf(lifetime, length);
+        size = size == null ? new float[length] : Arrays.copyOf(size, length);
+        color = color == null ? new int[length] : Arrays.copyOf(color, length);
+    }
+
+    public int getParallelism(){
+        return parallelism;
+    }
+
+    /**
+     * @param parallelism Threads to update large counts on; 1 updates on the calling thread without a pool
+     */
+    public void setParallelism(int parallelism){
+        parallelism = Math.max(1, parallelism);
+        if(parallelism != this.parallelism){
+            if(pool != null) pool.shutdown();
+            pool = parallelism > 1 ? new ForkJoinPool(parallelism) : null;
+            update = parallelism > 1 ? new UpdateAction(parallelism) : null;
+            this.parallelism = parallelism;
+        }
+    }
+
+    public void add(Emitter emitter){
+        emitters.add(emitter);
+    }
+
+    public void remove(Emitter emitter){
+        emitters.remove(emitter);
+    }
+
+    /** @return Particles alive */
+    public int getCount(){
+        return count;
+    }
+
+    public int getCapacity(){
+        return capacity;
+    }
+
+    /** @return Particles not emitted because the system was full */
+    public long getDropped(){
+        return dropped;
+    }
+
+    /**
+     * Remove every particle
+     */
+    public void clear(){
+        count = 0;
+    }
+
+    /**
+     * Move and age every particle, remove the dead, then let every emitter spawn what is due
+     *
+     * @param delta Seconds since the last update
+     */
+    public void update(float delta){
+        float damping = Math.max(0, 1 - drag * delta);
+        float gx = gravityX * delta, gy = gravityY * delta;
+
+        if(pool != null && count >= parallelThreshold){
+            update.set(delta, damping, gx, gy);
+            update.reinitialize();
+            pool.invoke(update);
+        }else{
+            integrate(0, count, delta, damping, gx, gy);
+        }
+        compact();
+
+        for(int i = 0; i < emitters.size(); i++){
+            Emitter emitter = emitters.get(i);
+            emitter.accumulator += emitter.rate * delta;
+            int due = (int)emitter.accumulator;
+            emitter.accumulator -= due;
+            emit(emitter, due);
+        }
+    }
+
+    /**
+     * Step the particles [from, to) forward; touches nothing outside them, so ranges can run in parallel
+     */
+    private void integrate(int from, int to, float delta, float damping, float gx, float gy){
+        float[] x = this.x, y = this.y, vx = this.vx, vy = this.vy, life = this.life;
+        for(int i = from; i < to; i++){
+            float vxi = vx[i] * damping + gx, vyi = vy[i] * damping + gy;
+            vx[i] = vxi;
+            vy[i] = vyi;
+            x[i] += vxi * delta;
+            y[i] += vyi * delta;
+            life[i] -= delta;
+        }
+    }
+
+    /**
+     * Remove dead particles, moving the last particle into each one's place
+     */
+    private void compact(){
+        float[] life = this.life;
+        int n = count;
+        for(int i = 0; i < n; ){
+            if(life[i] <= 0){
+                n--;
+                move(n, i);
+            }else{
+                i++;
+            }
+        }
+        count = n;
+    }
+
+    private void move(int from, int to){
+        x[to] = x[from];
+        y[to] = y[from];
+        vx[to] = vx[from];
+        vy[to] = vy[from];
+        life[to] = life[from];
+        lifetime[to] = lifetime[from];
+        size[to] = size[from];
+        color[to] = color[from];
+    }
+
+    /**
+     * Spawn particles from an emitter at once, e.g. for a burst
+     */
+    public void emit(Emitter emitter, int amount){
+        if(count + amount > capacity){
+            dropped += count + amount - capacity;
+            amount = capacity - count;
+        }
+        if(amount <= 0) return;
+        if(count + amount > x.length){
+            allocate(Math.min(capacity, Math.max(count + amount, x.length * 2)));
+        }
+
+        Rand rand = emitter.rand;
+        for(int n = 0; n < amount; n++){
+            int i = count++;
+            float angle = emitter.angle + (rand.nextFloat() - 0.5f) * emitter.spread;
+            float speed = emitter.pick(emitter.speedMin, emitter.speedMax);
+            x[i] = emitter.x + (rand.nextFloat() - 0.5f) * emitter.width;
+            y[i] = emitter.y + (rand.nextFloat() - 0.5f) * emitter.height;
+            vx[i] = Mathf.cosDeg(angle) * speed;
+            vy[i] = Mathf.sinDeg(angle) * speed;
+            life[i] = lifetime[i] = Math.max(emitter.pick(emitter.lifeMin, emitter.lifeMax), Float.MIN_NORMAL);
+            size[i] = emitter.pick(emitter.sizeMin, emitter.sizeMax);
+            color[i] = emitter.palette != null ? emitter.palette.value(rand.nextFloat()).getRGB() : emitter.color;
+        }
+    }
+
+    /**
+     * Blend every particle into an image as a square, in one pass over its pixels
+     *
+     * @param target TYPE_INT_RGB, TYPE_INT_ARGB or TYPE_INT_ARGB_PRE
+     * @param offsetX Where the particles' origin is on the target
+     */
+    public void draw(BufferedImage target, float offsetX, float offsetY){
+        int[] dest = Rasters.data(target);
+        int type = target.getType();
+        boolean opaque = type == BufferedImage.TYPE_INT_RGB;
+        if(dest == null || !(opaque || Rasters.isIntArgb(target))){
+            throw new IllegalArgumentException("Particles are drawn into int-packed images, not type " + type);
+        }
+
+        int width = target.getWidth(), height = target.getHeight();
+        Interp sizeOverLife = this.sizeOverLife, alphaOverLife = this.alphaOverLife;
+        for(int i = 0; i < count; i++){
+            float age = 1 - life[i] / lifetime[i];
+            float s = size[i] * sizeOverLife.apply(age);
+            int alpha = (int)((color[i] >>> 24) * alphaOverLife.apply(age) + 0.5f);
+            if(s < 0.5f || alpha <= 0) continue;
+
+            int side = (int)(s + 0.5f);
+            int x0 = (int)Math.floor(x[i] + offsetX - side * 0.5f + 0.5f), y0 = (int)Math.floor(y[i] + offsetY - side * 0.5f + 0.5f);
+            int x1 = Math.min(width, x0 + side), y1 = Math.min(height, y0 + side);
+            x0 = Math.max(0, x0);
+            y0 = Math.max(0, y0);
+            if(x0 >= x1 || y0 >= y1) continue;
+
+            int c = (Math.min(alpha, 255) << 24) | (color[i] & 0xFFFFFF);
+            for(int py = y0; py < y1; py++){
+                int row = py * width;
+                for(int px = x0; px < x1; px++){
+                    if(alpha >= 255){
+                        dest[row + px] = c;
+                    }else{
+                        dest[row + px] = opaque ? Drawer.blendOpaque(c, dest[row + px]) : Drawer.blend(c, dest[row + px], type);
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    public void dispose(){
+        if(pool != null){
+            pool.shutdown();
+            pool = null;
+        }
+        update = null;
+        parallelism = 1;
+    }
+
+    /**
+     * Steps every particle as one range per thread, the ranges splitting the particles alive evenly.
+     * Particles cost the same to step, so fixed ranges balance as well as splitting further would.
+     */
+    private class UpdateAction extends RecursiveAction{
+        private static final long serialVersionUID = 1815266169435966202L;
+
+        private final RangeAction[] ranges;
+        private float delta, damping, gx, gy;
+
+        UpdateAction(int parallelism){
+            ranges = new RangeAction[parallelism];
+            for(int i = 0; i < parallelism; i++){
+                ranges[i] = new RangeAction(this, i);
+            }
+        }
+
+        void set(float delta, float damping, float gx, float gy){
+            this.delta = delta;
+            this.damping = damping;
+            this.gx = gx;
+            this.gy = gy;
+        }
+
+        @Override
+        protected void compute(){
+            for(RangeAction range : ranges){
+                range.reinitialize();
+            }
+            invokeAll(ranges);
+        }
+    }
+
+    /**
+     * Steps one of the ranges of an {@link UpdateAction}
+     */
+    private class RangeAction extends RecursiveAction{
+        private static final long serialVersionUID = -960203121407704695L;
+
+        private final UpdateAction update;
+        private final int index;
+
+        RangeAction(UpdateAction update, int index){
+            this.update = update;
+            this.index = index;
+        }
+
+        @Override
+        protected void compute(){
+            int n = update.ranges.length;
+            int from = (int)((long)count * index / n), to = (int)((long)count * (index + 1) / n);
+            integrate(from, to, update.delta, update.damping, update.gx, update.gy);
+        }
+    }
+}
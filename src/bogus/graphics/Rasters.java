@@ -0,0 +1,131 @@
+package bogus.graphics;
+
+import java.awt.image.*;
+
+/**
+ * Direct access to the pixel arrays backing {@link BufferedImage}s.
+ * Touching the backing array stops Java2D from caching the image in video memory,
+ * which is the right trade for images that are rewritten every frame.
+ */
+public class Rasters{
+    /**
+     * @return Whether the image stores one packed ARGB int per pixel, with or without premultiplied alpha
+     */
+    public static boolean isIntArgb(BufferedImage image){
+        int type = image.getType();
+        return type == BufferedImage.TYPE_INT_ARGB || type == BufferedImage.TYPE_INT_ARGB_PRE;
+    }
+
+    /**
+     * Get the backing array of an int-packed image, laid out row by row with
+     * a stride equal to the image width.
+     *
+     * @param image The image
+     * @return The backing array, or null if the image is not int-packed or is a sub-image
+     */
+    public static int[] data(BufferedImage image){
+        WritableRaster raster = image.getRaster();
+        if(!(raster.getDataBuffer() instanceof DataBufferInt) || !(raster.getSampleModel() instanceof SinglePixelPackedSampleModel)){
+            return null;
+        }
+
+        SinglePixelPackedSampleModel model = (SinglePixelPackedSampleModel) raster.getSampleModel();
+        DataBufferInt buffer = (DataBufferInt) raster.getDataBuffer();
+        if(model.getScanlineStride() != image.getWidth() || buffer.getOffset() != 0 || buffer.getNumBanks() != 1
+            || raster.getSampleModelTranslateX() != 0 || raster.getSampleModelTranslateY() != 0){
+            return null;
+        }
+        return buffer.getData();
+    }
+
+    /**
+     * Read the whole image as non-premultiplied ARGB. TYPE_INT_ARGB images are read
+     * straight from their backing array without copying; every other type is
+     * converted into the scratch array.
+     *
+     * @param image The image to read
+     * @param scratch Array to convert into, reallocated if null or too small
+     * @return The backing array of the image, or the filled scratch array
+     */
+    public static int[] readArgb(BufferedImage image, int[] scratch){
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int[] data = data(image);
+
+        if(data != null && image.getType() == BufferedImage.TYPE_INT_ARGB){
+            return data;
+        }
+
+        if(scratch == null || scratch.length < width * height){
+            scratch = new int[width * height];
+        }
+
+        if(data != null && image.getType() == BufferedImage.TYPE_INT_ARGB_PRE){
+            for(int i = 0, n = width * height; i < n; i++){
+                scratch[i] = unpremultiply(data[i]);
+            }
+        }else{
+            image.getRGB(0, 0, width, height, scratch, 0, width);
+        }
+        return scratch;
+    }
+
+    /**
+     * Write non-premultiplied ARGB pixels into the whole image, converting only when
+     * the image is not int-packed ARGB. Writing an image's own backing array back
+     * into it is a no-op.
+     *
+     * @param image The image to write
+     * @param pixels Pixels laid out row by row with a stride equal to the image width
+     */
+    public static void writeArgb(BufferedImage image, int[] pixels){
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int[] data = data(image);
+
+        if(data == pixels){
+            return;
+        }
+
+        if(data != null && image.getType() == BufferedImage.TYPE_INT_ARGB){
+            System.arraycopy(pixels, 0, data, 0, width * height);
+        }else if(data != null && image.getType() == BufferedImage.TYPE_INT_ARGB_PRE){
+            for(int i = 0, n = width * height; i < n; i++){
+                data[i] = premultiply(pixels[i]);
+            }
+        }else{
+            image.setRGB(0, 0, width, height, pixels, 0, width);
+        }
+    }
+
+    /**
+     * @param argb Non-premultiplied 0xAARRGGBB
+     * @return The color with each channel multiplied by alpha
+     */
+    public static int premultiply(int argb){
+        int a = argb >>> 24;
+        if(a == 255) return argb;
+        if(a == 0) return 0;
+
+        int r = (((argb >> 16) & 0xFF) * a + 127) / 255;
+        int g = (((argb >> 8) & 0xFF) * a + 127) / 255;
+        int b = ((argb & 0xFF) * a + 127) / 255;
+        return (a << 24) | (r << 16) | (g << 8) | b;
+    }
+
+    /**
+     * @param argb Premultiplied 0xAARRGGBB
+     * @return The color with each channel divided by alpha
+     */
+    public static int unpremultiply(int argb){
+        int a = argb >>> 24;
+        if(a == 255) return argb;
+        if(a == 0) return 0;
+
+        int half = a / 2;
+        int r = Math.min(255, (((argb >> 16) & 0xFF) * 255 + half) / a);
+        int g = Math.min(255, (((argb >> 8) & 0xFF) * 255 + half) / a);
+        int b = Math.min(255, ((argb & 0xFF) * 255 + half) / a);
+        return (a << 24) | (r << 16) | (g << 8) | b;
+    }
+}
@@ -0,0 +1,232 @@
+package bogus.graphics;
+
+import java.awt.*;
+import java.awt.image.BufferStrategy;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Drives a game on its own thread, drawing into a canvas through a
+ * {@link BufferStrategy} instead of waiting for AWT to repaint.
+ *
+ * The game is updated in fixed steps, as many as the time since the last frame
+ * calls for, so it runs at the same speed whatever the frame rate. Rendering
+ * gets how far the clock has moved past the last step, to interpolate positions
+ * between steps. Frames are paced to a target rate by sleeping most of the wait
+ * and spinning the last millisecond, which sleeps alone are too coarse for.
+ */
+public class RenderLoop implements Runnable{
+    public interface Handler{
+        /**
+         * Advance the game by one fixed step
+         *
+         * @param step Length of the step in seconds
+         */
+        void update(float step);
+
+        /**
+         * Draw the game
+         *
+         * @param g Graphics of the back buffer, which is not cleared between frames
+         * @param alpha How far between the last update and the next one the frame is, from 0 to 1
+         */
+        void render(Graphics2D g, float alpha);
+
+        /**
+         * Called before a render whose back buffer doesn't hold the last frame, e.g. the first
+         * frame, after the buffers were lost, or every frame when buffers are flipped or rotated.
+         * Handlers that only redraw what changed must draw everything in that render.
+         */
+        default void invalidate(){
+        }
+    }
+
+    // Sleeps are cut short by this much and the rest is spun, as the scheduler wakes threads late
+    private static final long spinNanos = 1_000_000L;
+    // Longest gap between frames that is caught up on, e.g. after a pause in a debugger
+    private static final long maxElapsedNanos = 250_000_000L;
+
+    private final Canvas canvas;
+    private final Handler handler;
+    private final FrameStats stats = new FrameStats();
+
+    private volatile int updateRate = 60;
+    private volatile int targetFps = 60;
+    private volatile int maxUpdatesPerFrame = 5;
+    private volatile int buffers = 2;
+
+    private volatile boolean running;
+    private Thread thread;
+    // Strategy the last frame was drawn with, to tell when the back buffer was replaced
+    private BufferStrategy shown;
+
+    // Time not yet consumed by updates, in nanoseconds
+    private long accumulator;
+
+    public RenderLoop(Canvas canvas, Handler handler){
+        this.canvas = canvas;
+        this.handler = handler;
+    }
+
+    public Canvas getCanvas(){ return canvas; }
+
+    public FrameStats getStats(){ return stats; }
+
+    public int getUpdateRate(){ return updateRate; }
+
+    /** @param rate Fixed updates per second */
+    public void setUpdateRate(int rate){ this.updateRate = Math.max(1, rate); }
+
+    public int getTargetFps(){ return targetFps; }
+
+    /** @param fps Frames per second to pace to, or 0 to render as fast as possible */
+    public void setTargetFps(int fps){ this.targetFps = Math.max(0, fps); }
+
+    public int getMaxUpdatesPerFrame(){ return maxUpdatesPerFrame; }
+
+    /** @param updates Updates run before a frame at most; time past that is dropped rather than falling further behind */
+    public void setMaxUpdatesPerFrame(int updates){ this.maxUpdatesPerFrame = Math.max(1, updates); }
+
+    public int getBuffers(){ return buffers; }
+
+    /** @param buffers 2 for double buffering, 3 for triple; takes effect when the loop starts */
+    public void setBuffers(int buffers){ this.buffers = Math.max(1, buffers); }
+
+    public boolean isRunning(){ return running; }
+
+    /**
+     * Start the render thread, if it isn't running already
+     */
+    public synchronized void start(){
+        if(running) return;
+        running = true;
+        thread = new Thread(this, "Render");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stop the render thread and wait for its frame to finish
+     */
+    public void stop(){
+        Thread thread;
+        synchronized(this){
+            running = false;
+            thread = this.thread;
+            this.thread = null;
+        }
+        if(thread != null && thread != Thread.currentThread()){
+            try{
+                thread.join();
+            }catch(InterruptedException e){
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    @Override
+    public void run(){
+        long previous = System.nanoTime();
+        long nextFrame = previous;
+        accumulator = 0;
+
+        while(running){
+            // The canvas can't take a buffer strategy until it is on screen
+            BufferStrategy strategy = canvas.isDisplayable() ? canvas.getBufferStrategy() : null;
+            if(strategy == null){
+                if(canvas.isDisplayable()){
+                    canvas.createBufferStrategy(buffers);
+                }else{
+                    LockSupport.parkNanos(10_000_000L);
+                }
+                previous = nextFrame = System.nanoTime();
+                continue;
+            }
+
+            // Frame time is from one frame's start to the next, the interval a player sees
+            long frameStart = System.nanoTime();
+            long elapsed = frameStart - previous;
+            previous = frameStart;
+            stats.addFrame(elapsed);
+
+            render(strategy, advance(elapsed));
+
+            int fps = targetFps;
+            if(fps > 0){
+                // Keep to the schedule, unless the frame ran so late that catching up would burst
+                nextFrame += 1_000_000_000L / fps;
+                long now = System.nanoTime();
+                if(now - nextFrame > 1_000_000_000L / fps) nextFrame = now;
+                waitUntil(nextFrame);
+            }
+        }
+    }
+
+    /**
+     * Run the updates that the time since the last frame calls for
+     *
+     * @param elapsedNanos Time since the last frame
+     * @return How far between the last update and the next one the clock is, from 0 to 1
+     */
+    public float advance(long elapsedNanos){
+        long step = 1_000_000_000L / updateRate;
+        accumulator += Math.min(Math.max(0, elapsedNanos), maxElapsedNanos);
+
+        int updates = 0, max = maxUpdatesPerFrame;
+        while(accumulator >= step && updates < max){
+            handler.update(step / 1e9f);
+            accumulator -= step;
+            updates++;
+        }
+
+        // Drop whatever can't be caught up on, so one slow frame doesn't slow every frame after it
+        long dropped = accumulator / step;
+        accumulator -= dropped * step;
+        stats.addUpdates(updates, dropped);
+
+        return accumulator / (float)step;
+    }
+
+    private void render(BufferStrategy strategy, float alpha){
+        boolean fresh = strategy != shown || !retainsFrames(strategy);
+        shown = strategy;
+        do{
+            do{
+                if(fresh) handler.invalidate();
+                // Any retry draws into a buffer that was just restored or lost
+                fresh = true;
+                Graphics2D g = (Graphics2D)strategy.getDrawGraphics();
+                try{
+                    handler.render(g, alpha);
+                }finally{
+                    g.dispose();
+                }
+            }while(strategy.contentsRestored());
+            strategy.show();
+        }while(strategy.contentsLost());
+
+        // Flush the window system's queue, or frames can reach the screen in bursts on Linux
+        Toolkit.getDefaultToolkit().sync();
+    }
+
+    /**
+     * @return Whether the next frame's back buffer still holds the frame before it
+     */
+    private boolean retainsFrames(BufferStrategy strategy){
+        BufferCapabilities capabilities = strategy.getCapabilities();
+        if(capabilities.isPageFlipping()){
+            return capabilities.getFlipContents() == BufferCapabilities.FlipContents.COPIED;
+        }
+        // Blitted buffers are copied to the screen, but with more than one back buffer they take turns
+        return buffers <= 2;
+    }
+
+    private void waitUntil(long deadline){
+        long remaining = deadline - System.nanoTime();
+        if(remaining > spinNanos){
+            LockSupport.parkNanos(remaining - spinNanos);
+        }
+        while(System.nanoTime() < deadline){
+            Thread.onSpinWait();
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package bogus.graphics;
+
+/**
+ * Lookup tables between 8-bit sRGB channels and linear light. Light adds up
+ * correctly only in linear space, so lighting that sums many lights converts
+ * each input once through {@link #toLinear} and converts the result back once
+ * per pixel with {@link #toSrgb(float)}.
+ */
+public class Srgb{
+    /** Entries of the linear to sRGB table; fine enough that every 8-bit level is reachable */
+    public static final int linearSteps = 1 << 14;
+
+    /** Linear light of every 8-bit sRGB level, from 0 to 1 */
+    public static final float[] toLinear = new float[256];
+
+    private static final byte[] toSrgb = new byte[linearSteps + 1];
+
+    static{
+        for(int i = 0; i < 256; i++){
+            toLinear[i] = toLinear(i / 255f);
+        }
+        for(int i = 0; i <= linearSteps; i++){
+            toSrgb[i] = (byte)Math.round(fromLinear((float)i / linearSteps) * 255);
+        }
+    }
+
+    /**
+     * Exact sRGB decoding
+     *
+     * @param srgb Channel from 0 to 1
+     * @return Linear light from 0 to 1
+     */
+    public static float toLinear(float srgb){
+        return srgb <= 0.04045f ? srgb / 12.92f : (float)Math.pow((srgb + 0.055f) / 1.055f, 2.4f);
+    }
+
+    /**
+     * Exact sRGB encoding
+     *
+     * @param linear Linear light from 0 to 1
+     * @return Channel from 0 to 1
+     */
+    public static float fromLinear(float linear){
+        return linear <= 0.0031308f ? linear * 12.92f : 1.055f * (float)Math.pow(linear, 1 / 2.4f) - 0.055f;
+    }
+
+    /**
+     * Encode linear light as an 8-bit channel through the table, clamping to [0, 1]
+     *
+     * @return Channel from 0 to 255
+     */
+    public static int toSrgb(float linear){
+        int index = (int)(Math.min(1f, Math.max(0f, linear)) * linearSteps + 0.5f);
+        return toSrgb[index] & 0xFF;
+    }
+}
@@ -0,0 +1,485 @@
+package bogus.graphics;
+
+import bogus.util.ColorCodes;
+
+import java.awt.Font;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Draws text as sprites built from a {@link GlyphAtlas}, queued on a
+ * {@link Drawer} like any other sprite. Laying a string out, finding each
+ * glyph and where it goes, is done once and kept in a cache keyed by string
+ * and font. The first draw of a layout copies its glyphs into an image of its
+ * own, so text that is drawn every frame, like a HUD or a log, costs one
+ * sprite per string and nothing else.
+ *
+ * {@link ColorCodes} markup is understood while laying out, both as
+ * {@code &} followed by a code, e.g. {@code "&lrError&fr: ..."}, and as the
+ * terminal escapes the codes stand for, so strings meant for the console
+ * draw in their colors. Foreground and background colors, bold, italic,
+ * underline and reset are supported; text without a color takes the
+ * drawer's tint.
+ *
+ * Glyphs are placed at whole pixels by their own advance, without kerning.
+ */
+public class TextRenderer{
+    /** Layouts kept by default; the least recently drawn is dropped past this */
+    public static final int defaultCapacity = 256;
+    // Ints per quad: x, y, width and height in the atlas, position in the layout, color or 0 for the drawer's tint
+    static final int stride = 7;
+    // Transparent pixels between two runs of a strip's row below which they are drawn as one
+    private static final int runGap = 16;
+    // Strips a layout keeps, one per tint it was drawn in, so text drawn in a few alternating colors isn't redrawn
+    static final int stripCache = 4;
+
+    private final int capacity;
+    private final HashMap<Font, GlyphAtlas> atlases = new HashMap<>();
+    private final LinkedHashMap<Key, Layout> layouts;
+    // Looked up with, so finding a cached layout doesn't allocate
+    private final Key lookup = new Key();
+    private boolean markup = true;
+    private long hits, misses;
+
+    /**
+     * A laid out string: the atlas regions to copy and where, in pixels from its top left corner
+     */
+    public static final class Layout{
+        public final String text;
+        public final Font font;
+        final GlyphAtlas atlas;
+        int generation;
+        int[] quads = new int[stride * 16];
+        int quadCount;
+        int width, height, lines;
+        // The layout drawn into an image per tint with uncolored text in its stripColors, most recently drawn first
+        final BufferedImage[] strips = new BufferedImage[stripCache];
+        final int[] stripColors = new int[stripCache];
+        int stripCount;
+        // Where the strips sit in the layout, all being the same size
+        int stripX, stripY;
+        // Runs of the strips' rows that hold any glyph, as row, first and end column, the same whatever the tint
+        int[] runs;
+
+        Layout(String text, Font font, GlyphAtlas atlas){
+            this.text = text;
+            this.font = font;
+            this.atlas = atlas;
+        }
+
+        public int getWidth(){
+            return width;
+        }
+
+        public int getHeight(){
+            return height;
+        }
+
+        public int getLines(){
+            return lines;
+        }
+
+        /** @return Regions of the atlas the layout is built from, glyphs and the blocks of backgrounds and underlines */
+        public int getQuadCount(){
+            return quadCount;
+        }
+
+        /** @return Images of the layout kept for the tints it was last drawn in, at most {@value TextRenderer#stripCache} */
+        public int getStripCount(){
+            return stripCount;
+        }
+
+        /**
+         * @return The strip drawn with uncolored text in a color, moved to the front, or null if there is none
+         */
+        BufferedImage strip(int color){
+            for(int i = 0; i < stripCount; i++){
+                if(stripColors[i] != color) continue;
+                BufferedImage strip = strips[i];
+                System.arraycopy(strips, 0, strips, 1, i);
+                System.arraycopy(stripColors, 0, stripColors, 1, i);
+                strips[0] = strip;
+                stripColors[0] = color;
+                return strip;
+            }
+            return null;
+        }
+
+        /**
+         * Keep a strip in front, dropping the least recently drawn one if they are all taken
+         */
+        void keep(BufferedImage strip, int color){
+            int moved = Math.min(stripCount, stripCache - 1);
+            System.arraycopy(strips, 0, strips, 1, moved);
+            System.arraycopy(stripColors, 0, stripColors, 1, moved);
+            strips[0] = strip;
+            stripColors[0] = color;
+            stripCount = moved + 1;
+        }
+
+        void clearStrips(){
+            Arrays.fill(strips, null);
+            stripCount = 0;
+            runs = null;
+        }
+
+        void add(int srcX, int srcY, int srcWidth, int srcHeight, int x, int y, int color){
+            if(quadCount * stride == quads.length){
+                quads = Arrays.copyOf(quads, quads.length * 2);
+            }
+            int i = quadCount * stride;
+            quads[i] = srcX;
+            quads[i + 1] = srcY;
+            quads[i + 2] = srcWidth;
+            quads[i + 3] = srcHeight;
+            quads[i + 4] = x;
+            quads[i + 5] = y;
+            quads[i + 6] = color;
+            quadCount++;
+        }
+    }
+
+    private static final class Key{
+        String text;
+        Font font;
+        int hash;
+
+        Key set(String text, Font font){
+            this.text = text;
+            this.font = font;
+            hash = text.hashCode() * 31 + font.hashCode();
+            return this;
+        }
+
+        @Override
+        public int hashCode(){
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj){
+            if(!(obj instanceof Key)) return false;
+            Key other = (Key)obj;
+            return hash == other.hash && text.equals(other.text) && font.equals(other.font);
+        }
+    }
+
+    public TextRenderer(int capacity){
+        this.capacity = Math.max(1, capacity);
+        layouts = new LinkedHashMap<Key, Layout>(16, 0.75f, true){
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Layout> eldest){
+                return size() > TextRenderer.this.capacity;
+            }
+        };
+    }
+
+    public TextRenderer(){
+        this(defaultCapacity);
+    }
+
+    public boolean getMarkup(){
+        return markup;
+    }
+
+    /**
+     * @param markup Whether color codes and escapes are read as markup rather than drawn; clears cached layouts
+     */
+    public void setMarkup(boolean markup){
+        if(markup != this.markup) layouts.clear();
+        this.markup = markup;
+    }
+
+    /** @return The atlas of a font, created on first use */
+    public GlyphAtlas getAtlas(Font font){
+        GlyphAtlas atlas = atlases.get(font);
+        if(atlas == null){
+            atlas = new GlyphAtlas(font);
+            atlases.put(font, atlas);
+        }
+        return atlas;
+    }
+
+    /** @return Layouts found in the cache since the renderer was made */
+    public long getHits(){
+        return hits;
+    }
+
+    /** @return Layouts that had to be laid out since the renderer was made */
+    public long getMisses(){
+        return misses;
+    }
+
+    public int getCachedLayouts(){
+        return layouts.size();
+    }
+
+    /**
+     * Drop every cached layout, keeping the atlases
+     */
+    public void clear(){
+        layouts.clear();
+    }
+
+    /**
+     * Get the layout of a string, from the cache or laid out and cached
+     */
+    public Layout layout(String text, Font font){
+        Layout layout = layouts.get(lookup.set(text, font));
+        lookup.text = null;
+        lookup.font = null;
+        if(layout != null && layout.generation == layout.atlas.getGeneration()){
+            hits++;
+            return layout;
+        }
+
+        misses++;
+        if(layout == null){
+            layout = new Layout(text, font, getAtlas(font));
+            layouts.put(new Key().set(text, font), layout);
+        }
+        build(layout);
+        return layout;
+    }
+
+    /**
+     * Queue a string on a drawer
+     *
+     * @param x Left edge of the text
+     * @param y Top of the first line
+     */
+    public void draw(Drawer drawer, String text, Font font, float x, float y){
+        draw(drawer, layout(text, font), x, y);
+    }
+
+    /**
+     * Queue a laid out string on a drawer as one sprite, laying it out again if its atlas started over.
+     * Uncolored text takes the drawer's tint; colored text only its alpha, so fading text fades its colors too.
+     */
+    public void draw(Drawer drawer, Layout layout, float x, float y){
+        if(layout.generation != layout.atlas.getGeneration()){
+            layout = layout(layout.text, layout.font);
+        }
+        if(layout.quadCount == 0) return;
+
+        int tint = drawer.getTint();
+        BufferedImage strip = layout.strip(tint & 0xFFFFFF);
+        if(strip == null){
+            strip = render(layout, tint & 0xFFFFFF);
+        }
+
+        // The strip holds the colors, so the drawer only fades it
+        drawer.setTint(tint | 0xFFFFFF);
+        drawer.draw(strip, layout.runs, x + layout.stripX, y + layout.stripY);
+        drawer.setTint(tint);
+    }
+
+    /**
+     * Draw a layout's quads into a new strip image and keep it. A new image is made rather than the
+     * dropped one drawn over, as the dropped one may still be queued on a drawer in another color.
+     */
+    private BufferedImage render(Layout layout, int color){
+        int[] quads = layout.quads;
+        int x0 = Integer.MAX_VALUE, y0 = Integer.MAX_VALUE, x1 = Integer.MIN_VALUE, y1 = Integer.MIN_VALUE;
+        for(int q = 0; q < layout.quadCount; q++){
+            int i = q * stride;
+            x0 = Math.min(x0, quads[i + 4]);
+            y0 = Math.min(y0, quads[i + 5]);
+            x1 = Math.max(x1, quads[i + 4] + quads[i + 2]);
+            y1 = Math.max(y1, quads[i + 5] + quads[i + 3]);
+        }
+
+        int width = Math.max(1, x1 - x0);
+        BufferedImage strip = new BufferedImage(width, Math.max(1, y1 - y0), BufferedImage.TYPE_INT_ARGB);
+        int[] dest = Rasters.data(strip), source = Rasters.data(layout.atlas.getImage());
+        int atlasWidth = layout.atlas.getImage().getWidth();
+
+        for(int q = 0; q < layout.quadCount; q++){
+            int i = q * stride;
+            int rgb = (quads[i + 6] == 0 ? color : quads[i + 6]) & 0xFFFFFF;
+            for(int y = 0; y < quads[i + 3]; y++){
+                int from = (quads[i + 1] + y) * atlasWidth + quads[i];
+                int to = (quads[i + 5] - y0 + y) * width + quads[i + 4] - x0;
+                for(int x = 0; x < quads[i + 2]; x++){
+                    // Glyphs are white, so their alpha is all there is to copy
+                    int alpha = source[from + x] >>> 24;
+                    if(alpha == 0) continue;
+                    int under = dest[to + x];
+                    dest[to + x] = alpha == 255 || under == 0
+                        ? (alpha << 24) | rgb
+                        : Drawer.blend((alpha << 24) | rgb, under, BufferedImage.TYPE_INT_ARGB);
+                }
+            }
+        }
+
+        // Blending only adds alpha, so the runs of the first strip hold for every tint
+        if(layout.runs == null) layout.runs = runs(dest, width, strip.getHeight());
+        layout.stripX = x0;
+        layout.stripY = y0;
+        layout.keep(strip, color);
+        return strip;
+    }
+
+    /**
+     * Find the runs of a strip's rows that aren't transparent, joining runs a few pixels apart,
+     * as skipping a short gap costs more than blending it
+     */
+    private static int[] runs(int[] pixels, int width, int height){
+        int[] runs = new int[48];
+        int count = 0;
+        for(int y = 0; y < height; y++){
+            int row = y * width, start = -1, end = -1;
+            for(int x = 0; x <= width; x++){
+                boolean empty = x == width || pixels[row + x] >>> 24 == 0;
+                if(!empty){
+                    if(start < 0) start = x;
+                    end = x + 1;
+                }else if(start >= 0 && (x == width || x - end >= runGap)){
+                    if(count + 3 > runs.length) runs = Arrays.copyOf(runs, runs.length * 2);
+                    runs[count++] = y;
+                    runs[count++] = start;
+                    runs[count++] = end;
+                    start = -1;
+                }
+            }
+        }
+        return Arrays.copyOf(runs, count);
+    }
+
+    /**
+     * Lay a string out from scratch, over again if the atlas starts over partway
+     */
+    private void build(Layout layout){
+        GlyphAtlas atlas = layout.atlas;
+        do{
+            layout.generation = atlas.getGeneration();
+            layout.quadCount = 0;
+            layout.clearStrips();
+            layOut(layout, atlas);
+        }while(layout.generation != atlas.getGeneration());
+    }
+
+    private void layOut(Layout layout, GlyphAtlas atlas){
+        String text = layout.text;
+        int lineHeight = atlas.getLineHeight(), ascent = atlas.getAscent();
+        int solidX = atlas.getSolidX(), solidY = atlas.getSolidY(), solidWidth = atlas.getSolidWidth();
+
+        int penX = 0, line = 0, width = 0;
+        // Markup adds to the font's own style, and a reset goes back to it
+        int baseStyle = layout.font.getStyle() & 3;
+        int color = 0, background = 0, style = baseStyle;
+        boolean underline = false;
+
+        for(int i = 0; i < text.length(); i++){
+            char c = text.charAt(i);
+            if(c == '\n'){
+                penX = 0;
+                line++;
+                continue;
+            }
+
+            if(markup && (c == '&' || c == '\u001B')){
+                int code = c == '&' ? findCode(text, i + 1) : findEscape(text, i);
+                if(code >= 0){
+                    String name = ColorCodes.codes[code];
+                    switch(name){
+                        case "fr": color = background = 0; style = baseStyle; underline = false; break;
+                        case "fb": style |= Font.BOLD; break;
+                        case "fi": style |= Font.ITALIC; break;
+                        case "fu": underline = true; break;
+                        case "bd": background = 0; break;
+                        case "ff": break;
+                        default:
+                            if(name.length() == 2 && name.charAt(0) == 'b'){
+                                background = colorOf(name.substring(1));
+                            }else{
+                                color = colorOf(name);
+                            }
+                    }
+                    i += (c == '&' ? name.length() + 1 : ColorCodes.values[code].length()) - 1;
+                    continue;
+                }
+            }
+
+            int glyph = atlas.glyph(c, style);
+            int[] glyphs = atlas.glyphs;
+            int g = glyph * GlyphAtlas.stride;
+            int advance = glyphs[g + 6];
+            int top = line * lineHeight;
+
+            // Backgrounds go first, so the glyph they belong to is drawn over them
+            if(background != 0 && advance > 0){
+                for(int x = 0; x < advance; x += solidWidth){
+                    layout.add(solidX, solidY, Math.min(solidWidth, advance - x), lineHeight, penX + x, top, background);
+                }
+            }
+            if(glyphs[g + 2] > 0){
+                layout.add(glyphs[g], glyphs[g + 1], glyphs[g + 2], glyphs[g + 3], penX + glyphs[g + 4], top + ascent + glyphs[g + 5], color);
+            }
+            if(underline && advance > 0){
+                for(int x = 0; x < advance; x += solidWidth){
+                    layout.add(solidX, solidY, Math.min(solidWidth, advance - x), 1, penX + x, top + ascent + 1, color);
+                }
+            }
+
+            penX += advance;
+            width = Math.max(width, penX);
+        }
+
+        layout.width = width;
+        layout.lines = line + 1;
+        layout.height = layout.lines * lineHeight;
+    }
+
+    /**
+     * @return The color code right after an ampersand, longest first, or -1 if there is none
+     */
+    private static int findCode(String text, int start){
+        int found = -1;
+        for(int i = 0; i < ColorCodes.codes.length; i++){
+            String code = ColorCodes.codes[i];
+            if(text.startsWith(code, start) && (found < 0 || code.length() > ColorCodes.codes[found].length())){
+                found = i;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * @return The color code whose terminal escape starts here, or -1 if it isn't one
+     */
+    private static int findEscape(String text, int start){
+        for(int i = 0; i < ColorCodes.values.length; i++){
+            if(text.startsWith(ColorCodes.values[i], start)) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * @return The color a terminal shows a color code's name in, as opaque ARGB
+     */
+    private static int colorOf(String name){
+        switch(name){
+            case "k": return 0xFF000000;
+            case "r": return 0xFFCD3131;
+            case "g": return 0xFF0DBC79;
+            case "y": return 0xFFE5E510;
+            case "b": return 0xFF2472C8;
+            case "p": return 0xFFBC3FBC;
+            case "c": return 0xFF11A8CD;
+            case "w": return 0xFFE5E5E5;
+            case "lk": return 0xFF666666;
+            case "lr": return 0xFFF14C4C;
+            case "lg": return 0xFF23D18B;
+            case "ly": return 0xFFF5F543;
+            case "lb": return 0xFF3B8EEA;
+            case "lm": return 0xFFD670D6;
+            case "lc": return 0xFF29B8DB;
+            case "lw": return 0xFFFFFFFF;
+            default: return 0;
+        }
+    }
+}
@@ -0,0 +1,265 @@
+package bogus.graphics;
+
+import bogus.math.geom.Rect;
+import bogus.struct.GridMap;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * An unbounded grid of tiles, drawn from a tileset image. Tiles are stored in
+ * square chunks, kept in a {@link GridMap} by chunk coordinates, so a sparse
+ * world only takes memory where it has tiles.
+ *
+ * Each chunk is drawn once into an image of its own, which is kept and drawn
+ * as one sprite until a tile inside it changes. Only the chunks the camera
+ * overlaps are drawn, so a frame costs one sprite per visible chunk however
+ * many tiles the world has. Images of chunks that have been out of view for a
+ * while are dropped, and redrawn if they come back.
+ */
+public class TileMap{
+    /** The empty tile, drawn as nothing */
+    public static final int empty = 0;
+
+    private final int chunkSize;
+    private final GridMap<Chunk> chunks = new GridMap<>();
+
+    private BufferedImage tileset;
+    private int tileWidth, tileHeight, columns, tileCount;
+    private int[] tilesetPixels;
+
+    // Chunks holding an image, to drop the ones out of view too long
+    private final ArrayList<Chunk> cached = new ArrayList<>();
+    private int keepFrames = 120;
+    private int frame;
+    private int drawn, rendered;
+
+    private static class Chunk{
+        final int x, y;
+        final int[] tiles;
+        // Tiles that aren't empty, the chunk being removed when none are left
+        int count;
+        BufferedImage image;
+        boolean dirty = true;
+        int lastDrawn;
+
+        Chunk(int x, int y, int size){
+            this.x = x;
+            this.y = y;
+            tiles = new int[size * size];
+        }
+    }
+
+    /**
+     * @param tileset Tiles laid out in rows, numbered from 1 at the top left
+     * @param chunkSize Width and height of a chunk in tiles
+     */
+    public TileMap(BufferedImage tileset, int tileWidth, int tileHeight, int chunkSize){
+        if(chunkSize <= 0) throw new IllegalArgumentException("Chunk size must be positive: " + chunkSize);
+        this.chunkSize = chunkSize;
+        setTileset(tileset, tileWidth, tileHeight);
+    }
+
+    public TileMap(BufferedImage tileset, int tileWidth, int tileHeight){
+        this(tileset, tileWidth, tileHeight, 32);
+    }
+
+    /**
+     * Draw tiles from another tileset, redrawing every chunk
+     */
+    public void setTileset(BufferedImage tileset, int tileWidth, int tileHeight){
+        if(tileWidth <= 0 || tileHeight <= 0) throw new IllegalArgumentException("Tile size must be positive: " + tileWidth + "x" + tileHeight);
+        this.tileset = tileset;
+        this.tileWidth = tileWidth;
+        this.tileHeight = tileHeight;
+        columns = tileset.getWidth() / tileWidth;
+        tileCount = columns * (tileset.getHeight() / tileHeight);
+        tilesetPixels = Rasters.readArgb(tileset, null);
+
+        for(Chunk chunk : cached){
+            chunk.image = null;
+            chunk.dirty = true;
+        }
+        cached.clear();
+    }
+
+    public BufferedImage getTileset(){
+        return tileset;
+    }
+
+    public int getTileWidth(){
+        return tileWidth;
+    }
+
+    public int getTileHeight(){
+        return tileHeight;
+    }
+
+    public int getChunkSize(){
+        return chunkSize;
+    }
+
+    /**
+     * @param frames Draws a chunk can go unseen before its image is dropped
+     */
+    public void setKeepFrames(int frames){
+        this.keepFrames = Math.max(0, frames);
+    }
+
+    /**
+     * @return The tile at a position, or {@link #empty}
+     */
+    public int get(int x, int y){
+        Chunk chunk = chunks.get(Math.floorDiv(x, chunkSize), Math.floorDiv(y, chunkSize));
+        if(chunk == null) return empty;
+        return chunk.tiles[Math.floorMod(y, chunkSize) * chunkSize + Math.floorMod(x, chunkSize)];
+    }
+
+    /**
+     * Set the tile at a position, marking its chunk to be redrawn if it changed
+     *
+     * @param tile Tile of the tileset, from 1, or {@link #empty} to clear it
+     */
+    public void set(int x, int y, int tile){
+        int cx = Math.floorDiv(x, chunkSize), cy = Math.floorDiv(y, chunkSize);
+        Chunk chunk = chunks.get(cx, cy);
+        if(chunk == null){
+            if(tile == empty) return;
+            chunk = new Chunk(cx, cy, chunkSize);
+            chunks.put(cx, cy, chunk);
+        }
+
+        int index = Math.floorMod(y, chunkSize) * chunkSize + Math.floorMod(x, chunkSize);
+        int previous = chunk.tiles[index];
+        if(previous == tile) return;
+        chunk.tiles[index] = tile;
+        chunk.dirty = true;
+
+        if(previous == empty){
+            chunk.count++;
+        }else if(tile == empty && --chunk.count == 0){
+            chunks.remove(cx, cy);
+            if(chunk.image != null) cached.remove(chunk);
+        }
+    }
+
+    /**
+     * Remove every tile
+     */
+    public void clear(){
+        chunks.clear();
+        cached.clear();
+    }
+
+    /** @return Chunks holding at least one tile */
+    public int getChunkCount(){
+        return chunks.size();
+    }
+
+    /** @return Chunks drawn by the last draw */
+    public int getDrawn(){
+        return drawn;
+    }
+
+    /** @return Chunks whose image the last draw had to redraw */
+    public int getRendered(){
+        return rendered;
+    }
+
+    /**
+     * Get the area of a tile in world pixels, e.g. to damage a {@link Compositor} after changing it
+     */
+    public Rect getTileBounds(int x, int y, Rect out){
+        return out.set((float)x * tileWidth, (float)y * tileHeight, tileWidth, tileHeight);
+    }
+
+    /**
+     * Queue the chunks the camera overlaps, redrawing the images of any that changed
+     *
+     * @param camera The area of the world in view, in pixels; its top left corner is drawn at 0, 0
+     */
+    public void draw(Drawer drawer, Rect camera){
+        draw(drawer, camera, 0, 0);
+    }
+
+    /**
+     * Queue the chunks the camera overlaps, redrawing the images of any that changed
+     *
+     * @param camera The area of the world in view, in pixels
+     * @param x Where on the target the camera's top left corner is drawn
+     */
+    public void draw(Drawer drawer, Rect camera, float x, float y){
+        frame++;
+        drawn = rendered = 0;
+
+        int chunkWidth = chunkSize * tileWidth, chunkHeight = chunkSize * tileHeight;
+        int cx0 = (int)Math.floor(camera.x / chunkWidth), cy0 = (int)Math.floor(camera.y / chunkHeight);
+        int cx1 = (int)Math.ceil((camera.x + camera.width) / chunkWidth), cy1 = (int)Math.ceil((camera.y + camera.height) / chunkHeight);
+
+        // Look up every chunk in view, or go through every chunk if there are fewer of them
+        if((long)(cx1 - cx0) * (cy1 - cy0) <= chunks.size()){
+            for(int cy = cy0; cy < cy1; cy++){
+                for(int cx = cx0; cx < cx1; cx++){
+                    Chunk chunk = chunks.get(cx, cy);
+                    if(chunk != null) drawChunk(drawer, chunk, camera, x, y);
+                }
+            }
+        }else{
+            for(Chunk chunk : chunks.values()){
+                if(chunk.x >= cx0 && chunk.x < cx1 && chunk.y >= cy0 && chunk.y < cy1){
+                    drawChunk(drawer, chunk, camera, x, y);
+                }
+            }
+        }
+
+        // Drop the images of chunks that have been out of view too long
+        for(int i = cached.size() - 1; i >= 0; i--){
+            Chunk chunk = cached.get(i);
+            if(frame - chunk.lastDrawn > keepFrames){
+                chunk.image = null;
+                chunk.dirty = true;
+                cached.set(i, cached.get(cached.size() - 1));
+                cached.remove(cached.size() - 1);
+            }
+        }
+    }
+
+    private void drawChunk(Drawer drawer, Chunk chunk, Rect camera, float x, float y){
+        if(chunk.dirty || chunk.image == null){
+            render(chunk);
+            rendered++;
+        }
+        chunk.lastDrawn = frame;
+        drawer.draw(chunk.image, x + (float)chunk.x * chunkSize * tileWidth - camera.x, y + (float)chunk.y * chunkSize * tileHeight - camera.y);
+        drawn++;
+    }
+
+    /**
+     * Draw a chunk's tiles into its image, copying tile rows straight from the tileset
+     */
+    private void render(Chunk chunk){
+        int width = chunkSize * tileWidth, height = chunkSize * tileHeight;
+        if(chunk.image == null){
+            chunk.image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+            cached.add(chunk);
+        }
+        int[] dest = Rasters.data(chunk.image);
+        Arrays.fill(dest, 0);
+
+        int stride = tileset.getWidth();
+        for(int ty = 0; ty < chunkSize; ty++){
+            for(int tx = 0; tx < chunkSize; tx++){
+                int tile = chunk.tiles[ty * chunkSize + tx] - 1;
+                if(tile < 0 || tile >= tileCount) continue;
+
+                int from = (tile / columns) * tileHeight * stride + (tile % columns) * tileWidth;
+                int to = ty * tileHeight * width + tx * tileWidth;
+                for(int row = 0; row < tileHeight; row++){
+                    System.arraycopy(tilesetPixels, from + row * stride, dest, to + row * width, tileWidth);
+                }
+            }
+        }
+        chunk.dirty = false;
+    }
+}
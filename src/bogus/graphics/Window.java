@@ -4,32 +4,90 @@ import java.awt.*;
 import java.awt.event.*;
 
 public class Window extends Frame {
+    private Canvas canvas;
+    private RenderLoop loop;
+
     public Window(String name, int xSize, int ySize, int xpos, int ypos){
         super(name);
         this.setSize(xSize, ySize);
         this.setLocation(xpos, ypos);
-        this.addWindowListener(new WindowAdapter(){
-            public void windowClosing(WindowEvent we){
-                System.exit(0);
-            }
-        });
+        exitOnClose();
     }
     
     public Window(String name){
         super(name);
-        this.addWindowListener(new WindowAdapter(){
-            public void windowClosing(WindowEvent we){
-                System.exit(0);
-            }
-        });
+        exitOnClose();
     }
 
     public Window(){
         super();
+        exitOnClose();
+    }
+
+    private void exitOnClose(){
         this.addWindowListener(new WindowAdapter(){
             public void windowClosing(WindowEvent we){
+                if(loop != null) loop.stop();
                 System.exit(0);
             }
         });
     }
+
+    /**
+     * Show the window and draw into it from a render loop on its own thread.
+     * AWT repaints are turned off; the loop draws every frame itself.
+     *
+     * @param handler Updates and draws the game
+     * @param buffers 2 for double buffering, 3 for triple
+     * @return The running loop, for its settings and frame statistics
+     */
+    public RenderLoop start(RenderLoop.Handler handler, int buffers){
+        if(loop != null) loop.stop();
+        createCanvas();
+        this.setVisible(true);
+
+        loop = new RenderLoop(canvas, handler);
+        loop.setBuffers(buffers);
+        loop.start();
+        return loop;
+    }
+
+    /**
+     * Show the window and draw into it from a double-buffered render loop
+     */
+    public RenderLoop start(RenderLoop.Handler handler){
+        return start(handler, 2);
+    }
+
+    /**
+     * Show the window and draw a scene into it, redrawing only what the scene marks damaged
+     *
+     * @return The compositor, to mark damage on and for its repaint statistics
+     */
+    public Compositor startCompositing(Compositor.Scene scene){
+        createCanvas();
+        Compositor compositor = new Compositor(scene, canvas);
+        // Two buffers, as a single back buffer still holds the last frame
+        start(compositor, 2);
+        return compositor;
+    }
+
+    private void createCanvas(){
+        if(canvas == null){
+            canvas = new Canvas();
+            canvas.setIgnoreRepaint(true);
+            this.setIgnoreRepaint(true);
+            this.add(canvas);
+        }
+    }
+
+    /** @return The loop drawing into this window, or null if it was never started */
+    public RenderLoop getLoop(){
+        return loop;
+    }
+
+    /** @return The canvas the render loop draws into, or null if it was never started */
+    public Canvas getCanvas(){
+        return canvas;
+    }
 }
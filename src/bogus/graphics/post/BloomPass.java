@@ -0,0 +1,154 @@
+package bogus.graphics.post;
+
+import bogus.graphics.shading.GBuffer;
+
+/**
+ * Makes bright areas glow into their surroundings. The glow comes from the
+ * emissive light of a {@link GBuffer} when one is set, or otherwise from
+ * whatever part of the image is brighter than a threshold. It is blurred with
+ * a separable Gaussian and added back over the image. The glow is weighted by
+ * alpha before it is blurred, so transparent pixels don't glow with the color
+ * they hide, and the image's alpha is kept.
+ */
+public class BloomPass implements PostPass {
+    private float threshold;
+    private float strength;
+    private int radius;
+    private float[] weights;
+    private GBuffer gbuffer;
+
+    // Glow and its horizontal blur, premultiplied by alpha, three floats per pixel in 0-1 units
+    private float[] glow, blurred;
+
+    /**
+     * @param threshold Brightness above which a pixel glows, from 0 to 1
+     * @param strength Multiplier of the glow added to the image
+     * @param radius Blur radius of the glow in pixels
+     */
+    public BloomPass(float threshold, float strength, int radius) {
+        this.threshold = threshold;
+        this.strength = strength;
+        setRadius(radius);
+    }
+
+    public float getThreshold() { return threshold; }
+    public void setThreshold(float threshold) { this.threshold = threshold; }
+
+    public float getStrength() { return strength; }
+    public void setStrength(float strength) { this.strength = strength; }
+
+    public int getRadius() { return radius; }
+
+    public void setRadius(int radius) {
+        this.radius = Math.max(0, radius);
+        this.weights = BlurPass.gaussian(this.radius);
+    }
+
+    public GBuffer getGBuffer() { return gbuffer; }
+
+    /**
+     * @param gbuffer Surfaces whose emissive light glows, the same size as the image, or null to use the threshold
+     */
+    public void setGBuffer(GBuffer gbuffer) { this.gbuffer = gbuffer; }
+
+    @Override
+    public void begin(PostFrame frame) {
+        glow = frame.ensure(glow, 3);
+        blurred = frame.ensure(blurred, 3);
+    }
+
+    @Override
+    public int getStages() {
+        return 4;
+    }
+
+    @Override
+    public void apply(PostFrame frame, int stage, int x0, int y0, int x1, int y1) {
+        switch (stage) {
+            case 0: extract(frame, x0, y0, x1, y1); break;
+            case 1: blur(frame, glow, blurred, 1, frame.width, x0, y0, x1, y1); break;
+            case 2: blur(frame, blurred, glow, frame.width, frame.height, x0, y0, x1, y1); break;
+            default: composite(frame, x0, y0, x1, y1); break;
+        }
+    }
+
+    private void extract(PostFrame frame, int x0, int y0, int x1, int y1) {
+        int[] source = frame.source;
+        float scale = 1 / Math.max(1e-6f, 1 - threshold);
+
+        for (int y = y0; y < y1; y++) {
+            for (int x = x0; x < x1; x++) {
+                int index = x + y * frame.width;
+                float r, g, b, alpha;
+                if (gbuffer != null) {
+                    // Emissive light on the surface's own color
+                    int albedo = gbuffer.material[index] < 0 ? 0 : gbuffer.albedo[index];
+                    r = ((albedo >> 16) & 0xFF) / 255f * gbuffer.emissiveR[index];
+                    g = ((albedo >> 8) & 0xFF) / 255f * gbuffer.emissiveG[index];
+                    b = (albedo & 0xFF) / 255f * gbuffer.emissiveB[index];
+                    alpha = (albedo >>> 24) / 255f;
+                } else {
+                    // The part of each channel above the threshold
+                    int pixel = source[index];
+                    r = Math.max(0, ((pixel >> 16) & 0xFF) / 255f - threshold) * scale;
+                    g = Math.max(0, ((pixel >> 8) & 0xFF) / 255f - threshold) * scale;
+                    b = Math.max(0, (pixel & 0xFF) / 255f - threshold) * scale;
+                    alpha = (pixel >>> 24) / 255f;
+                }
+                glow[index * 3] = r * alpha;
+                glow[index * 3 + 1] = g * alpha;
+                glow[index * 3 + 2] = b * alpha;
+            }
+        }
+    }
+
+    /**
+     * Blur along one axis
+     *
+     * @param step Distance between neighbours along the axis, in pixels
+     * @param length Number of pixels along the axis
+     */
+    private void blur(PostFrame frame, float[] from, float[] to, int step, int length, int x0, int y0, int x1, int y1) {
+        for (int y = y0; y < y1; y++) {
+            for (int x = x0; x < x1; x++) {
+                int index = x + y * frame.width;
+                int position = step == 1 ? x : y;
+
+                float r = 0, g = 0, b = 0;
+                for (int k = -radius; k <= radius; k++) {
+                    int neighbour = (index + (Math.max(0, Math.min(length - 1, position + k)) - position) * step) * 3;
+                    float w = weights[Math.abs(k)];
+                    r += from[neighbour] * w;
+                    g += from[neighbour + 1] * w;
+                    b += from[neighbour + 2] * w;
+                }
+                to[index * 3] = r;
+                to[index * 3 + 1] = g;
+                to[index * 3 + 2] = b;
+            }
+        }
+    }
+
+    private void composite(PostFrame frame, int x0, int y0, int x1, int y1) {
+        int[] source = frame.source, target = frame.target;
+        float scale = strength * 255;
+
+        for (int y = y0; y < y1; y++) {
+            for (int x = x0; x < x1; x++) {
+                int index = x + y * frame.width;
+                int pixel = source[index];
+                int alpha = pixel >>> 24;
+                if (alpha == 0) {
+                    target[index] = pixel;
+                    continue;
+                }
+                // Added to the premultiplied color and unpremultiplied, a partly transparent pixel shows all of the glow
+                float unpremultiply = scale * 255 / alpha;
+                int r = Math.min(255, ((pixel >> 16) & 0xFF) + (int)(glow[index * 3] * unpremultiply));
+                int g = Math.min(255, ((pixel >> 8) & 0xFF) + (int)(glow[index * 3 + 1] * unpremultiply));
+                int b = Math.min(255, (pixel & 0xFF) + (int)(glow[index * 3 + 2] * unpremultiply));
+                target[index] = (pixel & 0xFF000000) | (r << 16) | (g << 8) | b;
+            }
+        }
+    }
+}
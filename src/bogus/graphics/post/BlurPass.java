@@ -0,0 +1,108 @@
+package bogus.graphics.post;
+
+/**
+ * A separable Gaussian blur: a horizontal stage into a float buffer, then a
+ * vertical stage back into the image. Edges are clamped. Colors are weighted by
+ * their alpha while blurred, so the color of transparent pixels doesn't bleed
+ * into their neighbours as a dark fringe.
+ */
+public class BlurPass implements PostPass {
+    private int radius;
+    private float[] weights;
+
+    // Horizontally blurred alpha and premultiplied RGB, four floats per pixel, the colors scaled by 255
+    private float[] horizontal;
+
+    /**
+     * @param radius Blur radius in pixels; the Gaussian's sigma is a third of it
+     */
+    public BlurPass(int radius) {
+        setRadius(radius);
+    }
+
+    public int getRadius() { return radius; }
+
+    public void setRadius(int radius) {
+        this.radius = Math.max(0, radius);
+        this.weights = gaussian(this.radius);
+    }
+
+    /**
+     * Normalized Gaussian weights from the center out, covering [-radius, radius]
+     */
+    static float[] gaussian(int radius) {
+        float[] weights = new float[radius + 1];
+        float sigma = Math.max(radius / 3f, 0.5f);
+        float sum = 0;
+        for (int i = 0; i <= radius; i++) {
+            weights[i] = (float)Math.exp(-(i * i) / (2 * sigma * sigma));
+            sum += i == 0 ? weights[i] : 2 * weights[i];
+        }
+        for (int i = 0; i <= radius; i++) {
+            weights[i] /= sum;
+        }
+        return weights;
+    }
+
+    @Override
+    public void begin(PostFrame frame) {
+        horizontal = frame.ensure(horizontal, 4);
+    }
+
+    @Override
+    public int getStages() {
+        return 2;
+    }
+
+    @Override
+    public void apply(PostFrame frame, int stage, int x0, int y0, int x1, int y1) {
+        int width = frame.width, height = frame.height;
+        float[] weights = this.weights;
+
+        if (stage == 0) {
+            int[] source = frame.source;
+            for (int y = y0; y < y1; y++) {
+                int row = y * width;
+                for (int x = x0; x < x1; x++) {
+                    float a = 0, r = 0, g = 0, b = 0;
+                    for (int k = -radius; k <= radius; k++) {
+                        int pixel = source[row + Math.max(0, Math.min(width - 1, x + k))];
+                        float w = (pixel >>> 24) * weights[Math.abs(k)];
+                        a += w;
+                        r += ((pixel >> 16) & 0xFF) * w;
+                        g += ((pixel >> 8) & 0xFF) * w;
+                        b += (pixel & 0xFF) * w;
+                    }
+                    int index = (row + x) * 4;
+                    horizontal[index] = a;
+                    horizontal[index + 1] = r;
+                    horizontal[index + 2] = g;
+                    horizontal[index + 3] = b;
+                }
+            }
+        } else {
+            int[] target = frame.target;
+            for (int y = y0; y < y1; y++) {
+                for (int x = x0; x < x1; x++) {
+                    float a = 0, r = 0, g = 0, b = 0;
+                    for (int k = -radius; k <= radius; k++) {
+                        int index = (x + Math.max(0, Math.min(height - 1, y + k)) * width) * 4;
+                        float w = weights[Math.abs(k)];
+                        a += horizontal[index] * w;
+                        r += horizontal[index + 1] * w;
+                        g += horizontal[index + 2] * w;
+                        b += horizontal[index + 3] * w;
+                    }
+                    // Dividing the premultiplied sums by the alpha sum unpremultiplies them
+                    float unpremultiply = a > 0 ? 1 / a : 0;
+                    target[x + y * width] = (channel(a) << 24) | (channel(r * unpremultiply) << 16)
+                        | (channel(g * unpremultiply) << 8) | channel(b * unpremultiply);
+                }
+            }
+        }
+    }
+
+    static int channel(float value) {
+        return Math.max(0, Math.min(255, Math.round(value)));
+    }
+}
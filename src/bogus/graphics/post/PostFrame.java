@@ -0,0 +1,47 @@
+package bogus.graphics.post;
+
+/**
+ * The ping-pong buffers a {@link PostProcessor} passes between its passes.
+ * Each pass reads {@link #source} and writes {@link #target}; the two are
+ * swapped after every pass, so no pass ever allocates an output image.
+ * Both hold packed, non-premultiplied 0xAARRGGBB pixels indexed by {@code x + y * width}.
+ */
+public class PostFrame {
+    int width, height;
+
+    /** Output of the previous pass */
+    public int[] source = new int[0];
+    /** Output of this pass */
+    public int[] target = new int[0];
+
+    void resize(int width, int height) {
+        this.width = width;
+        this.height = height;
+        if (source.length < width * height) {
+            source = new int[width * height];
+            target = new int[width * height];
+        }
+    }
+
+    void swap() {
+        int[] swap = source;
+        source = target;
+        target = swap;
+    }
+
+    public int getWidth() { return width; }
+
+    public int getHeight() { return height; }
+
+    /**
+     * Reuse a float scratch buffer, reallocating it only when it is too small
+     *
+     * @param buffer Buffer from the last frame, or null
+     * @param channels Floats per pixel
+     * @return A buffer of at least channels floats per pixel
+     */
+    public float[] ensure(float[] buffer, int channels) {
+        int size = width * height * channels;
+        return buffer != null && buffer.length >= size ? buffer : new float[size];
+    }
+}
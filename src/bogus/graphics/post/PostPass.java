@@ -0,0 +1,31 @@
+package bogus.graphics.post;
+
+/**
+ * A full-image effect run by a {@link PostProcessor}. Unlike a shader, a pass
+ * can read any pixel of its input, so it can look at neighbouring pixels.
+ *
+ * A pass runs as one or more stages. Every tile of a stage finishes before the
+ * next stage starts, so a stage may read anything the previous stage wrote.
+ * The last stage must write every pixel of {@link PostFrame#target}.
+ * Stages run concurrently over disjoint tiles and must only write inside their tile.
+ */
+public interface PostPass {
+    /**
+     * Called on one thread before the first stage, to size scratch buffers and
+     * refresh anything derived from the pass's settings
+     */
+    default void begin(PostFrame frame) {}
+
+    /** @return Number of stages this pass runs */
+    default int getStages() {
+        return 1;
+    }
+
+    /**
+     * Run one stage over the pixels in [x0, x1) x [y0, y1)
+     *
+     * @param frame Input and output buffers of the pass
+     * @param stage Index of the stage, from 0
+     */
+    void apply(PostFrame frame, int stage, int x0, int y0, int x1, int y1);
+}
@@ -0,0 +1,108 @@
+package bogus.graphics.post;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+
+import bogus.graphics.Rasters;
+import bogus.graphics.shading.TileRenderer;
+
+/**
+ * Runs a chain of {@link PostPass}es over an image. Passes ping-pong between
+ * two buffers kept in a {@link PostFrame}, which are only reallocated when the
+ * image grows, and each stage is split into tiles by an optional {@link TileRenderer}
+ * through one reused tile pass, so frames after the first allocate no tiles or tasks.
+ */
+public class PostProcessor {
+    private final List<PostPass> passes = new ArrayList<>();
+    private final PostFrame frame = new PostFrame();
+    private TileRenderer renderer;
+
+    // Stage being run, read by every tile
+    private PostPass pass;
+    private int stage;
+    private final TileRenderer.TileTask task = this::applyStage;
+    private final TileRenderer.Pass tiles = new TileRenderer.Pass();
+
+    /**
+     * Creates a processor that runs every pass on the calling thread
+     */
+    public PostProcessor() {
+        this(null);
+    }
+
+    /**
+     * @param renderer Renderer that splits every stage into tiles, or null to run on the calling thread
+     */
+    public PostProcessor(TileRenderer renderer) {
+        this.renderer = renderer;
+    }
+
+    public TileRenderer getRenderer() { return renderer; }
+
+    public void setRenderer(TileRenderer renderer) { this.renderer = renderer; }
+
+    /**
+     * Add a pass to the end of the chain
+     *
+     * @return This processor for chaining
+     */
+    public PostProcessor add(PostPass pass) {
+        passes.add(pass);
+        return this;
+    }
+
+    public boolean remove(PostPass pass) {
+        return passes.remove(pass);
+    }
+
+    public void clear() {
+        passes.clear();
+    }
+
+    public List<PostPass> getPasses() {
+        return passes;
+    }
+
+    /**
+     * Run every pass over an image
+     *
+     * @param source Image to process, left unchanged unless it is also the destination
+     * @param dest Image to write the result to, the same size as the source
+     * @return The destination image
+     */
+    public BufferedImage process(BufferedImage source, BufferedImage dest) {
+        int width = source.getWidth(), height = source.getHeight();
+        if (dest.getWidth() != width || dest.getHeight() != height) {
+            throw new IllegalArgumentException("Destination is " + dest.getWidth() + "x" + dest.getHeight()
+                + ", expected " + width + "x" + height);
+        }
+
+        frame.resize(width, height);
+        int[] pixels = Rasters.readArgb(source, frame.source);
+        if (pixels != frame.source) {
+            System.arraycopy(pixels, 0, frame.source, 0, width * height);
+        }
+
+        for (int i = 0; i < passes.size(); i++) {
+            pass = passes.get(i);
+            pass.begin(frame);
+            for (stage = 0; stage < pass.getStages(); stage++) {
+                if (renderer != null) {
+                    renderer.forEachTile(tiles, 0, 0, width, height, task);
+                } else {
+                    applyStage(0, 0, width, height);
+                }
+            }
+            frame.swap();
+        }
+        pass = null;
+
+        Rasters.writeArgb(dest, frame.source);
+        return dest;
+    }
+
+    private void applyStage(int x0, int y0, int x1, int y1) {
+        pass.apply(frame, stage, x0, y0, x1, y1);
+    }
+}
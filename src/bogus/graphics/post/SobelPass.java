@@ -0,0 +1,95 @@
+package bogus.graphics.post;
+
+import bogus.graphics.shading.GBuffer;
+
+/**
+ * Draws outlines where a Sobel filter finds edges. Edges are found in the
+ * brightness of the image, or, when a {@link GBuffer} is set, in its normals,
+ * which outlines shapes without picking up texture detail.
+ */
+public class SobelPass implements PostPass {
+    private int outlineColor;
+    private float threshold;
+    private GBuffer gbuffer;
+
+    /**
+     * @param outlineColor Outline color as packed 0xAARRGGBB; its alpha blends it over the image
+     * @param threshold Gradient magnitude above which a pixel is an edge, around 0.2 for brightness
+     */
+    public SobelPass(int outlineColor, float threshold) {
+        this.outlineColor = outlineColor;
+        this.threshold = threshold;
+    }
+
+    public int getOutlineColor() { return outlineColor; }
+    public void setOutlineColor(int outlineColor) { this.outlineColor = outlineColor; }
+
+    public float getThreshold() { return threshold; }
+    public void setThreshold(float threshold) { this.threshold = threshold; }
+
+    public GBuffer getGBuffer() { return gbuffer; }
+
+    /**
+     * @param gbuffer Surfaces the image was lit from, the same size as the image, or null to use brightness
+     */
+    public void setGBuffer(GBuffer gbuffer) { this.gbuffer = gbuffer; }
+
+    @Override
+    public void apply(PostFrame frame, int stage, int x0, int y0, int x1, int y1) {
+        int width = frame.width, height = frame.height;
+        int[] source = frame.source, target = frame.target;
+        float limit = threshold * threshold;
+
+        int outlineAlpha = outlineColor >>> 24;
+
+        for (int y = y0; y < y1; y++) {
+            // Clamp the 3x3 neighbourhood to the image
+            int up = Math.max(0, y - 1) * width, row = y * width, down = Math.min(height - 1, y + 1) * width;
+            for (int x = x0; x < x1; x++) {
+                int left = Math.max(0, x - 1), right = Math.min(width - 1, x + 1);
+
+                float magnitude;
+                if (gbuffer != null) {
+                    magnitude = gradient(gbuffer.normalX, up, row, down, left, x, right)
+                        + gradient(gbuffer.normalY, up, row, down, left, x, right)
+                        + gradient(gbuffer.normalZ, up, row, down, left, x, right);
+                } else {
+                    float a = luma(source[up + left]), b = luma(source[up + x]), c = luma(source[up + right]);
+                    float d = luma(source[row + left]), f = luma(source[row + right]);
+                    float g = luma(source[down + left]), h = luma(source[down + x]), i = luma(source[down + right]);
+                    float gx = (c + 2 * f + i) - (a + 2 * d + g);
+                    float gy = (g + 2 * h + i) - (a + 2 * b + c);
+                    magnitude = gx * gx + gy * gy;
+                }
+
+                int pixel = source[row + x];
+                target[row + x] = magnitude > limit ? blend(pixel, outlineColor, outlineAlpha) : pixel;
+            }
+        }
+    }
+
+    /**
+     * Squared Sobel gradient of one channel of a float buffer
+     */
+    private static float gradient(float[] v, int up, int row, int down, int left, int x, int right) {
+        float gx = (v[up + right] + 2 * v[row + right] + v[down + right]) - (v[up + left] + 2 * v[row + left] + v[down + left]);
+        float gy = (v[down + left] + 2 * v[down + x] + v[down + right]) - (v[up + left] + 2 * v[up + x] + v[up + right]);
+        return gx * gx + gy * gy;
+    }
+
+    private static float luma(int argb) {
+        return (((argb >> 16) & 0xFF) * 0.299f + ((argb >> 8) & 0xFF) * 0.587f + (argb & 0xFF) * 0.114f) / 255f;
+    }
+
+    /**
+     * Blend a color's channels over a pixel, keeping the more opaque alpha
+     */
+    static int blend(int pixel, int color, int alpha) {
+        int inverse = 255 - alpha;
+        int r = (((color >> 16) & 0xFF) * alpha + ((pixel >> 16) & 0xFF) * inverse + 127) / 255;
+        int g = (((color >> 8) & 0xFF) * alpha + ((pixel >> 8) & 0xFF) * inverse + 127) / 255;
+        int b = ((color & 0xFF) * alpha + (pixel & 0xFF) * inverse + 127) / 255;
+        int a = Math.max(pixel >>> 24, alpha);
+        return (a << 24) | (r << 16) | (g << 8) | b;
+    }
+}
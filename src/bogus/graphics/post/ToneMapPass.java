@@ -0,0 +1,55 @@
+package bogus.graphics.post;
+
+/**
+ * Exposure and extended Reinhard tone mapping, which compresses highlights
+ * smoothly instead of clipping them. The curve is the same for every channel,
+ * so it is applied through a 256-entry table rebuilt only when a setting changes.
+ */
+public class ToneMapPass implements PostPass {
+    private float exposure;
+    private float whitePoint;
+    private final int[] table = new int[256];
+    private boolean dirty = true;
+
+    /**
+     * @param exposure Multiplier applied before the curve
+     * @param whitePoint Exposed value that maps to full white
+     */
+    public ToneMapPass(float exposure, float whitePoint) {
+        this.exposure = exposure;
+        this.whitePoint = whitePoint;
+    }
+
+    public float getExposure() { return exposure; }
+    public void setExposure(float exposure) { this.exposure = exposure; dirty = true; }
+
+    public float getWhitePoint() { return whitePoint; }
+    public void setWhitePoint(float whitePoint) { this.whitePoint = whitePoint; dirty = true; }
+
+    @Override
+    public void begin(PostFrame frame) {
+        if (!dirty) return;
+
+        float white2 = Math.max(1e-6f, whitePoint * whitePoint);
+        for (int i = 0; i < 256; i++) {
+            float v = i / 255f * exposure;
+            table[i] = BlurPass.channel(v * (1 + v / white2) / (1 + v) * 255);
+        }
+        dirty = false;
+    }
+
+    @Override
+    public void apply(PostFrame frame, int stage, int x0, int y0, int x1, int y1) {
+        int[] source = frame.source, target = frame.target;
+        int[] table = this.table;
+
+        for (int y = y0; y < y1; y++) {
+            for (int x = x0; x < x1; x++) {
+                int index = x + y * frame.width;
+                int pixel = source[index];
+                target[index] = (pixel & 0xFF000000) | (table[(pixel >> 16) & 0xFF] << 16)
+                    | (table[(pixel >> 8) & 0xFF] << 8) | table[pixel & 0xFF];
+            }
+        }
+    }
+}
@@ -1,8 +1,10 @@
 package bogus.graphics.shading;
 
 import java.awt.Color;
+import java.util.Arrays;
 
 import bogus.math.geom.Vec3;
+import bogus.struct.Bits;
 
 /**
  * An ambient light that provides a constant base illumination to all surfaces
@@ -17,6 +19,18 @@ public class AmbientLight extends Light {
     
     @Override
     public Color calculateLightingAt(Vec3 position, Vec3 normal, Vec3 viewDir, Material material) {
+        return new Color(light());
+    }
+    
+    @Override
+    public int calculateLightingRGB(Vec3 position, Vec3 normal, Vec3 viewDir, Material material) {
+        if (overridesLightingAt(AmbientLight.class)) {
+            return super.calculateLightingRGB(position, normal, viewDir, material);
+        }
+        return light();
+    }
+    
+    private int light() {
         // Ambient light provides uniform illumination regardless of position or orientation
         int r = (int)(color.getRed() * intensity);
         int g = (int)(color.getGreen() * intensity);
@@ -27,6 +41,34 @@ public class AmbientLight extends Light {
         g = Math.min(255, Math.max(0, g));
         b = Math.min(255, Math.max(0, b));
         
-        return new Color(r, g, b);
+        return 0xFF000000 | (r << 16) | (g << 8) | b;
+    }
+    
+    @Override
+    void accumulate(LightBatch batch, Material material, float[] levels, Bits visible) {
+        if (!calculatesLike(AmbientLight.class)) {
+            super.accumulate(batch, material, levels, visible);
+            return;
+        }
+        
+        // The same light everywhere; in linear light the color is decoded before it is scaled
+        float r, g, b;
+        if (levels == Material.levels) {
+            r = levels[Math.max(0, Math.min(255, (int)(color.getRed() * intensity)))];
+            g = levels[Math.max(0, Math.min(255, (int)(color.getGreen() * intensity)))];
+            b = levels[Math.max(0, Math.min(255, (int)(color.getBlue() * intensity)))];
+        } else {
+            r = levels[color.getRed()] * intensity;
+            g = levels[color.getGreen()] * intensity;
+            b = levels[color.getBlue()] * intensity;
+        }
+        float[] attenuation = batch.attenuation, red = batch.red, green = batch.green, blue = batch.blue;
+        Arrays.fill(attenuation, 0, batch.count, 1.0f);
+        hide(batch, visible);
+        for (int i = 0; i < batch.count; i++) {
+            red[i] += r * attenuation[i];
+            green[i] += g * attenuation[i];
+            blue[i] += b * attenuation[i];
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,189 @@
+package bogus.graphics.shading;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.util.List;
+
+import bogus.graphics.Rasters;
+import bogus.graphics.Srgb;
+import bogus.math.geom.Rect;
+import bogus.struct.Bits;
+
+/**
+ * The light pass of deferred shading. Each light is accumulated over only the
+ * pixels inside its {@link Light#getBounds(Rect) bounds}, so a light costs
+ * the pixels it covers rather than every pixel on screen, and all the sprites
+ * in a {@link GBuffer} are lit together.
+ *
+ * Lights are added to each pixel in list order, starting from the emissive term,
+ * so a sprite drawn at the origin comes out identical to
+ * {@link Material#processLightingWithShaders}. Positions are screen pixels, so
+ * lights are placed in screen space. Deferred shading uses the built-in
+ * lighting model; active shaders are not applied. A {@link ShadowCache} over
+ * the whole screen lets lights cast shadows across every sprite at once.
+ * Each row of a light's footprint is lit in runs of pixels sharing a material,
+ * through the same batch loops as forward shading, in sRGB or in linear light.
+ */
+public class DeferredRenderer {
+    // Light accumulated at every pixel
+    private float[] red = new float[0], green = new float[0], blue = new float[0];
+    private int[] scratch;
+
+    private final Rect rect = new Rect();
+    private final int[] bounds = new int[4];
+    private long litPixels;
+    private ShadowCache shadows;
+    private boolean linearLighting;
+
+    public ShadowCache getShadows() { return shadows; }
+
+    /**
+     * @param shadows Shadows of lights that cast them, over a grid the size of the G-buffer, or null for none
+     */
+    public void setShadows(ShadowCache shadows) { this.shadows = shadows; }
+
+    public boolean getLinearLighting() { return linearLighting; }
+
+    /**
+     * @param linear Whether to sum lights in linear light, as {@link Material.RenderContext#linearLighting} does
+     */
+    public void setLinearLighting(boolean linear) { this.linearLighting = linear; }
+
+    /**
+     * Light a G-buffer into a new image
+     */
+    public BufferedImage render(GBuffer buffer, List<Light> lights) {
+        return render(buffer, lights, new BufferedImage(buffer.width, buffer.height, BufferedImage.TYPE_INT_ARGB));
+    }
+
+    /**
+     * Light a G-buffer into an existing image. Pixels nothing was drawn to become transparent.
+     *
+     * @param buffer Surfaces to light
+     * @param lights Lights, in the order they are summed
+     * @param dest Image to write the result to, the same size as the buffer
+     * @return The destination image
+     */
+    public BufferedImage render(GBuffer buffer, List<Light> lights, BufferedImage dest) {
+        int width = buffer.width, height = buffer.height;
+        if (dest.getWidth() != width || dest.getHeight() != height) {
+            throw new IllegalArgumentException("Destination is " + dest.getWidth() + "x" + dest.getHeight()
+                + ", expected " + width + "x" + height);
+        }
+
+        int size = width * height;
+        if (red.length < size) {
+            red = new float[size];
+            green = new float[size];
+            blue = new float[size];
+        }
+        int[] materialIndex = buffer.material;
+        boolean linear = linearLighting;
+        float[] levels = linear ? Srgb.toLinear : Material.levels;
+        if (linear) {
+            // The G-buffer holds emissive light in sRGB units, so it is decoded from each material
+            float[] emissive = new float[buffer.getMaterialCount() * 3];
+            for (int id = 0; id < buffer.getMaterialCount(); id++) {
+                Material material = buffer.getMaterial(id);
+                Color color = material.getEmissiveColor();
+                emissive[id * 3] = Srgb.toLinear[color.getRed()] * material.getEmissiveStrength();
+                emissive[id * 3 + 1] = Srgb.toLinear[color.getGreen()] * material.getEmissiveStrength();
+                emissive[id * 3 + 2] = Srgb.toLinear[color.getBlue()] * material.getEmissiveStrength();
+            }
+            for (int index = 0; index < size; index++) {
+                int id = materialIndex[index];
+                if (id < 0) continue;
+                red[index] = emissive[id * 3];
+                green[index] = emissive[id * 3 + 1];
+                blue[index] = emissive[id * 3 + 2];
+            }
+        } else {
+            System.arraycopy(buffer.emissiveR, 0, red, 0, size);
+            System.arraycopy(buffer.emissiveG, 0, green, 0, size);
+            System.arraycopy(buffer.emissiveB, 0, blue, 0, size);
+        }
+
+        LightBatch batch = LightBatch.get(width);
+        litPixels = 0;
+
+        // Add each light over its footprint
+        for (int i = 0, n = lights.size(); i < n; i++) {
+            Light light = lights.get(i);
+            long start = ShadingStats.enabled ? System.nanoTime() : 0;
+            Bits visible = shadows != null ? shadows.getVisibility(light) : null;
+            int x0 = 0, y0 = 0, x1 = width, y1 = height;
+            if (light.getPixelBounds(width, height, rect, bounds)) {
+                x0 = bounds[0];
+                y0 = bounds[1];
+                x1 = bounds[2];
+                y1 = bounds[3];
+            }
+
+            for (int y = y0; y < y1; y++) {
+                // Runs of one material, skipping pixels nothing was drawn to
+                for (int x = x0; x < x1; ) {
+                    int id = materialIndex[x + y * width];
+                    if (id < 0) {
+                        x++;
+                        continue;
+                    }
+
+                    batch.clear();
+                    for (; x < x1 && materialIndex[x + y * width] == id; x++) {
+                        int index = x + y * width;
+                        batch.add(x, y, index, buffer.albedo[index], buffer.normalX[index], buffer.normalY[index], buffer.normalZ[index],
+                            buffer.specular[index], red[index], green[index], blue[index]);
+                    }
+                    light.accumulate(batch, buffer.getMaterial(id), levels, visible);
+                    for (int p = 0; p < batch.count; p++) {
+                        int index = batch.index[p];
+                        red[index] = batch.red[p];
+                        green[index] = batch.green[p];
+                        blue[index] = batch.blue[p];
+                    }
+                }
+            }
+            long footprint = (long)Math.max(0, x1 - x0) * Math.max(0, y1 - y0);
+            litPixels += footprint;
+            if (ShadingStats.enabled) {
+                // Timed over its whole footprint, so the clock is read twice per light
+                ShadingStats.counter(light).add(1, System.nanoTime() - start, footprint, footprint);
+            }
+        }
+
+        // Apply the light to the albedo
+        int[] out = Rasters.data(dest);
+        boolean premultiplied = false;
+        if (out != null && Rasters.isIntArgb(dest)) {
+            premultiplied = dest.isAlphaPremultiplied();
+        } else {
+            if (scratch == null || scratch.length < size) {
+                scratch = new int[size];
+            }
+            out = scratch;
+        }
+
+        for (int index = 0; index < size; index++) {
+            if (materialIndex[index] < 0) {
+                out[index] = 0;
+                continue;
+            }
+
+            int baseRGB = buffer.albedo[index];
+            int color = linear
+                ? Material.modulateLinear(baseRGB, red[index], green[index], blue[index])
+                : Material.modulate(baseRGB, red[index], green[index], blue[index]);
+            out[index] = premultiplied ? Rasters.premultiply(color) : color;
+        }
+
+        if (out == scratch) {
+            Rasters.writeArgb(dest, out);
+        }
+        return dest;
+    }
+
+    /** @return Pixels visited by all lights in the last render, the light pass's share of the work */
+    public long getLitPixels() {
+        return litPixels;
+    }
+}
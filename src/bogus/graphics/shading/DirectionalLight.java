@@ -1,8 +1,10 @@
 package bogus.graphics.shading;
 
 import java.awt.*;
+import java.util.Arrays;
 
 import bogus.math.geom.Vec3;
+import bogus.struct.Bits;
 
 /**
  * A directional light that emits parallel rays in a specific direction
@@ -18,14 +20,53 @@ public class DirectionalLight extends Light {
     public Vec3 getDirection() { return direction; }
     public void setDirection(Vec3 direction) { this.direction = direction.normalize(); }
     
+    @Override
+    public long getBakeKey() {
+        return mix(super.getBakeKey(), direction);
+    }
+    
     @Override
     public Color calculateLightingAt(Vec3 position, Vec3 normal, Vec3 viewDir, Material material) {
-        // Light direction is constant for directional lights
-        Vec3 lightDir = direction.multiply(-1); // Invert the direction to point toward the light
+        return new Color(light(position, normal, viewDir, material, 1f));
+    }
+    
+    @Override
+    public int calculateLightingRGB(Vec3 position, Vec3 normal, Vec3 viewDir, Material material) {
+        if (overridesLightingAt(DirectionalLight.class)) {
+            return super.calculateLightingRGB(position, normal, viewDir, material);
+        }
+        return light(position, normal, viewDir, material, 1f);
+    }
+    
+    @Override
+    public int calculateLightingRGB(Vec3 position, Vec3 normal, Vec3 viewDir, Material material, float specular) {
+        if (overridesLighting(DirectionalLight.class)) {
+            return calculateLightingRGB(position, normal, viewDir, material);
+        }
+        return light(position, normal, viewDir, material, specular);
+    }
+    
+    private int light(Vec3 position, Vec3 normal, Vec3 viewDir, Material material, float specular) {
+        // Light direction is constant for directional lights; invert it to point toward the light
         
         // Directional lights have no attenuation
         float attenuation = 1.0f;
         
-        return calculatePhongLighting(position, normal, viewDir, lightDir, material, attenuation);
+        return phong(position, normal, viewDir, -direction.x, -direction.y, -direction.z, material, attenuation, specular);
+    }
+    
+    @Override
+    void accumulate(LightBatch batch, Material material, float[] levels, Bits visible) {
+        if (!calculatesLike(DirectionalLight.class)) {
+            super.accumulate(batch, material, levels, visible);
+            return;
+        }
+        
+        int count = batch.count;
+        Arrays.fill(batch.lightX, 0, count, -direction.x);
+        Arrays.fill(batch.lightY, 0, count, -direction.y);
+        Arrays.fill(batch.lightZ, 0, count, -direction.z);
+        Arrays.fill(batch.attenuation, 0, count, 1.0f);
+        accumulatePhong(batch, material, levels, visible);
     }
 }
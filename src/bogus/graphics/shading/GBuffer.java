@@ -0,0 +1,145 @@
+package bogus.graphics.shading;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import bogus.graphics.Rasters;
+
+/**
+ * Surface data for every pixel of a screen, written by the geometry pass of
+ * deferred shading and lit afterwards by a {@link DeferredRenderer}. Any number
+ * of sprites with different materials can be drawn into one buffer; each pixel
+ * keeps the index of its material, which supplies the specular color,
+ * roughness and metalness when the pixel is lit.
+ *
+ * All arrays are indexed by {@code x + y * width}. Pixels nothing was drawn to
+ * have a material index of -1.
+ */
+public class GBuffer {
+    public final int width, height;
+
+    /** Unlit color as packed, non-premultiplied 0xAARRGGBB */
+    public final int[] albedo;
+    /** Surface normal */
+    public final float[] normalX, normalY, normalZ;
+    /** Emissive light in the 0-1 units lighting accumulates in */
+    public final float[] emissiveR, emissiveG, emissiveB;
+    /** Specular map intensity, 1 for materials without a specular map */
+    public final float[] specular;
+    /** Index into {@link #getMaterial(int)}, or -1 */
+    public final int[] material;
+
+    private final List<Material> materials = new ArrayList<>();
+    private int[] scratch;
+
+    public GBuffer(int width, int height) {
+        this.width = width;
+        this.height = height;
+
+        int size = width * height;
+        albedo = new int[size];
+        normalX = new float[size];
+        normalY = new float[size];
+        normalZ = new float[size];
+        emissiveR = new float[size];
+        emissiveG = new float[size];
+        emissiveB = new float[size];
+        specular = new float[size];
+        material = new int[size];
+        clear();
+    }
+
+    /**
+     * Remove everything drawn into the buffer
+     */
+    public void clear() {
+        Arrays.fill(albedo, 0);
+        Arrays.fill(material, -1);
+        materials.clear();
+    }
+
+    /**
+     * Draw a sprite into the buffer. Pixels with any alpha replace what was
+     * there before; fully transparent pixels leave it alone.
+     *
+     * @param material Material of the sprite; its normal map is scaled to the sprite
+     * @param sprite The unlit sprite
+     * @param x Screen position of the sprite's left edge
+     * @param y Screen position of the sprite's top edge
+     */
+    public void draw(Material material, BufferedImage sprite, int x, int y) {
+        int w = sprite.getWidth();
+        int[] pixels = Rasters.data(sprite);
+        boolean premultiplied = false;
+        if (pixels != null && Rasters.isIntArgb(sprite)) {
+            premultiplied = sprite.isAlphaPremultiplied();
+        } else {
+            pixels = scratch = Rasters.readArgb(sprite, scratch);
+        }
+
+        write(material, pixels, premultiplied, 0, x, y, w, sprite.getHeight());
+    }
+
+    /**
+     * Draw a rectangle of a material's diffuse map, stretched to fit, or its diffuse color if it has no map
+     */
+    public void fill(Material material, int x, int y, int width, int height) {
+        int[] pixels = material.getDiffusePixels(width, height);
+        write(material, pixels, false, material.getDiffuseColor().getRGB(), x, y, width, height);
+    }
+
+    private void write(Material material, int[] pixels, boolean premultiplied, int color,
+                       int x, int y, int w, int h) {
+        NormalBuffer normals = material.getSurfaceNormals(w, h);
+        float[] intensity = material.getSpecularIntensity(w, h);
+        int id = indexOf(material);
+
+        float er = material.getEmissiveColor().getRed() * material.getEmissiveStrength() / 255f;
+        float eg = material.getEmissiveColor().getGreen() * material.getEmissiveStrength() / 255f;
+        float eb = material.getEmissiveColor().getBlue() * material.getEmissiveStrength() / 255f;
+
+        // Clip the sprite to the buffer
+        int x0 = Math.max(0, -x), y0 = Math.max(0, -y);
+        int x1 = Math.min(w, width - x), y1 = Math.min(h, height - y);
+
+        for (int sy = y0; sy < y1; sy++) {
+            for (int sx = x0; sx < x1; sx++) {
+                int source = sx + sy * w;
+                int argb = pixels == null ? color
+                    : premultiplied ? Rasters.unpremultiply(pixels[source]) : pixels[source];
+                if ((argb >>> 24) == 0) continue;
+
+                int index = (x + sx) + (y + sy) * width;
+                albedo[index] = argb;
+                normalX[index] = normals.x[source];
+                normalY[index] = normals.y[source];
+                normalZ[index] = normals.z[source];
+                emissiveR[index] = er;
+                emissiveG[index] = eg;
+                emissiveB[index] = eb;
+                specular[index] = intensity != null ? intensity[source] : 1f;
+                this.material[index] = id;
+            }
+        }
+    }
+
+    private int indexOf(Material material) {
+        for (int i = 0; i < materials.size(); i++) {
+            if (materials.get(i) == material) return i;
+        }
+        materials.add(material);
+        return materials.size() - 1;
+    }
+
+    /** @return The material with the given index */
+    public Material getMaterial(int index) {
+        return materials.get(index);
+    }
+
+    /** @return Number of distinct materials drawn since the last clear */
+    public int getMaterialCount() {
+        return materials.size();
+    }
+}
@@ -1,13 +1,31 @@
 package bogus.graphics.shading;
 
 import java.awt.*;
+import java.util.Arrays;
 
+import bogus.graphics.Srgb;
+import bogus.math.geom.Rect;
 import bogus.math.geom.Vec3;
+import bogus.struct.Bits;
+import bogus.util.Reflect;
 
 public abstract class Light {
+    // Classes declaring the lighting methods each light class runs, looked up once per class
+    private static final ClassValue<Declared> declaredByClass = new ClassValue<Declared>() {
+        @Override
+        protected Declared computeValue(Class<?> type) {
+            return new Declared(type);
+        }
+    };
+    
+    // Classes declaring the lighting methods this light runs, so the built-in lights can
+    // send their packed methods through what a subclass overrides
+    private final Declared declared = declaredByClass.get(getClass());
+    
     protected Color color = Color.WHITE;
     protected float intensity = 1.0f;
     protected boolean castsShadows = false;
+    protected boolean isStatic = false;
     
     public Light() {
     }
@@ -24,8 +42,50 @@ public abstract class Light {
     public void setIntensity(float intensity) { this.intensity = Math.max(0, intensity); }
     
     public boolean getCastsShadows() { return castsShadows; }
+    
+    /**
+     * Make this light cast shadows on render contexts with a {@link ShadowCache}.
+     * Only lights with a {@link #getShadowOrigin(Vec3) position} can cast shadows.
+     */
     public void setCastsShadows(boolean castsShadows) { this.castsShadows = castsShadows; }
     
+    public boolean isStatic() { return isStatic; }
+    
+    /**
+     * Mark this light as static. A render context with a {@link Lightmap} bakes
+     * static lights once and only evaluates the other lights every frame.
+     */
+    public void setStatic(boolean isStatic) { this.isStatic = isStatic; }
+    
+    /**
+     * Get a hash of every parameter that affects this light's contribution.
+     * Lightmaps re-bake when the key of one of their static lights changes.
+     * Subclasses with extra parameters must mix them into the key.
+     * 
+     * @return The key
+     */
+    public long getBakeKey() {
+        long key = mix(getClass().getName().hashCode(), color.getRGB());
+        key = mix(key, intensity);
+        return mix(key, castsShadows ? 1 : 0);
+    }
+    
+    protected static long mix(long key, int value) {
+        return (key ^ value) * 0x9E3779B97F4A7C15L + 0x632BE59BD9B4E019L;
+    }
+    
+    protected static long mix(long key, long value) {
+        return mix(mix(key, (int)(value >>> 32)), (int)value);
+    }
+    
+    protected static long mix(long key, float value) {
+        return mix(key, Float.floatToIntBits(value));
+    }
+    
+    protected static long mix(long key, Vec3 value) {
+        return value == null ? mix(key, 0) : mix(mix(mix(key, value.x), value.y), value.z);
+    }
+    
     /**
      * Calculate lighting at a specific point
      * 
@@ -37,23 +97,320 @@ public abstract class Light {
      */
     public abstract Color calculateLightingAt(Vec3 position, Vec3 normal, Vec3 viewDir, Material material);
     
+    /**
+     * Calculate lighting at a specific point without allocating. The built-in
+     * lights implement this directly, unless a subclass overrides
+     * {@link #calculateLightingAt}; other lights fall back to it.
+     * 
+     * @param position The world-space position being lit
+     * @param normal The surface normal at the position
+     * @param viewDir The direction from the position to the camera
+     * @param material The material at the position
+     * @return The calculated light color as packed 0xAARRGGBB
+     */
+    public int calculateLightingRGB(Vec3 position, Vec3 normal, Vec3 viewDir, Material material) {
+        return calculateLightingAt(position, normal, viewDir, material).getRGB();
+    }
+    
+    /**
+     * Calculate lighting at a point of a material with a specular map. The
+     * built-in lights scale their highlight by the map; other lights ignore it.
+     * 
+     * @param specular The specular map's intensity at the position, from 0 to 1
+     * @return The calculated light color as packed 0xAARRGGBB
+     */
+    public int calculateLightingRGB(Vec3 position, Vec3 normal, Vec3 viewDir, Material material, float specular) {
+        return calculateLightingRGB(position, normal, viewDir, material);
+    }
+    
+    /**
+     * Whether a subclass of a built-in light overrides {@link #calculateLightingAt},
+     * which the built-in's packed methods must then go through
+     */
+    boolean overridesLightingAt(Class<? extends Light> type) {
+        return declared.lightingAt != type;
+    }
+    
+    /**
+     * Whether a subclass of a built-in light overrides {@link #calculateLightingAt} or
+     * calculateLightingRGB without a specular map, which the specular variant must then go through
+     */
+    boolean overridesLighting(Class<? extends Light> type) {
+        return declared.lightingAt != type || declared.lightingRGB != type;
+    }
+    
+    /**
+     * Add this light to every pixel of a batch it reaches. Every render path sums
+     * light through this, so lighting a pixel gives the same light in any of them.
+     * Lights without a batch loop of their own are evaluated one pixel at a time
+     * and only give a packed color, so linear sums of them decode light already
+     * scaled and clamped to 8 bits, where the built-in lights scale it in linear light.
+     * 
+     * @param levels Light of each 8-bit level in the space light is summed in
+     * @param visible Pixels the light reaches past occluders, or null
+     */
+    void accumulate(LightBatch batch, Material material, float[] levels, Bits visible) {
+        for (int i = 0; i < batch.count; i++) {
+            if (visible != null && !visible.get(batch.index[i])) continue;
+            batch.position.set(batch.x[i], batch.y[i], 0);
+            batch.normal.set(batch.normalX[i], batch.normalY[i], batch.normalZ[i]);
+            batch.add(i, calculateLightingRGB(batch.position, batch.normal, batch.viewDir, material, batch.specular[i]), levels);
+        }
+    }
+    
+    /**
+     * Whether this light is calculated the way a built-in light class calculates it, so that
+     * class's batch loop gives the same light. False for subclasses that override
+     * calculateLightingAt, calculateLightingRGB or any calculatePhongLighting; those are batched
+     * a pixel at a time through calculateLightingRGB.
+     */
+    boolean calculatesLike(Class<? extends Light> type) {
+        return declared.lightingAt.isAssignableFrom(type) && declared.lightingRGB.isAssignableFrom(type)
+            && declared.specularRGB.isAssignableFrom(type) && declared.phong.isAssignableFrom(type)
+            && declared.phongPacked.isAssignableFrom(type) && declared.phongRGB.isAssignableFrom(type);
+    }
+    
+    /**
+     * Get the area of the Z=0 plane this light can reach. Pixels outside the
+     * area must receive no light, which lets the renderer skip the light there.
+     * 
+     * @param out Set to the reachable area; a negative width means no pixel is reached
+     * @return False if the light may reach any pixel, in which case out is not modified
+     */
+    public boolean getBounds(Rect out) {
+        return false;
+    }
+    
+    /**
+     * The pixels of a render area this light can reach, rounded the same way the light culler rounds
+     * 
+     * @param scratch Receives the unclamped bounds
+     * @param out Set to x0, y0, x1, y1 with exclusive ends, clamped to the area; empty when no pixel is reached
+     * @return False if the light may reach any pixel, in which case out is not modified
+     */
+    boolean getPixelBounds(int width, int height, Rect scratch, int[] out) {
+        if (!getBounds(scratch)) {
+            return false;
+        }
+        
+        if (scratch.width < 0 || scratch.height < 0) {
+            out[0] = out[1] = out[2] = out[3] = 0;
+        } else {
+            out[0] = Math.max(0, (int)Math.floor(scratch.x));
+            out[1] = Math.max(0, (int)Math.floor(scratch.y));
+            out[2] = Math.min(width, (int)Math.floor(scratch.x + scratch.width) + 1);
+            out[3] = Math.min(height, (int)Math.floor(scratch.y + scratch.height) + 1);
+        }
+        return true;
+    }
+    
+    /**
+     * Get the point this light's shadows are cast from
+     * 
+     * @param out Set to the light's position
+     * @return False if the light has no position, in which case it casts no shadows
+     */
+    public boolean getShadowOrigin(Vec3 out) {
+        return false;
+    }
+    
+    /**
+     * Bounds of a light that reaches nothing beyond a sphere around it
+     */
+    static boolean getRangeBounds(Vec3 position, float range, Rect out) {
+        // The sphere of influence cuts the Z=0 plane in a circle. Everything is
+        // padded by a pixel so float rounding in the distance test can't escape the bounds.
+        if (Math.abs(position.z) > range + 1) {
+            out.set(position.x, position.y, -1, -1);
+        } else {
+            float radius = (float)Math.sqrt(Math.max(0, range * range - position.z * position.z)) + 1;
+            out.set(position.x - radius, position.y - radius, radius * 2, radius * 2);
+        }
+        return true;
+    }
+    
+    /**
+     * Implements the Phong lighting model over a batch, from the direction to the light
+     * and the attenuation the light wrote for each pixel. Gives exactly the same light as
+     * {@link #calculatePhongLighting(Vec3, Vec3, float, float, float, Material, float, float)}
+     * at each pixel, with the material looked up once for the whole batch.
+     * Summed in linear light, the light and specular colors are decoded first and
+     * scaled by the diffuse and highlight terms, intensity and attenuation after,
+     * so the light isn't rounded to 8-bit levels and a channel past full strength
+     * is kept until the final {@link Srgb#toSrgb(float)} clamps it.
+     * 
+     * Each step is its own loop over the batch without branches, so the JIT can
+     * vectorize it. Looking up the highlight can't be vectorized, so that loop stays scalar.
+     */
+    void accumulatePhong(LightBatch batch, Material material, float[] levels, Bits visible) {
+        Color specularColor = material.getSpecularColor();
+        float metalness = material.getMetalness();
+        SpecularTable table = material.getSpecularTable();
+        float exponent = (1.0f - material.getRoughness()) * 100;
+        int specR = specularColor.getRed();
+        int specG = specularColor.getGreen();
+        int specB = specularColor.getBlue();
+        int colorR = color.getRed();
+        int colorG = color.getGreen();
+        int colorB = color.getBlue();
+        float intensity = this.intensity;
+        float viewX = batch.viewDir.x, viewY = batch.viewDir.y, viewZ = batch.viewDir.z;
+        
+        int count = batch.count;
+        float[] normalX = batch.normalX, normalY = batch.normalY, normalZ = batch.normalZ;
+        float[] lightX = batch.lightX, lightY = batch.lightY, lightZ = batch.lightZ;
+        float[] attenuation = batch.attenuation, diffuse = batch.diffuse, highlight = batch.highlight;
+        hide(batch, visible);
+        
+        for (int i = 0; i < count; i++) {
+            diffuse[i] = Math.max(0, normalX[i] * lightX[i] + normalY[i] * lightY[i] + normalZ[i] * lightZ[i]);
+        }
+        
+        // Only metals show the highlight, reflecting the incident direction -lightDir about the normal
+        if (metalness > 0) {
+            for (int i = 0; i < count; i++) {
+                float nx = normalX[i], ny = normalY[i], nz = normalZ[i];
+                float lx = lightX[i], ly = lightY[i], lz = lightZ[i];
+                float incidentDot = -lx * nx + -ly * ny + -lz * nz;
+                float scale = 2 * incidentDot;
+                float reflectX = -lx - nx * scale;
+                float reflectY = -ly - ny * scale;
+                float reflectZ = -lz - nz * scale;
+                highlight[i] = Math.max(0, viewX * reflectX + viewY * reflectY + viewZ * reflectZ);
+            }
+            
+            // The table covers [0, 1]; unnormalized normals can land past it
+            float[] specular = batch.specular;
+            for (int i = 0; i < count; i++) {
+                float specularBase = highlight[i];
+                float specularFactor = 0;
+                if (attenuation[i] != 0) {
+                    specularFactor = table != null && specularBase <= 1
+                        ? table.get(specularBase)
+                        : (float)Math.pow(specularBase, exponent);
+                    specularFactor *= specular[i];
+                }
+                highlight[i] = specularFactor;
+            }
+        } else {
+            Arrays.fill(highlight, 0, count, 0);
+        }
+        
+        // Pixels out of reach have no attenuation, so they add nothing
+        float[] red = batch.red, green = batch.green, blue = batch.blue;
+        if (levels == Material.levels) {
+            // The sRGB levels are worked out rather than looked up
+            for (int i = 0; i < count; i++) {
+                float r = colorR * (diffuse[i] + highlight[i] * specR/255f * metalness) * intensity * attenuation[i];
+                float g = colorG * (diffuse[i] + highlight[i] * specG/255f * metalness) * intensity * attenuation[i];
+                float b = colorB * (diffuse[i] + highlight[i] * specB/255f * metalness) * intensity * attenuation[i];
+                red[i] += Math.max(0, Math.min(255, (int)r)) / 255f;
+                green[i] += Math.max(0, Math.min(255, (int)g)) / 255f;
+                blue[i] += Math.max(0, Math.min(255, (int)b)) / 255f;
+            }
+        } else {
+            float linearR = levels[colorR] * intensity, linearG = levels[colorG] * intensity, linearB = levels[colorB] * intensity;
+            float specularR = levels[specR] * metalness, specularG = levels[specG] * metalness, specularB = levels[specB] * metalness;
+            for (int i = 0; i < count; i++) {
+                red[i] += linearR * (diffuse[i] + highlight[i] * specularR) * attenuation[i];
+                green[i] += linearG * (diffuse[i] + highlight[i] * specularG) * attenuation[i];
+                blue[i] += linearB * (diffuse[i] + highlight[i] * specularB) * attenuation[i];
+            }
+        }
+    }
+    
+    /**
+     * Take the pixels of a batch hidden from this light out of its reach
+     * 
+     * @param visible Pixels the light reaches past occluders, or null if it reaches every pixel
+     */
+    static void hide(LightBatch batch, Bits visible) {
+        if (visible == null) return;
+        for (int i = 0; i < batch.count; i++) {
+            if (!visible.get(batch.index[i])) batch.attenuation[i] = 0;
+        }
+    }
+    
+    /**
+     * 1 where a value is 0 or above and 0 where it is below, without branching, so a batch loop
+     * can mask out pixels with it and stay vectorizable. Scaling twice carries even the smallest
+     * negative float past -1.
+     */
+    static float atLeastZero(float value) {
+        return 1 - Math.min(1, Math.max(0, -value * Float.MAX_VALUE * Float.MAX_VALUE));
+    }
+    
+    /**
+     * Phong lighting of a built-in light, going through
+     * {@link #calculatePhongLighting(Vec3, Vec3, Vec3, Vec3, Material, float)} or
+     * {@link #calculatePhongLighting(Vec3, Vec3, float, float, float, Material, float)}
+     * if a subclass overrides them
+     */
+    int phong(Vec3 position, Vec3 normal, Vec3 viewDir, float lx, float ly, float lz,
+              Material material, float attenuation, float specular) {
+        if (declared.phong != Light.class) {
+            return calculatePhongLighting(position, normal, viewDir, new Vec3(lx, ly, lz), material, attenuation).getRGB();
+        }
+        if (declared.phongPacked != Light.class) {
+            return calculatePhongLighting(normal, viewDir, lx, ly, lz, material, attenuation);
+        }
+        return calculatePhongLighting(normal, viewDir, lx, ly, lz, material, attenuation, specular);
+    }
+    
     /**
      * Implements the Phong lighting model
      */
     protected Color calculatePhongLighting(Vec3 position, Vec3 normal, Vec3 viewDir, 
                                           Vec3 lightDir, Material material, float attenuation) {
+        return new Color(calculatePhongLighting(normal, viewDir, lightDir.x, lightDir.y, lightDir.z, material, attenuation));
+    }
+    
+    /**
+     * Implements the Phong lighting model without allocating. The built-in lights go
+     * through this instead of the specular map variant when a subclass overrides it,
+     * in which case the specular map is ignored.
+     * 
+     * @param lx, ly, lz The normalized direction from the surface to the light
+     * @return The light color as packed 0xAARRGGBB
+     */
+    protected int calculatePhongLighting(Vec3 normal, Vec3 viewDir, float lx, float ly, float lz,
+                                         Material material, float attenuation) {
+        return calculatePhongLighting(normal, viewDir, lx, ly, lz, material, attenuation, 1f);
+    }
+    
+    /**
+     * Implements the Phong lighting model with the highlight scaled by a specular map
+     * 
+     * @param specular The specular map's intensity at this point, from 0 to 1
+     */
+    protected int calculatePhongLighting(Vec3 normal, Vec3 viewDir, float lx, float ly, float lz,
+                                         Material material, float attenuation, float specular) {
         // Diffuse reflection
-        float diffuseFactor = Math.max(0, normal.dot(lightDir));
-        
-        // Specular reflection (Phong model)
-        Vec3 reflectDir = lightDir.multiply(-1).reflect(normal);
-        float specularFactor = (float)Math.pow(Math.max(0, viewDir.dot(reflectDir)), 
-                                              (1.0f - material.getRoughness()) * 100);
+        float diffuseFactor = Math.max(0, normal.x * lx + normal.y * ly + normal.z * lz);
         
         // Use material properties to adjust light response
         Color specularColor = material.getSpecularColor();
         float metalness = material.getMetalness();
         
+        // Specular reflection (Phong model), reflecting the incident direction -lightDir about the normal.
+        // Only metals show the highlight, so dielectrics skip it.
+        float specularFactor = 0;
+        if (metalness > 0) {
+            float incidentDot = -lx * normal.x + -ly * normal.y + -lz * normal.z;
+            float scale = 2 * incidentDot;
+            float reflectX = -lx - normal.x * scale;
+            float reflectY = -ly - normal.y * scale;
+            float reflectZ = -lz - normal.z * scale;
+            float specularBase = Math.max(0, viewDir.x * reflectX + viewDir.y * reflectY + viewDir.z * reflectZ);
+            
+            // The table covers [0, 1]; unnormalized normals can land past it
+            SpecularTable table = material.getSpecularTable();
+            specularFactor = table != null && specularBase <= 1
+                ? table.get(specularBase)
+                : (float)Math.pow(specularBase, (1.0f - material.getRoughness()) * 100);
+            specularFactor *= specular;
+        }
+        
         // Metals have colored specular, while non-metals have white specular
         int specR = specularColor.getRed();
         int specG = specularColor.getGreen();
@@ -69,12 +426,28 @@ public abstract class Light {
         g = Math.min(255, Math.max(0, g));
         b = Math.min(255, Math.max(0, b));
         
-        return new Color(r, g, b);
+        return 0xFF000000 | (r << 16) | (g << 8) | b;
+    }
+    
+    /**
+     * Closest classes to a light class declaring each lighting method the built-in lights run
+     */
+    private static final class Declared {
+        final Class<?> lightingAt, lightingRGB, specularRGB, phong, phongPacked, phongRGB;
+        
+        Declared(Class<?> type) {
+            lightingAt = Reflect.declaringClass(type, "calculateLightingAt",
+                Vec3.class, Vec3.class, Vec3.class, Material.class);
+            lightingRGB = Reflect.declaringClass(type, "calculateLightingRGB",
+                Vec3.class, Vec3.class, Vec3.class, Material.class);
+            specularRGB = Reflect.declaringClass(type, "calculateLightingRGB",
+                Vec3.class, Vec3.class, Vec3.class, Material.class, float.class);
+            phong = Reflect.declaringClass(type, "calculatePhongLighting",
+                Vec3.class, Vec3.class, Vec3.class, Vec3.class, Material.class, float.class);
+            phongPacked = Reflect.declaringClass(type, "calculatePhongLighting",
+                Vec3.class, Vec3.class, float.class, float.class, float.class, Material.class, float.class);
+            phongRGB = Reflect.declaringClass(type, "calculatePhongLighting",
+                Vec3.class, Vec3.class, float.class, float.class, float.class, Material.class, float.class, float.class);
+        }
     }
 }
-
-
-
-
-
-
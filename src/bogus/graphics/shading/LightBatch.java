@@ -0,0 +1,120 @@
+package bogus.graphics.shading;
+
+import bogus.math.geom.Vec3;
+import bogus.util.Threads;
+
+/**
+ * A run of pixels lit together, one light at a time. Every attribute is kept
+ * in its own array, so a light's loop over the run reads them in order and only
+ * works out what is constant for the light, such as the material's specular
+ * color or a spot cone, once per run rather than once per pixel.
+ *
+ * Each light adds to the same accumulators in list order, so a batch sums to
+ * exactly what lighting the pixels one at a time does. The loops over a batch
+ * avoid branching per pixel, masking out pixels a light doesn't reach with a
+ * zero attenuation instead, so the JIT can vectorize them.
+ */
+class LightBatch {
+    // One batch per shading thread, replaced when a wider run needs it
+    private static final ThreadLocal<LightBatch> batches = Threads.local(() -> new LightBatch(0));
+
+    // Pixels in the batch: screen position, index into the render's arrays and unlit color
+    final float[] x, y;
+    final int[] index;
+    final int[] base;
+
+    // Surface normal and specular map intensity
+    final float[] normalX, normalY, normalZ;
+    final float[] specular;
+
+    // Light summed so far
+    final float[] red, green, blue;
+
+    // Direction to the current light and its attenuation, written by the light before shading;
+    // pixels out of its reach have an attenuation of 0
+    final float[] lightX, lightY, lightZ;
+    final float[] attenuation;
+
+    // Diffuse and specular factors of the current light, worked out by its Phong loop
+    final float[] diffuse, highlight;
+
+    int count;
+
+    // Scratch vectors for lights without a batch loop
+    final Vec3 position = new Vec3();
+    final Vec3 normal = new Vec3();
+    final Vec3 viewDir = new Vec3(0, 0, 1);
+
+    LightBatch(int capacity) {
+        x = new float[capacity];
+        y = new float[capacity];
+        index = new int[capacity];
+        base = new int[capacity];
+        normalX = new float[capacity];
+        normalY = new float[capacity];
+        normalZ = new float[capacity];
+        specular = new float[capacity];
+        red = new float[capacity];
+        green = new float[capacity];
+        blue = new float[capacity];
+        lightX = new float[capacity];
+        lightY = new float[capacity];
+        lightZ = new float[capacity];
+        attenuation = new float[capacity];
+        diffuse = new float[capacity];
+        highlight = new float[capacity];
+    }
+
+    /**
+     * @return This thread's batch, empty and holding at least the given number of pixels
+     */
+    static LightBatch get(int capacity) {
+        LightBatch batch = batches.get();
+        if (batch.x.length < capacity) {
+            batch = new LightBatch(capacity);
+            batches.set(batch);
+        }
+        batch.clear();
+        return batch;
+    }
+
+    void clear() {
+        count = 0;
+    }
+
+    /**
+     * Add a pixel to the batch
+     *
+     * @param r, g, b Light the pixel starts from
+     */
+    void add(int px, int py, int pixel, int baseRGB, NormalBuffer normals, float spec, float r, float g, float b) {
+        add(px, py, pixel, baseRGB, normals.x[pixel], normals.y[pixel], normals.z[pixel], spec, r, g, b);
+    }
+
+    /**
+     * Add a pixel with its own normal to the batch, for surfaces not read from a {@link NormalBuffer}
+     */
+    void add(int px, int py, int pixel, int baseRGB, float nx, float ny, float nz, float spec, float r, float g, float b) {
+        int i = count++;
+        x[i] = px;
+        y[i] = py;
+        index[i] = pixel;
+        base[i] = baseRGB;
+        normalX[i] = nx;
+        normalY[i] = ny;
+        normalZ[i] = nz;
+        specular[i] = spec;
+        red[i] = r;
+        green[i] = g;
+        blue[i] = b;
+    }
+
+    /**
+     * Add a light's contribution to one pixel
+     */
+    void add(int i, int lightColor, float[] levels) {
+        red[i] += levels[(lightColor >> 16) & 0xFF];
+        green[i] += levels[(lightColor >> 8) & 0xFF];
+        blue[i] += levels[lightColor & 0xFF];
+    }
+}
@@ -0,0 +1,177 @@
+package bogus.graphics.shading;
+
+import java.util.Arrays;
+import java.util.List;
+
+import bogus.math.geom.Rect;
+
+/**
+ * Bins lights into square screen tiles using {@link Light#getBounds(Rect)}, so
+ * each pixel only evaluates the lights that can reach it. Lights without bounds,
+ * such as ambient and directional lights, are added to every tile. Each tile
+ * keeps the original light order, so culled lighting sums to exactly the same
+ * color as evaluating every light.
+ */
+public class LightCuller {
+    public static final int defaultTileSize = 32;
+
+    private final Rect bounds = new Rect();
+    private int tileShift;
+    private int tilesX, tilesY;
+    private int lightCount;
+
+    // Lights of tile t are binned[offsets[t]] until binned[offsets[t + 1]]
+    private int[] offsets = new int[1];
+    private Light[] binned = new Light[0];
+    private int binnedCount;
+
+    // Index in the built list of the light of each entry
+    private int[] binnedIndex = new int[0];
+
+    // Tile range covered by each light, as x0, y0, x1, y1
+    private int[] ranges = new int[0];
+
+    public LightCuller() {
+        this(defaultTileSize);
+    }
+
+    /**
+     * @param tileSize Tile size in pixels, rounded up to a power of two
+     */
+    public LightCuller(int tileSize) {
+        setTileSize(tileSize);
+    }
+
+    public int getTileSize() { return 1 << tileShift; }
+
+    /**
+     * Set the tile size, which takes effect on the next {@link #build}
+     *
+     * @param tileSize Tile size in pixels, rounded up to a power of two
+     */
+    public void setTileSize(int tileSize) {
+        tileShift = 32 - Integer.numberOfLeadingZeros(Math.max(1, tileSize) - 1);
+    }
+
+    /**
+     * Bin the lights for a render area. Light bounds are read once here, so
+     * lights moved afterwards need another build.
+     *
+     * @param lights Lights to bin
+     * @param width Width of the render area
+     * @param height Height of the render area
+     */
+    public void build(List<Light> lights, int width, int height) {
+        int tileSize = 1 << tileShift;
+        tilesX = Math.max(1, (width + tileSize - 1) >> tileShift);
+        tilesY = Math.max(1, (height + tileSize - 1) >> tileShift);
+        lightCount = lights.size();
+
+        int tiles = tilesX * tilesY;
+        if (offsets.length < tiles + 1) {
+            offsets = new int[tiles + 1];
+        }
+        if (ranges.length < lightCount * 4) {
+            ranges = new int[lightCount * 4];
+        }
+        Arrays.fill(offsets, 0, tiles + 1, 0);
+
+        // Find the tiles each light touches and count the lights per tile
+        for (int i = 0; i < lightCount; i++) {
+            int x0 = 0, y0 = 0, x1 = tilesX - 1, y1 = tilesY - 1;
+
+            if (lights.get(i).getBounds(bounds)) {
+                if (bounds.width < 0 || bounds.height < 0) {
+                    x1 = y1 = -1;
+                } else {
+                    x0 = Math.max(x0, (int)Math.floor(bounds.x) >> tileShift);
+                    y0 = Math.max(y0, (int)Math.floor(bounds.y) >> tileShift);
+                    x1 = Math.min(x1, (int)Math.floor(bounds.x + bounds.width) >> tileShift);
+                    y1 = Math.min(y1, (int)Math.floor(bounds.y + bounds.height) >> tileShift);
+                }
+            }
+
+            ranges[i * 4] = x0;
+            ranges[i * 4 + 1] = y0;
+            ranges[i * 4 + 2] = x1;
+            ranges[i * 4 + 3] = y1;
+
+            for (int ty = y0; ty <= y1; ty++) {
+                for (int tx = x0; tx <= x1; tx++) {
+                    offsets[tx + ty * tilesX + 1]++;
+                }
+            }
+        }
+
+        // Turn the counts into start offsets
+        for (int t = 0; t < tiles; t++) {
+            offsets[t + 1] += offsets[t];
+        }
+        if (binned.length < offsets[tiles]) {
+            binned = new Light[offsets[tiles]];
+        } else if (binnedCount > offsets[tiles]) {
+            // Drop the lights past the end of this build, so removed lights aren't kept alive
+            Arrays.fill(binned, offsets[tiles], binnedCount, null);
+        }
+        binnedCount = offsets[tiles];
+        if (binnedIndex.length < binnedCount) {
+            binnedIndex = new int[binned.length];
+        }
+
+        // Fill the bins in light order, advancing each tile's start as it fills, then shift the starts back
+        for (int i = 0; i < lightCount; i++) {
+            Light light = lights.get(i);
+            for (int ty = ranges[i * 4 + 1]; ty <= ranges[i * 4 + 3]; ty++) {
+                for (int tx = ranges[i * 4]; tx <= ranges[i * 4 + 2]; tx++) {
+                    int entry = offsets[tx + ty * tilesX]++;
+                    binned[entry] = light;
+                    binnedIndex[entry] = i;
+                }
+            }
+        }
+        for (int t = tiles; t > 0; t--) {
+            offsets[t] = offsets[t - 1];
+        }
+        offsets[0] = 0;
+    }
+
+    /** @return Index of the tile containing a pixel, for {@link #getStart} and {@link #getEnd} */
+    public int getTile(int x, int y) {
+        return (x >> tileShift) + (y >> tileShift) * tilesX;
+    }
+
+    /** @return Index into {@link #getLights()} of the first light in a tile */
+    public int getStart(int tile) {
+        return offsets[tile];
+    }
+
+    /** @return Index into {@link #getLights()} past the last light in a tile */
+    public int getEnd(int tile) {
+        return offsets[tile + 1];
+    }
+
+    /** @return The binned lights of every tile, back to back */
+    public Light[] getLights() {
+        return binned;
+    }
+
+    /**
+     * @return Index in the list of the last build of the light of an entry of {@link #getLights()},
+     * so work per light can be done once rather than once per tile it covers
+     */
+    public int getLightIndex(int entry) {
+        return binnedIndex[entry];
+    }
+
+    public int getTilesX() { return tilesX; }
+
+    public int getTilesY() { return tilesY; }
+
+    /** @return Number of lights in the last build */
+    public int getLightCount() { return lightCount; }
+
+    /** @return Number of light entries over all tiles, at most the light count times the tile count */
+    public int getBinnedCount() {
+        return binnedCount;
+    }
+}
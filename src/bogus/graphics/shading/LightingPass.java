@@ -0,0 +1,592 @@
+package bogus.graphics.shading;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import bogus.graphics.Rasters;
+import bogus.graphics.Srgb;
+import bogus.math.geom.Vec3;
+import bogus.struct.Bits;
+import bogus.util.Threads;
+
+/**
+ * Pixel buffers for one call of {@link Material#processLightingWithShaders}.
+ * Int-packed ARGB images are read and written through their backing arrays;
+ * any other image type goes through a scratch array kept per thread, as are the light lists
+ * and the default light culler, so a pass writes nothing into the render context itself.
+ * Regions of a pass are independent, so disjoint regions may be shaded concurrently,
+ * once every coarse sample has been lit when lighting at reduced resolution.
+ */
+class LightingPass {
+    private static final ThreadLocal<Scratch> scratches = Threads.local(Scratch::new);
+
+    final Material material;
+    final Material.RenderContext context;
+    final BufferedImage dest;
+    final int width, height;
+
+    // Unlit input and lit output, row by row
+    final int[] base;
+    final int[] out;
+    private final boolean basePremultiplied;
+    private final boolean outPremultiplied;
+    // Whether out is scratch to copy into the destination once shaded
+    private final boolean copyOut;
+
+    final NormalBuffer normals;
+
+    // Shader stack frozen for the whole pass
+    private final ShaderPipeline pipeline;
+
+    // Lights for the built-in lighting model, or null when shaders are active
+    private final Light[] lights;
+    private final LightCuller culler;
+
+    // Visibility map of each light, by its index in the list the pass lights, or null when no light casts a shadow
+    private final Bits[] visibility;
+
+    // Specular map intensity at each pixel, or null without a specular map
+    private final float[] specular;
+
+    // Light every pixel starts from: the emissive term, or the baked static lights
+    private final float emissiveR, emissiveG, emissiveB;
+    private final Lightmap lightmap;
+
+    // Whether light is summed in linear light, and the light of each 8-bit level in the space it is summed in
+    private final boolean linear;
+    private final float[] levels;
+
+    // Light term computed at one pixel per scale x scale block, three floats per sample
+    final int scale;
+    final int coarseWidth, coarseHeight;
+    private final float[] coarse;
+
+    // Regions that need shading, as x0, y0, x1, y1
+    private final int[] regions;
+    private final int regionCount;
+
+    // Blocks of coarse samples the regions read from, as cx0, cy0, cx1, cy1
+    private final int[] coarseRegions;
+
+    // Totals of this pass and the counter of each light by its index in the list the pass lights,
+    // or null when shading isn't instrumented
+    private final ShadingStats.Pass stats;
+    private final ShadingStats.Counter[] lightCounters;
+
+    LightingPass(Material material, Material.RenderContext context, BufferedImage dest) {
+        this.material = material;
+        this.context = context;
+        this.dest = dest;
+        this.width = width(context);
+        this.height = height(context);
+
+        if (dest.getWidth() != width || dest.getHeight() != height) {
+            throw new IllegalArgumentException("Destination is " + dest.getWidth() + "x" + dest.getHeight()
+                + ", expected " + width + "x" + height);
+        }
+
+        Scratch scratch = scratches.get();
+
+        // Start from the sprite, or the diffuse color if there is none
+        BufferedImage sprite = context.sprite;
+        int[] spriteData = sprite != null ? Rasters.data(sprite) : null;
+        if (spriteData != null && Rasters.isIntArgb(sprite)) {
+            base = spriteData;
+            basePremultiplied = sprite.isAlphaPremultiplied();
+        } else if (sprite == null && material.getDiffuseMap() != null) {
+            base = material.getDiffusePixels(width, height);
+            basePremultiplied = false;
+        } else {
+            base = scratch.base = sprite != null
+                ? Rasters.readArgb(sprite, scratch.base)
+                : fill(scratch.base, width * height, material.getDiffuseColor().getRGB());
+            basePremultiplied = false;
+        }
+
+        // Shade straight into the destination when its layout allows
+        int[] destData = Rasters.data(dest);
+        if (destData != null && Rasters.isIntArgb(dest)) {
+            out = destData;
+            outPremultiplied = dest.isAlphaPremultiplied();
+            copyOut = false;
+        } else {
+            if (scratch.out == null || scratch.out.length < width * height) {
+                scratch.out = new int[width * height];
+            }
+            out = scratch.out;
+            outPremultiplied = false;
+            copyOut = true;
+        }
+
+        // Pre-compute surface normals (either from normal map or default)
+        normals = material.getSurfaceNormals(width, height);
+
+        pipeline = ShaderManager.getInstance().getPipeline();
+        stats = ShadingStats.enabled ? new ShadingStats.Pass() : null;
+        linear = context.linearLighting && pipeline.getActiveCount() == 0;
+        levels = linear ? Srgb.toLinear : Material.levels;
+
+        if (linear) {
+            emissiveR = Srgb.toLinear[material.getEmissiveColor().getRed()] * material.getEmissiveStrength();
+            emissiveG = Srgb.toLinear[material.getEmissiveColor().getGreen()] * material.getEmissiveStrength();
+            emissiveB = Srgb.toLinear[material.getEmissiveColor().getBlue()] * material.getEmissiveStrength();
+        } else {
+            emissiveR = material.getEmissiveColor().getRed() * material.getEmissiveStrength() / 255f;
+            emissiveG = material.getEmissiveColor().getGreen() * material.getEmissiveStrength() / 255f;
+            emissiveB = material.getEmissiveColor().getBlue() * material.getEmissiveStrength() / 255f;
+        }
+        scale = pipeline.getActiveCount() > 0 ? 1 : Math.max(1, context.lightingScale);
+        coarseWidth = (width + scale - 1) / scale;
+        coarseHeight = (height + scale - 1) / scale;
+        // Coarse samples outlive the pass only for the relight tracker, which keeps them with its own state
+        RelightTracker tracker = context.relightTracker;
+        boolean allocated = false;
+        if (scale > 1) {
+            float[] held = tracker != null ? tracker.coarseLight : scratch.coarse;
+            if (held == null || held.length < coarseWidth * coarseHeight * 3) {
+                held = new float[coarseWidth * coarseHeight * 3];
+                allocated = true;
+                if (tracker != null) {
+                    tracker.coarseLight = held;
+                } else {
+                    scratch.coarse = held;
+                }
+            }
+            coarse = held;
+        } else {
+            coarse = null;
+        }
+
+        // Only shade what changed since the last render into this destination
+        boolean full = true;
+        if (tracker != null) {
+            full = tracker.update(material, context, dest, pipeline, width, height, scale, linear);
+            regions = tracker.getRegions();
+            regionCount = tracker.getRegionCount();
+        } else {
+            regions = new int[] {0, 0, width, height};
+            regionCount = width > 0 && height > 0 ? 1 : 0;
+        }
+
+        // The coarse samples of the last render with the same state are still valid outside the regions
+        if (full || allocated) {
+            coarseRegions = new int[] {0, 0, coarseWidth, coarseHeight};
+        } else {
+            coarseRegions = new int[regionCount * 4];
+            for (int i = 0; i < regionCount; i++) {
+                coarseRegions[i * 4] = Math.max(0, Math.floorDiv(regions[i * 4], scale) - 1);
+                coarseRegions[i * 4 + 1] = Math.max(0, Math.floorDiv(regions[i * 4 + 1], scale) - 1);
+                coarseRegions[i * 4 + 2] = Math.min(coarseWidth, (regions[i * 4 + 2] + scale - 1) / scale + 1);
+                coarseRegions[i * 4 + 3] = Math.min(coarseHeight, (regions[i * 4 + 3] + scale - 1) / scale + 1);
+            }
+        }
+
+        if (pipeline.getActiveCount() > 0) {
+            lights = null;
+            culler = null;
+            lightmap = null;
+            visibility = null;
+            specular = null;
+            lightCounters = null;
+            return;
+        }
+
+        specular = material.getSpecularIntensity(width, height);
+
+        ShadowCache shadows = context.shadows;
+        if (shadows != null && (shadows.getOccluders().getWidth() != width || shadows.getOccluders().getHeight() != height)) {
+            throw new IllegalArgumentException("Occlusion grid is " + shadows.getOccluders().getWidth() + "x"
+                + shadows.getOccluders().getHeight() + ", expected " + width + "x" + height);
+        }
+
+        // Bake the static lights, leaving only the dynamic ones to evaluate per pixel
+        List<Light> perPixel = context.lights;
+        lightmap = context.lightmap;
+        if (lightmap != null) {
+            scratch.staticLights.clear();
+            scratch.dynamicLights.clear();
+            for (int i = 0, n = context.lights.size(); i < n; i++) {
+                Light light = context.lights.get(i);
+                (light.isStatic() ? scratch.staticLights : scratch.dynamicLights).add(light);
+            }
+            lightmap.update(material, scratch.staticLights, shadows, linear, width, height);
+            perPixel = scratch.dynamicLights;
+        }
+
+        if (context.cullLights) {
+            culler = context.lightCuller != null ? context.lightCuller : scratch.culler;
+            culler.build(perPixel, width, height);
+            lights = culler.getLights();
+        } else {
+            culler = null;
+            lights = perPixel.toArray(new Light[0]);
+        }
+
+        visibility = shadows != null ? visibility(shadows, perPixel) : null;
+
+        if (ShadingStats.enabled) {
+            lightCounters = new ShadingStats.Counter[perPixel.size()];
+            for (int i = 0; i < lightCounters.length; i++) {
+                lightCounters[i] = ShadingStats.counter(perPixel.get(i));
+            }
+        } else {
+            lightCounters = null;
+        }
+    }
+
+    /** @return Number of lights evaluated per pixel before culling */
+    private int lightCount() {
+        return culler != null ? culler.getLightCount() : lights.length;
+    }
+
+    /** @return Index in the list the pass lights of the light of an entry in lights */
+    private int lightIndex(int entry) {
+        return culler != null ? culler.getLightIndex(entry) : entry;
+    }
+
+    /**
+     * Look up the visibility map of every light once, or null if none casts a shadow
+     */
+    private static Bits[] visibility(ShadowCache shadows, List<Light> lights) {
+        Bits[] maps = null;
+        for (int i = 0, count = lights.size(); i < count; i++) {
+            Bits map = shadows.getVisibility(lights.get(i));
+            if (map != null) {
+                if (maps == null) maps = new Bits[count];
+                maps[i] = map;
+            }
+        }
+        return maps;
+    }
+
+    static int width(Material.RenderContext context) {
+        return context.sprite != null ? context.sprite.getWidth() : context.width;
+    }
+
+    static int height(Material.RenderContext context) {
+        return context.sprite != null ? context.sprite.getHeight() : context.height;
+    }
+
+    /** @return Number of regions to shade */
+    int getRegionCount() {
+        return regionCount;
+    }
+
+    /** @return Regions to shade, as x0, y0, x1, y1 with exclusive ends */
+    int[] getRegions() {
+        return regions;
+    }
+
+    /** @return Number of blocks of coarse samples to light before shading */
+    int getCoarseRegionCount() {
+        return coarseRegions.length / 4;
+    }
+
+    /**
+     * @return Blocks of coarse samples to light, as cx0, cy0, cx1, cy1 with exclusive ends;
+     * each covers a region and the samples around it that its pixels are upsampled from
+     */
+    int[] getCoarseRegions() {
+        return coarseRegions;
+    }
+
+    private static int[] fill(int[] scratch, int size, int color) {
+        if (scratch == null || scratch.length < size) {
+            scratch = new int[size];
+        }
+        Arrays.fill(scratch, 0, size, color);
+        return scratch;
+    }
+
+    /** @return Index of the pixel a coarse sample is lit at, the center of its block */
+    private int sampleIndex(int cx, int cy) {
+        int x = Math.min(width - 1, cx * scale + scale / 2);
+        int y = Math.min(height - 1, cy * scale + scale / 2);
+        return x + y * width;
+    }
+
+    /**
+     * Computes the light term of the coarse samples in [cx0, cx1) x [cy0, cy1).
+     * Must finish for every block of {@link #getCoarseRegions} before {@link #shade} runs when the scale is above 1.
+     */
+    void shadeCoarse(int cx0, int cy0, int cx1, int cy1) {
+        long start = ShadingStats.enabled ? System.nanoTime() : 0;
+        long evaluated = 0, culled = 0;
+        ShadingStats.Tally tally = ShadingStats.enabled ? new ShadingStats.Tally(lightCounters) : null;
+        LightBatch batch = LightBatch.get(cx1 - cx0);
+
+        // Samples are lit a run at a time, each run sharing a light culler tile
+        for (int cy = cy0; cy < cy1; cy++) {
+            for (int cx = cx0; cx < cx1; ) {
+                int first = cx, from = 0, to = lights.length, tile = -1;
+                if (culler != null) {
+                    int index = sampleIndex(cx, cy);
+                    tile = culler.getTile(index % width, index / width);
+                    from = culler.getStart(tile);
+                    to = culler.getEnd(tile);
+                }
+
+                batch.clear();
+                for (; cx < cx1; cx++) {
+                    int index = sampleIndex(cx, cy);
+                    int x = index % width, y = index / width;
+                    if (culler != null && culler.getTile(x, y) != tile) break;
+                    add(batch, x, y, index, 0);
+                }
+
+                light(batch, from, to, tally);
+                if (ShadingStats.enabled) {
+                    evaluated += (long)batch.count * (to - from);
+                    culled += (long)batch.count * (lightCount() - (to - from));
+                }
+
+                for (int i = 0; i < batch.count; i++) {
+                    int sample = (first + i + cy * coarseWidth) * 3;
+                    coarse[sample] = batch.red[i];
+                    coarse[sample + 1] = batch.green[i];
+                    coarse[sample + 2] = batch.blue[i];
+                }
+            }
+        }
+
+        if (ShadingStats.enabled) {
+            tally.flush();
+            stats.addRegion(System.nanoTime() - start, 0, evaluated, culled);
+        }
+    }
+
+    /**
+     * Light a pixel from the four coarse samples around it. Each sample is
+     * weighted bilinearly and by how closely its normal matches the pixel's,
+     * so light doesn't bleed across creases in the normal map.
+     */
+    private int upsample(int x, int y, int index, int baseRGB) {
+        float fx = (x - scale / 2) / (float)scale, fy = (y - scale / 2) / (float)scale;
+        int cx0 = Math.max(0, Math.min(coarseWidth - 1, (int)Math.floor(fx)));
+        int cy0 = Math.max(0, Math.min(coarseHeight - 1, (int)Math.floor(fy)));
+        int cx1 = Math.min(coarseWidth - 1, cx0 + 1), cy1 = Math.min(coarseHeight - 1, cy0 + 1);
+        float tx = Math.max(0, Math.min(1, fx - cx0)), ty = Math.max(0, Math.min(1, fy - cy0));
+
+        float nx = normals.x[index], ny = normals.y[index], nz = normals.z[index];
+        float r = 0, g = 0, b = 0, total = 0;
+        for (int k = 0; k < 4; k++) {
+            int cx = (k & 1) == 0 ? cx0 : cx1, cy = (k & 2) == 0 ? cy0 : cy1;
+            float weight = ((k & 1) == 0 ? 1 - tx : tx) * ((k & 2) == 0 ? 1 - ty : ty);
+
+            int s = sampleIndex(cx, cy);
+            float similarity = Math.max(0, nx * normals.x[s] + ny * normals.y[s] + nz * normals.z[s]);
+            similarity *= similarity;
+            similarity *= similarity;
+            similarity *= similarity;
+            weight *= similarity + 1e-4f;
+
+            int sample = (cx + cy * coarseWidth) * 3;
+            r += coarse[sample] * weight;
+            g += coarse[sample + 1] * weight;
+            b += coarse[sample + 2] * weight;
+            total += weight;
+        }
+        return linear
+            ? Material.modulateLinear(baseRGB, r / total, g / total, b / total)
+            : Material.modulate(baseRGB, r / total, g / total, b / total);
+    }
+
+    /**
+     * Shades the pixels in [x0, x1) x [y0, y1)
+     */
+    void shade(int x0, int y0, int x1, int y1) {
+        if (lights != null && coarse == null && context.batchLighting) {
+            shadeBatched(x0, y0, x1, y1);
+            return;
+        }
+
+        long start = ShadingStats.enabled ? System.nanoTime() : 0;
+        long pixels = 0, evaluated = 0, culled = 0;
+        ShadingStats.Tally tally = !ShadingStats.enabled ? null
+            : lights != null ? new ShadingStats.Tally(lightCounters) : pipeline.newTally();
+
+        // Scratch vectors shared by every pixel in the region
+        Vec3 position = new Vec3();
+        Vec3 normal = new Vec3();
+        Vec3 viewDir = new Vec3(0, 0, 1);
+        LightBatch batch = lights != null && coarse == null ? LightBatch.get(1) : null;
+
+        for (int y = y0; y < y1; y++) {
+            for (int x = x0; x < x1; x++) {
+                int index = x + y * width;
+
+                // Get the base color
+                int baseRGB = basePremultiplied ? Rasters.unpremultiply(base[index]) : base[index];
+
+                position.set(x, y, 0);
+                normal.set(normals.x[index], normals.y[index], normals.z[index]);
+
+                int shadedColor;
+                if ((baseRGB >>> 24) == 0) {
+                    // Skip fully transparent pixels
+                    shadedColor = 0;
+                } else if (lights == null) {
+                    // Process this pixel with shaders, timing them at a sample of the pixels
+                    boolean timed = ShadingStats.enabled && (pixels & (ShadingStats.shaderSampling - 1)) == 0;
+                    shadedColor = pipeline.apply(position, normal, viewDir, baseRGB, material, tally, timed);
+                } else if (coarse != null) {
+                    shadedColor = upsample(x, y, index, baseRGB);
+                } else {
+                    // A batch of one pixel, so the light adds up exactly as it does in a run
+                    int from = 0, to = lights.length;
+                    if (culler != null) {
+                        int tile = culler.getTile(x, y);
+                        from = culler.getStart(tile);
+                        to = culler.getEnd(tile);
+                    }
+                    batch.clear();
+                    add(batch, x, y, index, baseRGB);
+                    light(batch, from, to, tally);
+                    shadedColor = modulate(batch, 0);
+                    if (ShadingStats.enabled) {
+                        evaluated += to - from;
+                        culled += lightCount() - (to - from);
+                    }
+                }
+                if (ShadingStats.enabled && (baseRGB >>> 24) != 0) {
+                    pixels++;
+                }
+
+                // Set the result pixel
+                out[index] = outPremultiplied ? Rasters.premultiply(shadedColor) : shadedColor;
+            }
+        }
+
+        if (ShadingStats.enabled) {
+            tally.flush();
+            stats.addRegion(System.nanoTime() - start, pixels, evaluated, culled);
+        }
+    }
+
+    /**
+     * Shades the pixels in [x0, x1) x [y0, y1) a run at a time, each run lying
+     * in one light culler tile so all of its pixels share the same lights
+     */
+    private void shadeBatched(int x0, int y0, int x1, int y1) {
+        long start = ShadingStats.enabled ? System.nanoTime() : 0;
+        long pixels = 0, evaluated = 0, culled = 0;
+        ShadingStats.Tally tally = ShadingStats.enabled ? new ShadingStats.Tally(lightCounters) : null;
+        LightBatch batch = LightBatch.get(x1 - x0);
+
+        for (int y = y0; y < y1; y++) {
+            for (int x = x0; x < x1; ) {
+                int from = 0, to = lights.length, end = x1;
+                if (culler != null) {
+                    int tile = culler.getTile(x, y);
+                    from = culler.getStart(tile);
+                    to = culler.getEnd(tile);
+                    end = Math.min(x1, ((x / culler.getTileSize()) + 1) * culler.getTileSize());
+                }
+
+                batch.clear();
+                for (; x < end; x++) {
+                    int index = x + y * width;
+                    int baseRGB = basePremultiplied ? Rasters.unpremultiply(base[index]) : base[index];
+                    if ((baseRGB >>> 24) == 0) {
+                        // Skip fully transparent pixels
+                        out[index] = 0;
+                        continue;
+                    }
+
+                    add(batch, x, y, index, baseRGB);
+                }
+
+                light(batch, from, to, tally);
+                if (ShadingStats.enabled) {
+                    pixels += batch.count;
+                    evaluated += (long)batch.count * (to - from);
+                    culled += (long)batch.count * (lightCount() - (to - from));
+                }
+
+                for (int i = 0; i < batch.count; i++) {
+                    int shadedColor = modulate(batch, i);
+                    out[batch.index[i]] = outPremultiplied ? Rasters.premultiply(shadedColor) : shadedColor;
+                }
+            }
+        }
+
+        if (ShadingStats.enabled) {
+            tally.flush();
+            stats.addRegion(System.nanoTime() - start, pixels, evaluated, culled);
+        }
+    }
+
+    /**
+     * Add a pixel to a batch, starting from the light of the emissive term or the lightmap
+     */
+    private void add(LightBatch batch, int x, int y, int index, int baseRGB) {
+        float spec = specular != null ? specular[index] : 1f;
+        if (lightmap != null) {
+            batch.add(x, y, index, baseRGB, normals, spec,
+                lightmap.getRed()[index], lightmap.getGreen()[index], lightmap.getBlue()[index]);
+        } else {
+            batch.add(x, y, index, baseRGB, normals, spec, emissiveR, emissiveG, emissiveB);
+        }
+    }
+
+    /**
+     * Add the light entries [from, to) to every pixel of a batch, in order
+     *
+     * @param tally Counts of the lights by their index, or null when shading isn't instrumented
+     */
+    private void light(LightBatch batch, int from, int to, ShadingStats.Tally tally) {
+        for (int i = from; i < to; i++) {
+            Bits visible = visibility != null ? visibility[lightIndex(i)] : null;
+            if (ShadingStats.enabled && batch.count >= ShadingStats.timedBatch) {
+                long lightStart = System.nanoTime();
+                lights[i].accumulate(batch, material, levels, visible);
+                tally.add(lightIndex(i), System.nanoTime() - lightStart, batch.count, true);
+            } else {
+                lights[i].accumulate(batch, material, levels, visible);
+                if (ShadingStats.enabled) tally.add(lightIndex(i), 0, batch.count, false);
+            }
+        }
+    }
+
+    /**
+     * Apply the light summed at a pixel of a batch to its base color
+     */
+    private int modulate(LightBatch batch, int i) {
+        return linear
+            ? Material.modulateLinear(batch.base[i], batch.red[i], batch.green[i], batch.blue[i])
+            : Material.modulate(batch.base[i], batch.red[i], batch.green[i], batch.blue[i]);
+    }
+
+    /**
+     * Copies the output into the destination if it could not be written directly
+     */
+    void finish() {
+        if (copyOut) {
+            Rasters.writeArgb(dest, out);
+        }
+        if (ShadingStats.enabled) {
+            stats.finish(width, height, pipeline.size());
+        }
+    }
+
+    /**
+     * Buffers a thread reuses from one pass to the next
+     */
+    private static class Scratch {
+        // Light lists split by the lightmap
+        final List<Light> staticLights = new ArrayList<>();
+        final List<Light> dynamicLights = new ArrayList<>();
+
+        // Bins of contexts that don't bring their own culler
+        final LightCuller culler = new LightCuller();
+
+        // Conversion buffers
+        int[] base;
+        int[] out;
+
+        // Light term at reduced resolution, three floats per sample, when no relight tracker keeps it
+        float[] coarse;
+    }
+}
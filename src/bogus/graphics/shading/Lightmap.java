@@ -0,0 +1,168 @@
+package bogus.graphics.shading;
+
+import java.util.List;
+
+import bogus.graphics.Srgb;
+import bogus.struct.Bits;
+
+/**
+ * The summed contribution of a material's emissive term and its static lights
+ * at every pixel of a render area, in the same 0-1 per channel units the
+ * built-in lighting model accumulates in. Set on a {@link Material.RenderContext}
+ * so that each frame only adds the lights that are not {@link Light#isStatic() static}.
+ *
+ * The bake is keyed on the {@link Material#getRevision() revision} of the material
+ * and the parameters of every static light, and rebuilds itself when any of them change. Lights are summed in list
+ * order, so when the static lights come before the dynamic ones the result is
+ * bit-identical to evaluating every light each frame.
+ */
+public class Lightmap {
+    private int width, height;
+    private float[] red = new float[0], green = new float[0], blue = new float[0];
+
+    // What the bake depended on; the material and shadows are compared exactly, the lights by their keys
+    private Material material;
+    private int materialRevision;
+    private ShadowCache shadows;
+    private int occluderRevision;
+    private boolean linear;
+    private long key;
+    private boolean baked;
+    private int bakeCount;
+
+    /**
+     * Bake the lightmap if the material, the static lights or the size changed since the last bake
+     *
+     * @param material Material being lit
+     * @param staticLights The static lights, in render order
+     * @param width Width of the render area
+     * @param height Height of the render area
+     * @return Whether the lightmap was rebuilt
+     */
+    public boolean update(Material material, List<Light> staticLights, int width, int height) {
+        return update(material, staticLights, null, false, width, height);
+    }
+
+    /**
+     * Bake the lightmap with shadows if anything it depends on changed since the last bake
+     *
+     * @param shadows Shadows of the static lights, or null
+     * @param linear Whether to sum in linear light, for {@link Material.RenderContext#linearLighting}
+     * @return Whether the lightmap was rebuilt
+     */
+    public boolean update(Material material, List<Light> staticLights, ShadowCache shadows, boolean linear, int width, int height) {
+        int occluderRevision = shadows != null ? shadows.getOccluders().getRevision() : 0;
+        long key = staticLights.size();
+        for (int i = 0, n = staticLights.size(); i < n; i++) {
+            key = Light.mix(key, staticLights.get(i).getBakeKey());
+        }
+
+        if (baked && material == this.material && material.getRevision() == materialRevision && shadows == this.shadows
+            && occluderRevision == this.occluderRevision && linear == this.linear && width == this.width
+            && height == this.height && key == this.key) {
+            return false;
+        }
+
+        bake(material, material.getSurfaceNormals(width, height), staticLights, shadows, linear, width, height);
+        this.material = material;
+        materialRevision = material.getRevision();
+        this.shadows = shadows;
+        this.occluderRevision = occluderRevision;
+        this.linear = linear;
+        this.key = key;
+        return true;
+    }
+
+    private void bake(Material material, NormalBuffer normals, List<Light> staticLights, ShadowCache shadows, boolean linear,
+                      int width, int height) {
+        this.width = width;
+        this.height = height;
+        if (red.length < width * height) {
+            red = new float[width * height];
+            green = new float[width * height];
+            blue = new float[width * height];
+        }
+
+        LightBatch batch = LightBatch.get(width);
+
+        float[] specular = material.getSpecularIntensity(width, height);
+        Bits[] visibility = new Bits[staticLights.size()];
+        for (int i = 0; i < visibility.length && shadows != null; i++) {
+            visibility[i] = shadows.getVisibility(staticLights.get(i));
+        }
+
+        // Add emissive contribution
+        float[] levels = linear ? Srgb.toLinear : Material.levels;
+        float emissiveR, emissiveG, emissiveB;
+        if (linear) {
+            emissiveR = Srgb.toLinear[material.getEmissiveColor().getRed()] * material.getEmissiveStrength();
+            emissiveG = Srgb.toLinear[material.getEmissiveColor().getGreen()] * material.getEmissiveStrength();
+            emissiveB = Srgb.toLinear[material.getEmissiveColor().getBlue()] * material.getEmissiveStrength();
+        } else {
+            emissiveR = material.getEmissiveColor().getRed() * material.getEmissiveStrength() / 255f;
+            emissiveG = material.getEmissiveColor().getGreen() * material.getEmissiveStrength() / 255f;
+            emissiveB = material.getEmissiveColor().getBlue() * material.getEmissiveStrength() / 255f;
+        }
+
+        ShadingStats.Tally tally = null;
+        if (ShadingStats.enabled) {
+            ShadingStats.Counter[] counters = new ShadingStats.Counter[staticLights.size()];
+            for (int i = 0; i < counters.length; i++) {
+                counters[i] = ShadingStats.counter(staticLights.get(i));
+            }
+            tally = new ShadingStats.Tally(counters);
+        }
+
+        // A row at a time, summed the way the lights are summed every frame
+        for (int y = 0; y < height; y++) {
+            batch.clear();
+            for (int x = 0; x < width; x++) {
+                int index = x + y * width;
+                batch.add(x, y, index, 0, normals, specular != null ? specular[index] : 1f, emissiveR, emissiveG, emissiveB);
+            }
+            for (int i = 0, n = staticLights.size(); i < n; i++) {
+                if (ShadingStats.enabled && batch.count >= ShadingStats.timedBatch) {
+                    long start = System.nanoTime();
+                    staticLights.get(i).accumulate(batch, material, levels, visibility[i]);
+                    tally.add(i, System.nanoTime() - start, batch.count, true);
+                } else {
+                    staticLights.get(i).accumulate(batch, material, levels, visibility[i]);
+                    if (ShadingStats.enabled) tally.add(i, 0, batch.count, false);
+                }
+            }
+
+            System.arraycopy(batch.red, 0, red, y * width, width);
+            System.arraycopy(batch.green, 0, green, y * width, width);
+            System.arraycopy(batch.blue, 0, blue, y * width, width);
+        }
+
+        if (ShadingStats.enabled) {
+            tally.flush();
+        }
+        baked = true;
+        bakeCount++;
+    }
+
+    /**
+     * Force a re-bake on the next update, e.g. after changing a custom light that doesn't override {@link Light#getBakeKey()}
+     */
+    public void invalidate() {
+        baked = false;
+    }
+
+    public int getWidth() { return width; }
+
+    public int getHeight() { return height; }
+
+    /** @return Number of times this lightmap has been baked */
+    public int getBakeCount() { return bakeCount; }
+
+    /** Baked red light at every pixel, indexed by x + y * width */
+    public float[] getRed() { return red; }
+
+    /** Baked green light at every pixel, indexed by x + y * width */
+    public float[] getGreen() { return green; }
+
+    /** Baked blue light at every pixel, indexed by x + y * width */
+    public float[] getBlue() { return blue; }
+}
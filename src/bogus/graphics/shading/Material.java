@@ -5,6 +5,7 @@ import java.awt.image.*;
 import java.util.*;
 import java.util.List;
 
+import bogus.graphics.Srgb;
 import bogus.math.geom.Vec3;
 
 public class Material {
@@ -30,6 +31,31 @@ public class Material {
     // Custom properties for advanced effects
     private Map<String, Object> properties = new HashMap<>();
     
+    // Light added by each 8-bit channel level when summing in sRGB, level / 255
+    static final float[] levels = new float[256];
+    static {
+        for (int i = 0; i < 256; i++) {
+            levels[i] = i / 255f;
+        }
+    }
+    
+    // Mip chains of the maps, built on first use
+    private MipTexture.Filter textureFilter = MipTexture.Filter.NEAREST;
+    private volatile MipTexture diffuseTexture, normalTexture, specularTexture;
+    
+    // Decoded normals for the last render size, rebuilt when the normal map or size changes
+    private volatile NormalBuffer normalCache;
+    
+    // Specular intensity for the last render size, rebuilt when the specular map, size or filter changes
+    private volatile SpecularMask specularCache;
+    
+    // Specular lookup table, used when the tolerance is above zero
+    private float specularTolerance = 0.0f;
+    private volatile SpecularTable specularTable;
+    
+    // Bumped by every change to what the built-in lighting model reads, compared by Lightmap and RelightTracker
+    private int revision;
+    
     /**
      * Creates a default material
      */
@@ -55,38 +81,58 @@ public class Material {
     
     // Getters and setters for base properties
     public Color getDiffuseColor() { return diffuseColor; }
-    public void setDiffuseColor(Color color) { this.diffuseColor = color; }
+    public void setDiffuseColor(Color color) { if (!color.equals(diffuseColor)) revision++; this.diffuseColor = color; }
     
     public Color getSpecularColor() { return specularColor; }
-    public void setSpecularColor(Color color) { this.specularColor = color; }
+    public void setSpecularColor(Color color) { if (!color.equals(specularColor)) revision++; this.specularColor = color; }
     
     public Color getEmissiveColor() { return emissiveColor; }
-    public void setEmissiveColor(Color color) { this.emissiveColor = color; }
+    public void setEmissiveColor(Color color) { if (!color.equals(emissiveColor)) revision++; this.emissiveColor = color; }
     
     public float getOpacity() { return opacity; }
     public void setOpacity(float opacity) { this.opacity = Math.max(0, Math.min(1, opacity)); }
     
     public BufferedImage getDiffuseMap() { return diffuseMap; }
-    public void setDiffuseMap(BufferedImage texture) { this.diffuseMap = texture; }
+    public void setDiffuseMap(BufferedImage texture) { this.diffuseMap = texture; this.diffuseTexture = null; revision++; }
     
     public BufferedImage getNormalMap() { return normalMap; }
-    public void setNormalMap(BufferedImage normalMap) { this.normalMap = normalMap; }
+    public void setNormalMap(BufferedImage normalMap) { this.normalMap = normalMap; this.normalTexture = null; this.normalCache = null; revision++; }
     
     public BufferedImage getSpecularMap() { return specularMap; }
-    public void setSpecularMap(BufferedImage specularMap) { this.specularMap = specularMap; }
+    public void setSpecularMap(BufferedImage specularMap) { this.specularMap = specularMap; this.specularTexture = null; this.specularCache = null; revision++; }
+    
+    public MipTexture.Filter getTextureFilter() { return textureFilter; }
+    
+    /**
+     * Set how the diffuse, normal and specular maps are resampled to the render size
+     */
+    public void setTextureFilter(MipTexture.Filter filter) { if (filter != textureFilter) revision++; this.textureFilter = filter; this.normalCache = null; this.specularCache = null; }
     
     // Getters and setters for physical properties
     public float getRoughness() { return roughness; }
-    public void setRoughness(float roughness) { this.roughness = Math.max(0, Math.min(1, roughness)); }
+    public void setRoughness(float roughness) {
+        roughness = Math.max(0, Math.min(1, roughness));
+        if (roughness != this.roughness) revision++;
+        this.roughness = roughness;
+        this.specularTable = null;
+    }
     
     public float getMetalness() { return metalness; }
-    public void setMetalness(float metalness) { this.metalness = Math.max(0, Math.min(1, metalness)); }
+    public void setMetalness(float metalness) {
+        metalness = Math.max(0, Math.min(1, metalness));
+        if (metalness != this.metalness) revision++;
+        this.metalness = metalness;
+    }
     
     public float getReflectivity() { return reflectivity; }
     public void setReflectivity(float reflectivity) { this.reflectivity = Math.max(0, Math.min(1, reflectivity)); }
     
     public float getEmissiveStrength() { return emissiveStrength; }
-    public void setEmissiveStrength(float strength) { this.emissiveStrength = Math.max(0, strength); }
+    public void setEmissiveStrength(float strength) {
+        strength = Math.max(0, strength);
+        if (strength != this.emissiveStrength) revision++;
+        this.emissiveStrength = strength;
+    }
     
     public float getRefractionIndex() { return refractionIndex; }
     public void setRefractionIndex(float index) { this.refractionIndex = Math.max(1.0f, index); }
@@ -94,6 +140,47 @@ public class Material {
     public float getSubsurfaceScattering() { return subsurfaceScattering; }
     public void setSubsurfaceScattering(float amount) { this.subsurfaceScattering = Math.max(0, Math.min(1, amount)); }
     
+    public float getSpecularTolerance() { return specularTolerance; }
+    
+    /**
+     * Set how far the specular highlight may deviate from the exact Phong power
+     * term. Above zero, lighting replaces {@code Math.pow} with a lookup table
+     * accurate to this tolerance; zero (the default) keeps the exact term.
+     * 
+     * @param tolerance Largest absolute error of the specular factor, e.g. 1/512
+     */
+    public void setSpecularTolerance(float tolerance) {
+        tolerance = Math.max(0, tolerance);
+        if (tolerance != this.specularTolerance) revision++;
+        this.specularTolerance = tolerance;
+        this.specularTable = null;
+    }
+    
+    /**
+     * Get the specular lookup table for the current roughness and tolerance
+     * 
+     * @return The table, or null if lookups are disabled
+     */
+    public SpecularTable getSpecularTable() {
+        if (specularTolerance <= 0) return null;
+        
+        SpecularTable table = specularTable;
+        float exponent = (1.0f - roughness) * 100;
+        if (table == null || table.exponent != exponent || table.tolerance != specularTolerance) {
+            table = SpecularTable.create(exponent, specularTolerance);
+            specularTable = table;
+        }
+        return table;
+    }
+    
+    /**
+     * Get the revision of every material parameter the built-in lighting model reads,
+     * bumped each time one of them changes, including the maps being replaced or
+     * invalidated. {@link Lightmap} and {@link RelightTracker} compare it, with the
+     * render size, to decide when to light again.
+     */
+    public int getRevision() { return revision; }
+    
     /**
      * Set a custom property
      */
@@ -112,41 +199,56 @@ public class Material {
     }
 
     public static Color processPixelWithShaders(int x, int y, int baseRGB, Vec3 normal, Material material, List<Light> lights) {
-        int alpha = (baseRGB >> 24) & 0xFF;
-        
-        // Skip fully transparent pixels
-        if (alpha == 0) {
-            return new Color(0, 0, 0, 0);
-        }
-        
-        // Extract color components
-        int baseR = (baseRGB >> 16) & 0xFF;
-        int baseG = (baseRGB >> 8) & 0xFF;
-        int baseB = baseRGB & 0xFF;
-        Color baseColor = new Color(baseR, baseG, baseB, alpha);
-        
         // Position of this pixel in 3D space (assuming Z=0 plane)
         Vec3 position = new Vec3(x, y, 0);
         
         // Vector from pixel to camera (assuming orthographic view pointing in -Z)
         Vec3 viewDir = new Vec3(0, 0, 1);
         
-        // Get the shader manager
-        ShaderManager shaderManager = ShaderManager.getInstance();
+        return new Color(processPixelWithShaders(position, normal, viewDir, baseRGB, material, lights), true);
+    }
+
+    /**
+     * Shades a single pixel without allocating. The caller owns the position
+     * and view direction vectors and may reuse them between pixels.
+     * 
+     * @param position Position of the pixel, on the Z=0 plane
+     * @param normal Surface normal at the pixel
+     * @param viewDir Direction from the pixel to the camera
+     * @param baseRGB Unlit color as packed 0xAARRGGBB
+     * @param material Material properties
+     * @param lights Lights used when no shaders are active
+     * @return The shaded color as packed 0xAARRGGBB
+     */
+    public static int processPixelWithShaders(Vec3 position, Vec3 normal, Vec3 viewDir, int baseRGB, Material material, List<Light> lights) {
+        int alpha = (baseRGB >> 24) & 0xFF;
+        
+        // Skip fully transparent pixels
+        if (alpha == 0) {
+            return 0;
+        }
+        
+        // Get the current shader pipeline
+        ShaderPipeline pipeline = ShaderManager.getInstance().getPipeline();
         
         // If no active shaders, use a basic lighting calculation
-        if (shaderManager.getActiveShaderCount() == 0) {
+        if (pipeline.getActiveCount() == 0) {
+            // Extract color components
+            int baseR = (baseRGB >> 16) & 0xFF;
+            int baseG = (baseRGB >> 8) & 0xFF;
+            int baseB = baseRGB & 0xFF;
+            
             // Add emissive contribution
             float r = material.getEmissiveColor().getRed() * material.getEmissiveStrength() / 255f;
             float g = material.getEmissiveColor().getGreen() * material.getEmissiveStrength() / 255f;
             float b = material.getEmissiveColor().getBlue() * material.getEmissiveStrength() / 255f;
             
             // Process each light
-            for (Light light : lights) {
-                Color lightColor = light.calculateLightingAt(position, normal, viewDir, material);
-                r += lightColor.getRed() / 255f;
-                g += lightColor.getGreen() / 255f;
-                b += lightColor.getBlue() / 255f;
+            for (int i = 0, n = lights.size(); i < n; i++) {
+                int lightColor = lights.get(i).calculateLightingRGB(position, normal, viewDir, material);
+                r += ((lightColor >> 16) & 0xFF) / 255f;
+                g += ((lightColor >> 8) & 0xFF) / 255f;
+                b += (lightColor & 0xFF) / 255f;
             }
             
             // Apply lighting to base color
@@ -154,111 +256,207 @@ public class Material {
             int litG = Math.min(255, (int)(baseG * g));
             int litB = Math.min(255, (int)(baseB * b));
             
-            return new Color(litR, litG, litB, alpha);
+            return (alpha << 24) | (litR << 16) | (litG << 8) | litB;
         } else {
-            // Use the shader manager to process this pixel
-            return shaderManager.applyShaders(position, normal, viewDir, baseColor, material);
+            // Use the shader pipeline to process this pixel
+            return pipeline.apply(position, normal, viewDir, baseRGB, material);
         }
     }
 
-    public static BufferedImage processLightingWithShaders(Material material, Material.RenderContext context) {
-        // Create a new image for the result
-        BufferedImage result = new BufferedImage(
-            context.sprite != null ? context.sprite.getWidth() : context.width,
-            context.sprite != null ? context.sprite.getHeight() : context.height,
-            BufferedImage.TYPE_INT_ARGB
-        );
-        
-        // Get the graphics for the result
-        Graphics2D g = result.createGraphics();
-        
-        // If we have a sprite, start with that
-        if (context.sprite != null) {
-            g.drawImage(context.sprite, 0, 0, null);
-        } else {
-            // Otherwise fill with the diffuse color
-            g.setColor(material.getDiffuseColor());
-            g.fillRect(0, 0, result.getWidth(), result.getHeight());
-        }
-        
-        // Get the base image data
-        int width = result.getWidth();
-        int height = result.getHeight();
+    /**
+     * Apply an accumulated light term to a base color, keeping its alpha
+     */
+    static int modulate(int baseRGB, float r, float g, float b) {
+        int litR = Math.min(255, (int)(((baseRGB >> 16) & 0xFF) * r));
+        int litG = Math.min(255, (int)(((baseRGB >> 8) & 0xFF) * g));
+        int litB = Math.min(255, (int)((baseRGB & 0xFF) * b));
         
-        // Create lighting computation buffer
-        BufferedImage lightBuffer = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        return (baseRGB & 0xFF000000) | (litR << 16) | (litG << 8) | litB;
+    }
+    
+    /**
+     * Apply a light term summed in linear light to a base color, converting it to
+     * linear and the result back to sRGB, keeping its alpha
+     */
+    static int modulateLinear(int baseRGB, float r, float g, float b) {
+        int litR = Srgb.toSrgb(Srgb.toLinear[(baseRGB >> 16) & 0xFF] * r);
+        int litG = Srgb.toSrgb(Srgb.toLinear[(baseRGB >> 8) & 0xFF] * g);
+        int litB = Srgb.toSrgb(Srgb.toLinear[baseRGB & 0xFF] * b);
         
-        // Pre-compute surface normals (either from normal map or default)
-        Vec3[][] normals = material.computeSurfaceNormals(width, height);
+        return (baseRGB & 0xFF000000) | (litR << 16) | (litG << 8) | litB;
+    }
+
+    public static BufferedImage processLightingWithShaders(Material material, Material.RenderContext context) {
+        // Create a new image for the result
+        BufferedImage lightBuffer = new BufferedImage(
+            LightingPass.width(context), LightingPass.height(context), BufferedImage.TYPE_INT_ARGB);
         
-        // For each pixel in the image
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
-                // Get the base color
-                int baseRGB = result.getRGB(x, y);
-                
-                // Get the normal at this pixel
-                Vec3 normal = normals[x][y];
-                
-                // Process this pixel with shaders
-                Color shadedColor = processPixelWithShaders(x, y, baseRGB, normal, material, context.lights);
-                
-                // Set the result pixel
-                lightBuffer.setRGB(x, y, shadedColor.getRGB());
+        return processLightingWithShaders(material, context, lightBuffer);
+    }
+
+    /**
+     * Renders lighting into an existing image, so relighting every frame does
+     * not allocate new images. TYPE_INT_ARGB and TYPE_INT_ARGB_PRE images are
+     * read and written through their backing arrays; other types are converted.
+     * With a {@link RelightTracker} on the context, only the pixels changed since
+     * the last render into the same image are shaded.
+     * 
+     * @param material The material to light
+     * @param context The sprite or area to light, and the lights
+     * @param dest Image to write the result to, the same size as the render area
+     * @return The destination image
+     */
+    public static BufferedImage processLightingWithShaders(Material material, Material.RenderContext context, BufferedImage dest) {
+        LightingPass pass = new LightingPass(material, context, dest);
+        if (pass.scale > 1) {
+            int[] blocks = pass.getCoarseRegions();
+            for (int i = 0; i < pass.getCoarseRegionCount(); i++) {
+                pass.shadeCoarse(blocks[i * 4], blocks[i * 4 + 1], blocks[i * 4 + 2], blocks[i * 4 + 3]);
             }
         }
-        
-        g.dispose();
-        return lightBuffer;
+        int[] regions = pass.getRegions();
+        for (int i = 0; i < pass.getRegionCount(); i++) {
+            pass.shade(regions[i * 4], regions[i * 4 + 1], regions[i * 4 + 2], regions[i * 4 + 3]);
+        }
+        pass.finish();
+        return dest;
     }
 
     public Vec3[][] computeSurfaceNormals(int width, int height) {
+        NormalBuffer buffer = getSurfaceNormals(width, height);
         Vec3[][] normals = new Vec3[width][height];
         
-        if (normalMap != null) {
-            // Extract normals from normal map
-            for (int x = 0; x < width; x++) {
-                for (int y = 0; y < height; y++) {
-                    // Map coordinates to normal map coordinates
-                    int nx = (int) ((float) x / width * normalMap.getWidth());
-                    int ny = (int) ((float) y / height * normalMap.getHeight());
-                    
-                    // Get the normal map color
-                    int rgb = normalMap.getRGB(nx, ny);
-                    
-                    // Extract RGB components (normal map channels)
-                    int r = (rgb >> 16) & 0xFF;
-                    int g = (rgb >> 8) & 0xFF;
-                    int b = rgb & 0xFF;
-                    
-                    // Convert from [0,255] to [-1,1] range
-                    float nx_val = (r / 255.0f) * 2.0f - 1.0f;
-                    float ny_val = (g / 255.0f) * 2.0f - 1.0f;
-                    float nz_val = (b / 255.0f) * 2.0f - 1.0f;
-                    
-                    // Create and normalize the normal vector
-                    Vec3 normal = new Vec3(nx_val, ny_val, nz_val);
-                    normal.normalize();
-                    
-                    normals[x][y] = normal;
-                }
-            }
-        } else {
-            // Use default normals (pointing upward)
-            Vec3 defaultNormal = new Vec3(0.0f, 0.0f, 1.0f);
-            
-            for (int x = 0; x < width; x++) {
-                for (int y = 0; y < height; y++) {
-                    normals[x][y] = defaultNormal;
-                }
+        for (int x = 0; x < width; x++) {
+            for (int y = 0; y < height; y++) {
+                normals[x][y] = buffer.get(x, y, new Vec3());
             }
         }
         
         return normals;
     }
 
+    /**
+     * Get the surface normals for a render area, decoding the normal map only
+     * when it or the size changed since the last call. If the pixels of the
+     * normal map are edited in place, call {@link #invalidateSurfaceNormals()}.
+     * 
+     * @param width Width of the render area
+     * @param height Height of the render area
+     * @return The cached normals; treat as read-only
+     */
+    public NormalBuffer getSurfaceNormals(int width, int height) {
+        NormalBuffer buffer = normalCache;
+        if (buffer == null || !buffer.matches(normalMap, textureFilter, width, height)) {
+            buffer = NormalBuffer.decode(getNormalTexture(), textureFilter, width, height);
+            normalCache = buffer;
+        }
+        return buffer;
+    }
+    
+    /** @return Mip chain of the diffuse map, or null if there is none */
+    public MipTexture getDiffuseTexture() {
+        MipTexture texture = diffuseTexture;
+        if (texture == null && diffuseMap != null) {
+            diffuseTexture = texture = MipTexture.create(diffuseMap);
+        }
+        return texture;
+    }
+    
+    /** @return Mip chain of the normal map, or null if there is none */
+    public MipTexture getNormalTexture() {
+        MipTexture texture = normalTexture;
+        if (texture == null && normalMap != null) {
+            normalTexture = texture = MipTexture.create(normalMap);
+        }
+        return texture;
+    }
+    
+    /** @return Mip chain of the specular map, or null if there is none */
+    public MipTexture getSpecularTexture() {
+        MipTexture texture = specularTexture;
+        if (texture == null && specularMap != null) {
+            specularTexture = texture = MipTexture.create(specularMap);
+        }
+        return texture;
+    }
+    
+    /**
+     * Get the diffuse map resampled to a render area. Areas without a sprite
+     * use it in place of the diffuse color.
+     * 
+     * @return Packed 0xAARRGGBB pixels, or null if there is no diffuse map; treat as read-only
+     */
+    public int[] getDiffusePixels(int width, int height) {
+        MipTexture texture = getDiffuseTexture();
+        return texture != null ? texture.resample(width, height, textureFilter) : null;
+    }
+    
+    /**
+     * Get the specular map's brightness, from 0 to 1, resampled to a render area.
+     * It scales the specular highlight at each pixel.
+     * 
+     * @return One value per pixel, or null if there is no specular map; treat as read-only
+     */
+    public float[] getSpecularIntensity(int width, int height) {
+        MipTexture texture = getSpecularTexture();
+        if (texture == null) return null;
+        
+        SpecularMask mask = specularCache;
+        if (mask == null || mask.width != width || mask.height != height || mask.filter != textureFilter) {
+            int[] pixels = texture.resample(width, height, textureFilter);
+            float[] values = new float[width * height];
+            for (int i = 0; i < values.length; i++) {
+                int rgb = pixels[i];
+                values[i] = (((rgb >> 16) & 0xFF) + ((rgb >> 8) & 0xFF) + (rgb & 0xFF)) / (3 * 255f);
+            }
+            mask = new SpecularMask(width, height, textureFilter, values);
+            specularCache = mask;
+        }
+        return mask.values;
+    }
+    
+    private static class SpecularMask {
+        final int width, height;
+        final MipTexture.Filter filter;
+        final float[] values;
+        
+        SpecularMask(int width, int height, MipTexture.Filter filter, float[] values) {
+            this.width = width;
+            this.height = height;
+            this.filter = filter;
+            this.values = values;
+        }
+    }
+
+    /**
+     * Drop the cached surface normals and the normal map's mip chain, forcing the normal map to be decoded again
+     */
+    public void invalidateSurfaceNormals() {
+        normalTexture = null;
+        normalCache = null;
+        revision++;
+    }
+
+    /**
+     * Drop everything decoded from the maps: their mip chains, resampled pixels, surface normals
+     * and specular intensity. Maps are decoded once and later edits to their pixels are not seen,
+     * so call this after drawing into the diffuse, normal or specular map in place.
+     */
+    public void invalidate() {
+        diffuseTexture = null;
+        normalTexture = null;
+        specularTexture = null;
+        normalCache = null;
+        specularCache = null;
+        revision++;
+    }
+
         /**
      * Render context containing all information needed for rendering.
+     * A render writes nothing into the context, so several threads may render with one
+     * context at once. The light culler, lightmap, relight tracker and shadow cache it
+     * points to do keep state between renders, so a context with any of them set must
+     * only be rendered by one thread at a time.
      */
     public static class RenderContext {
         public BufferedImage sprite;
@@ -267,6 +465,36 @@ public class Material {
         public List<Light> lights;
         //public Camera camera;
         
+        /** Bins lights by screen tile when no shaders are active; off evaluates every light at every pixel */
+        public boolean cullLights = true;
+        /**
+         * Culler to bin into, which keeps the bins of the last render for inspection;
+         * null bins into a culler kept by the rendering thread
+         */
+        public LightCuller lightCuller;
+        /** Bakes static lights when no shaders are active; null evaluates static lights every frame */
+        public Lightmap lightmap;
+        /** Re-shades only the pixels changed lights reach when rendering into the same image; null shades every pixel */
+        public RelightTracker relightTracker;
+        /**
+         * Computes the light term at one pixel out of every scale x scale block, such as 2 or 4,
+         * and upsamples it along the normals; 1 lights every pixel. Ignored while shaders are active.
+         */
+        public int lightingScale = 1;
+        /**
+         * Sums lights in linear light rather than in sRGB, converting every channel through
+         * {@link Srgb} lookup tables, so overlapping lights add up the way real light does.
+         * Ignored while shaders are active.
+         */
+        public boolean linearLighting;
+        /**
+         * Lights runs of pixels one light at a time rather than each pixel with every light in turn.
+         * Both give identical results; turn it off to compare them.
+         */
+        public boolean batchLighting = true;
+        /** Shadows of lights that cast them when no shaders are active; null lets every light through */
+        public ShadowCache shadows;
+        
         /**
          * Creates a render context with a sprite.
          * 
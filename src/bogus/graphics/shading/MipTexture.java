@@ -0,0 +1,219 @@
+package bogus.graphics.shading;
+
+import java.awt.image.BufferedImage;
+
+import bogus.graphics.Rasters;
+
+/**
+ * A texture decoded once into a chain of packed ARGB levels, each half the size
+ * of the one before, for resampling material maps to any render size. Sampling
+ * a level close to the target size instead of the full map avoids aliasing when
+ * a sprite is drawn smaller than its maps.
+ *
+ * The last few resampled sizes are cached, so a map drawn at the same sizes
+ * every frame, such as a sprite and its scaled-down lighting, is only resampled
+ * once per size.
+ */
+public class MipTexture {
+    public enum Filter {
+        /** Nearest texel of the full-size map */
+        NEAREST,
+        /** Bilinear blend of the full-size map */
+        BILINEAR,
+        /** Nearest texel of the smallest level at least as large as the target */
+        MIPMAP_NEAREST,
+        /** Bilinear blend of the smallest level at least as large as the target */
+        MIPMAP_BILINEAR
+    }
+
+    /** The image the chain was built from */
+    public final BufferedImage source;
+
+    private final int[][] levels;
+    private final int[] widths, heights;
+
+    /** Resampled sizes kept, the least recently used dropped past this */
+    public static final int cachedSizes = 4;
+
+    // Most recently used first; replaced rather than changed, so readers on other threads see a whole array
+    private volatile Resampled[] resampled = new Resampled[0];
+
+    private MipTexture(BufferedImage source) {
+        this.source = source;
+
+        int count = 1;
+        for (int w = source.getWidth(), h = source.getHeight(); w > 1 || h > 1; w = Math.max(1, w / 2), h = Math.max(1, h / 2)) {
+            count++;
+        }
+        levels = new int[count][];
+        widths = new int[count];
+        heights = new int[count];
+
+        widths[0] = source.getWidth();
+        heights[0] = source.getHeight();
+        int[] pixels = Rasters.readArgb(source, null);
+        levels[0] = pixels == Rasters.data(source) ? pixels.clone() : pixels;
+
+        for (int i = 1; i < count; i++) {
+            widths[i] = Math.max(1, widths[i - 1] / 2);
+            heights[i] = Math.max(1, heights[i - 1] / 2);
+            levels[i] = downsample(levels[i - 1], widths[i - 1], heights[i - 1], widths[i], heights[i]);
+        }
+    }
+
+    /**
+     * Build the mip chain of an image. Later edits to the image are not seen; materials
+     * build their chains again after {@link Material#invalidate()}.
+     */
+    public static MipTexture create(BufferedImage image) {
+        return new MipTexture(image);
+    }
+
+    /**
+     * Average each 2x2 block of a level into one texel of the next
+     */
+    private static int[] downsample(int[] from, int fromWidth, int fromHeight, int width, int height) {
+        int[] to = new int[width * height];
+        for (int y = 0; y < height; y++) {
+            int y0 = Math.min(fromHeight - 1, y * 2), y1 = Math.min(fromHeight - 1, y * 2 + 1);
+            for (int x = 0; x < width; x++) {
+                int x0 = Math.min(fromWidth - 1, x * 2), x1 = Math.min(fromWidth - 1, x * 2 + 1);
+                to[x + y * width] = average(from[x0 + y0 * fromWidth], from[x1 + y0 * fromWidth],
+                    from[x0 + y1 * fromWidth], from[x1 + y1 * fromWidth]);
+            }
+        }
+        return to;
+    }
+
+    private static int average(int a, int b, int c, int d) {
+        int result = 0;
+        for (int shift = 0; shift < 32; shift += 8) {
+            int sum = ((a >>> shift) & 0xFF) + ((b >>> shift) & 0xFF) + ((c >>> shift) & 0xFF) + ((d >>> shift) & 0xFF);
+            result |= ((sum + 2) >> 2) << shift;
+        }
+        return result;
+    }
+
+    public int getLevels() { return levels.length; }
+
+    public int getWidth(int level) { return widths[level]; }
+
+    public int getHeight(int level) { return heights[level]; }
+
+    /** @return The texels of a level, row by row; treat as read-only */
+    public int[] getLevel(int level) { return levels[level]; }
+
+    /**
+     * @return The smallest level that is at least as large as the target in both directions
+     */
+    public int levelFor(int width, int height) {
+        int level = 0;
+        while (level + 1 < levels.length && widths[level + 1] >= width && heights[level + 1] >= height) {
+            level++;
+        }
+        return level;
+    }
+
+    /**
+     * @param u, v Texel coordinates of the level, wrapped into range
+     * @return The nearest texel as packed 0xAARRGGBB
+     */
+    public int sampleNearest(int level, int u, int v) {
+        int w = widths[level], h = heights[level];
+        return levels[level][Math.floorMod(u, w) + Math.floorMod(v, h) * w];
+    }
+
+    /**
+     * @param u, v Coordinates in texels of the level, where texel centers are at whole numbers; clamped to the edges
+     * @return The blended color as packed 0xAARRGGBB
+     */
+    public int sampleBilinear(int level, float u, float v) {
+        int w = widths[level], h = heights[level];
+        int[] texels = levels[level];
+
+        u = Math.max(0, Math.min(w - 1, u));
+        v = Math.max(0, Math.min(h - 1, v));
+        int x0 = (int)u, y0 = (int)v;
+        int x1 = Math.min(w - 1, x0 + 1), y1 = Math.min(h - 1, y0 + 1);
+        float tx = u - x0, ty = v - y0;
+
+        int a = texels[x0 + y0 * w], b = texels[x1 + y0 * w];
+        int c = texels[x0 + y1 * w], d = texels[x1 + y1 * w];
+        int result = 0;
+        for (int shift = 0; shift < 32; shift += 8) {
+            float top = ((a >>> shift) & 0xFF) + (((b >>> shift) & 0xFF) - ((a >>> shift) & 0xFF)) * tx;
+            float bottom = ((c >>> shift) & 0xFF) + (((d >>> shift) & 0xFF) - ((c >>> shift) & 0xFF)) * tx;
+            result |= Math.round(top + (bottom - top) * ty) << shift;
+        }
+        return result;
+    }
+
+    /**
+     * Resample the texture to a render size. {@link Filter#NEAREST} picks the same
+     * texels as decoding the full map directly, texel {@code x * mapWidth / width}.
+     *
+     * @return Packed 0xAARRGGBB pixels, row by row; treat as read-only
+     */
+    public int[] resample(int width, int height, Filter filter) {
+        Resampled[] cache = resampled;
+        for (int i = 0; i < cache.length; i++) {
+            Resampled cached = cache[i];
+            if (cached.width == width && cached.height == height && cached.filter == filter) {
+                if (i > 0) {
+                    Resampled[] moved = cache.clone();
+                    System.arraycopy(cache, 0, moved, 1, i);
+                    moved[0] = cached;
+                    resampled = moved;
+                }
+                return cached.pixels;
+            }
+        }
+
+        boolean mipmap = filter == Filter.MIPMAP_NEAREST || filter == Filter.MIPMAP_BILINEAR;
+        int level = mipmap ? levelFor(width, height) : 0;
+        int levelWidth = widths[level], levelHeight = heights[level];
+        int[] texels = levels[level];
+        int[] pixels = new int[width * height];
+
+        if (filter == Filter.NEAREST || filter == Filter.MIPMAP_NEAREST) {
+            // Map coordinates to texels once per column and row
+            int[] columns = new int[width];
+            for (int x = 0; x < width; x++) {
+                columns[x] = (int)((float)x / width * levelWidth);
+            }
+            for (int y = 0; y < height; y++) {
+                int row = (int)((float)y / height * levelHeight) * levelWidth;
+                for (int x = 0; x < width; x++) {
+                    pixels[x + y * width] = texels[row + columns[x]];
+                }
+            }
+        } else {
+            float scaleX = (float)levelWidth / width, scaleY = (float)levelHeight / height;
+            for (int y = 0; y < height; y++) {
+                float v = (y + 0.5f) * scaleY - 0.5f;
+                for (int x = 0; x < width; x++) {
+                    pixels[x + y * width] = sampleBilinear(level, (x + 0.5f) * scaleX - 0.5f, v);
+                }
+            }
+        }
+
+        Resampled[] added = new Resampled[Math.min(cachedSizes, cache.length + 1)];
+        added[0] = new Resampled(width, height, filter, pixels);
+        System.arraycopy(cache, 0, added, 1, added.length - 1);
+        resampled = added;
+        return pixels;
+    }
+
+    private static class Resampled {
+        final int width, height;
+        final Filter filter;
+        final int[] pixels;
+
+        Resampled(int width, int height, Filter filter, int[] pixels) {
+            this.width = width;
+            this.height = height;
+            this.filter = filter;
+            this.pixels = pixels;
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package bogus.graphics.shading;
+
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+
+import bogus.math.geom.Vec3;
+
+/**
+ * Surface normals for every pixel of a render area, stored as three flat
+ * arrays indexed by {@code x + y * width}. Built once per normal map and
+ * target size and cached by {@link Material#getSurfaceNormals(int, int)}.
+ */
+public class NormalBuffer {
+    public final int width, height;
+    public final float[] x, y, z;
+    /** The normal map this buffer was decoded from, or null for flat normals */
+    public final BufferedImage source;
+    /** How the normal map was resampled */
+    public final MipTexture.Filter filter;
+
+    private NormalBuffer(BufferedImage source, MipTexture.Filter filter, int width, int height) {
+        this.source = source;
+        this.filter = filter;
+        this.width = width;
+        this.height = height;
+        this.x = new float[width * height];
+        this.y = new float[width * height];
+        this.z = new float[width * height];
+    }
+
+    /**
+     * Decode a normal map, resampled nearest-neighbour to the given size
+     *
+     * @param normalMap The normal map, or null for normals pointing straight at the camera
+     * @param width Target width
+     * @param height Target height
+     * @return The decoded normals
+     */
+    public static NormalBuffer decode(BufferedImage normalMap, int width, int height) {
+        return decode(normalMap != null ? MipTexture.create(normalMap) : null, MipTexture.Filter.NEAREST, width, height);
+    }
+
+    /**
+     * Decode a normal map from its mip chain. Filtered normals are not renormalized.
+     *
+     * @param normalMap The normal map's mip chain, or null for normals pointing straight at the camera
+     * @param filter How to resample the map to the target size
+     * @param width Target width
+     * @param height Target height
+     * @return The decoded normals
+     */
+    public static NormalBuffer decode(MipTexture normalMap, MipTexture.Filter filter, int width, int height) {
+        NormalBuffer buffer = new NormalBuffer(normalMap != null ? normalMap.source : null, filter, width, height);
+
+        if (normalMap == null) {
+            // Use default normals (pointing upward)
+            Arrays.fill(buffer.z, 1.0f);
+            return buffer;
+        }
+
+        int[] pixels = normalMap.resample(width, height, filter);
+        for (int index = 0; index < width * height; index++) {
+            int rgb = pixels[index];
+
+            // Convert from [0,255] to [-1,1] range
+            buffer.x[index] = (((rgb >> 16) & 0xFF) / 255.0f) * 2.0f - 1.0f;
+            buffer.y[index] = (((rgb >> 8) & 0xFF) / 255.0f) * 2.0f - 1.0f;
+            buffer.z[index] = ((rgb & 0xFF) / 255.0f) * 2.0f - 1.0f;
+        }
+        return buffer;
+    }
+
+    /**
+     * Copy the normal at a pixel into a vector
+     *
+     * @return The output vector
+     */
+    public Vec3 get(int x, int y, Vec3 out) {
+        int index = x + y * width;
+        return out.set(this.x[index], this.y[index], this.z[index]);
+    }
+
+    /** @return Whether this buffer was built for the given map and size */
+    boolean matches(BufferedImage normalMap, MipTexture.Filter filter, int width, int height) {
+        return source == normalMap && this.filter == filter && this.width == width && this.height == height;
+    }
+}
@@ -27,19 +27,31 @@ public class NormalVisualizeShader extends Shader {
     
     @Override
     public Color shade(Vec3 position, Vec3 normal, Vec3 viewDir, Color baseColor, Material material) {
+        return new Color(shadeRGB(position, normal, viewDir, baseColor.getRGB(), material), true);
+    }
+    
+    @Override
+    public int shade(Vec3 position, Vec3 normal, Vec3 viewDir, int baseColor, Material material) {
+        if (overridesShade(NormalVisualizeShader.class)) {
+            return super.shade(position, normal, viewDir, baseColor, material);
+        }
+        return shadeRGB(position, normal, viewDir, baseColor, material);
+    }
+    
+    private int shadeRGB(Vec3 position, Vec3 normal, Vec3 viewDir, int baseColor, Material material) {
         // Normalize the normal
-        Vec3 n = normal.normalize();
+        float magnitude = (float)Math.sqrt(normal.x * normal.x + normal.y * normal.y + normal.z * normal.z);
         
         // Map (-1, 1) range to (0, 1)
-        int r = (int)((n.x * 0.5f + 0.5f) * 255);
-        int g = (int)((n.y * 0.5f + 0.5f) * 255);
-        int b = (int)((n.z * 0.5f + 0.5f) * 255);
+        int r = (int)((normal.x / magnitude * 0.5f + 0.5f) * 255);
+        int g = (int)((normal.y / magnitude * 0.5f + 0.5f) * 255);
+        int b = (int)((normal.z / magnitude * 0.5f + 0.5f) * 255);
         
         // Clamp values
         r = Math.min(255, Math.max(0, r));
         g = Math.min(255, Math.max(0, g));
         b = Math.min(255, Math.max(0, b));
         
-        return new Color(r, g, b, baseColor.getAlpha());
+        return (baseColor & 0xFF000000) | (r << 16) | (g << 8) | b;
     }
 }
\ No newline at end of file
@@ -0,0 +1,95 @@
+package bogus.graphics.shading;
+
+import java.awt.image.BufferedImage;
+
+import bogus.struct.GridBits;
+
+/**
+ * A mask of the pixels that block light, one bit per pixel of a render area.
+ * Every change bumps a revision, which {@link ShadowCache} uses to know when its
+ * visibility maps are stale.
+ */
+public class OcclusionGrid {
+    private final GridBits bits;
+    private final int width, height;
+    private int revision;
+
+    public OcclusionGrid(int width, int height) {
+        this.width = width;
+        this.height = height;
+        this.bits = new GridBits(width, height);
+    }
+
+    /**
+     * Build a grid where every pixel of an image with at least the given alpha blocks light
+     */
+    public static OcclusionGrid fromAlpha(BufferedImage image, int alphaThreshold) {
+        OcclusionGrid grid = new OcclusionGrid(image.getWidth(), image.getHeight());
+        grid.addAlpha(image, 0, 0, alphaThreshold);
+        return grid;
+    }
+
+    /**
+     * Mark the pixels of an image with at least the given alpha as blocking
+     *
+     * @param image Image whose alpha is the occluder's shape
+     * @param x Position of the image's left edge in the grid
+     * @param y Position of the image's top edge in the grid
+     * @param alphaThreshold Alpha from 1 to 255 at which a pixel blocks light
+     */
+    public void addAlpha(BufferedImage image, int x, int y, int alphaThreshold) {
+        int x0 = Math.max(0, x), y0 = Math.max(0, y);
+        int x1 = Math.min(width, x + image.getWidth()), y1 = Math.min(height, y + image.getHeight());
+        if (x0 >= x1 || y0 >= y1) return;
+
+        int w = x1 - x0;
+        int[] row = new int[w];
+        for (int py = y0; py < y1; py++) {
+            image.getRGB(x0 - x, py - y, w, 1, row, 0, w);
+            for (int px = 0; px < w; px++) {
+                if ((row[px] >>> 24) >= alphaThreshold) {
+                    bits.set(x0 + px, py);
+                }
+            }
+        }
+        revision++;
+    }
+
+    /**
+     * @return Whether a pixel blocks light; pixels outside the grid never do
+     */
+    public boolean isSolid(int x, int y) {
+        return bits.get(x, y);
+    }
+
+    public void set(int x, int y, boolean solid) {
+        if (x < 0 || y < 0 || x >= width || y >= height || bits.get(x, y) == solid) return;
+        bits.set(x, y, solid);
+        revision++;
+    }
+
+    /**
+     * Set every pixel of a rectangle, clipped to the grid
+     */
+    public void fill(int x, int y, int width, int height, boolean solid) {
+        int x1 = Math.min(this.width, x + width), y1 = Math.min(this.height, y + height);
+        for (int py = Math.max(0, y); py < y1; py++) {
+            for (int px = Math.max(0, x); px < x1; px++) {
+                bits.set(px, py, solid);
+            }
+        }
+        revision++;
+    }
+
+    public void clear() {
+        bits.clear();
+        revision++;
+    }
+
+    public int getWidth() { return width; }
+
+    public int getHeight() { return height; }
+
+    /** @return A number that changes whenever the grid does */
+    public int getRevision() { return revision; }
+}
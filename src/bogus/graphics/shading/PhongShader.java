@@ -54,17 +54,29 @@ public class PhongShader extends Shader {
     
     @Override
     public Color shade(Vec3 position, Vec3 normal, Vec3 viewDir, Color baseColor, Material material) {
+        return new Color(shadeRGB(position, normal, viewDir, baseColor.getRGB(), material), true);
+    }
+    
+    @Override
+    public int shade(Vec3 position, Vec3 normal, Vec3 viewDir, int baseColor, Material material) {
+        if (overridesShade(PhongShader.class)) {
+            return super.shade(position, normal, viewDir, baseColor, material);
+        }
+        return shadeRGB(position, normal, viewDir, baseColor, material);
+    }
+    
+    private int shadeRGB(Vec3 position, Vec3 normal, Vec3 viewDir, int baseColor, Material material) {
         // Start with ambient light
-        int r = (ambientColor.getRed() * baseColor.getRed()) / 255;
-        int g = (ambientColor.getGreen() * baseColor.getGreen()) / 255;
-        int b = (ambientColor.getBlue() * baseColor.getBlue()) / 255;
+        int r = (ambientColor.getRed() * ((baseColor >> 16) & 0xFF)) / 255;
+        int g = (ambientColor.getGreen() * ((baseColor >> 8) & 0xFF)) / 255;
+        int b = (ambientColor.getBlue() * (baseColor & 0xFF)) / 255;
         
         // Add contribution from each light
-        for (Light light : lights) {
-            Color lightColor = light.calculateLightingAt(position, normal, viewDir, material);
-            r += lightColor.getRed();
-            g += lightColor.getGreen();
-            b += lightColor.getBlue();
+        for (int i = 0, n = lights.size(); i < n; i++) {
+            int lightColor = lights.get(i).calculateLightingRGB(position, normal, viewDir, material);
+            r += (lightColor >> 16) & 0xFF;
+            g += (lightColor >> 8) & 0xFF;
+            b += lightColor & 0xFF;
         }
         
         // Clamp values
@@ -72,6 +84,6 @@ public class PhongShader extends Shader {
         g = Math.min(255, g);
         b = Math.min(255, b);
         
-        return new Color(r, g, b, baseColor.getAlpha());
+        return (baseColor & 0xFF000000) | (r << 16) | (g << 8) | b;
     }
 }
\ No newline at end of file
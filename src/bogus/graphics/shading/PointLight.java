@@ -2,7 +2,9 @@ package bogus.graphics.shading;
 
 import java.awt.Color;
 
+import bogus.math.geom.Rect;
 import bogus.math.geom.Vec3;
+import bogus.struct.Bits;
 
 /**
  * A point light that emits light in all directions from a specific point
@@ -36,23 +38,90 @@ public class PointLight extends Light {
     public float getFalloffQuadratic() { return falloffQuadratic; }
     public void setFalloffQuadratic(float falloff) { this.falloffQuadratic = Math.max(0, falloff); }
     
+    @Override
+    public long getBakeKey() {
+        long key = mix(super.getBakeKey(), position);
+        key = mix(key, range);
+        key = mix(key, falloffLinear);
+        return mix(key, falloffQuadratic);
+    }
+    
+    @Override
+    public boolean getBounds(Rect out) {
+        return getRangeBounds(position, range, out);
+    }
+    
+    @Override
+    public boolean getShadowOrigin(Vec3 out) {
+        out.set(position);
+        return true;
+    }
+    
     @Override
     public Color calculateLightingAt(Vec3 position, Vec3 normal, Vec3 viewDir, Material material) {
+        return new Color(light(position, normal, viewDir, material, 1f));
+    }
+    
+    @Override
+    public int calculateLightingRGB(Vec3 position, Vec3 normal, Vec3 viewDir, Material material) {
+        if (overridesLightingAt(PointLight.class)) {
+            return super.calculateLightingRGB(position, normal, viewDir, material);
+        }
+        return light(position, normal, viewDir, material, 1f);
+    }
+    
+    @Override
+    public int calculateLightingRGB(Vec3 position, Vec3 normal, Vec3 viewDir, Material material, float specular) {
+        if (overridesLighting(PointLight.class)) {
+            return calculateLightingRGB(position, normal, viewDir, material);
+        }
+        return light(position, normal, viewDir, material, specular);
+    }
+    
+    private int light(Vec3 position, Vec3 normal, Vec3 viewDir, Material material, float specular) {
         // Calculate direction from the surface point to the light
-        Vec3 toLight = this.position.subtract(position);
-        float distance = toLight.length();
+        float toX = this.position.x - position.x;
+        float toY = this.position.y - position.y;
+        float toZ = this.position.z - position.z;
+        float distance = (float)Math.sqrt(toX * toX + toY * toY + toZ * toZ);
         
         // If beyond range, no light contribution
         if (distance > range) {
-            return new Color(0, 0, 0);
+            return 0xFF000000;
         }
         
         // Normalize direction
-        Vec3 lightDir = toLight.multiply(1.0f / distance);
+        float invDistance = 1.0f / distance;
         
         // Calculate attenuation (light falloff with distance)
         float attenuation = 1.0f / (1.0f + falloffLinear * distance + falloffQuadratic * distance * distance);
         
-        return calculatePhongLighting(position, normal, viewDir, lightDir, material, attenuation);
+        return phong(position, normal, viewDir, toX * invDistance, toY * invDistance, toZ * invDistance, material, attenuation, specular);
+    }
+    
+    @Override
+    void accumulate(LightBatch batch, Material material, float[] levels, Bits visible) {
+        if (!calculatesLike(PointLight.class)) {
+            super.accumulate(batch, material, levels, visible);
+            return;
+        }
+        
+        float positionX = position.x, positionY = position.y, positionZ = position.z;
+        float range = this.range, falloffLinear = this.falloffLinear, falloffQuadratic = this.falloffQuadratic;
+        float[] x = batch.x, y = batch.y;
+        float[] lightX = batch.lightX, lightY = batch.lightY, lightZ = batch.lightZ, attenuation = batch.attenuation;
+        for (int i = 0; i < batch.count; i++) {
+            float toX = positionX - x[i];
+            float toY = positionY - y[i];
+            float toZ = positionZ - 0;
+            float distance = (float)Math.sqrt(toX * toX + toY * toY + toZ * toZ);
+            float invDistance = 1.0f / distance;
+            lightX[i] = toX * invDistance;
+            lightY[i] = toY * invDistance;
+            lightZ[i] = toZ * invDistance;
+            float falloff = 1.0f / (1.0f + falloffLinear * distance + falloffQuadratic * distance * distance);
+            attenuation[i] = atLeastZero(range - distance) * falloff;
+        }
+        accumulatePhong(batch, material, levels, visible);
     }
 }
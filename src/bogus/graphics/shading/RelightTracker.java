@@ -0,0 +1,238 @@
+package bogus.graphics.shading;
+
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.List;
+
+import bogus.math.geom.Rect;
+
+/**
+ * Tracks what changed between two renders into the same destination, so that
+ * only the pixels a changed light can reach are shaded again. Set on a
+ * {@link Material.RenderContext} and render with
+ * {@link Material#processLightingWithShaders(Material, Material.RenderContext, BufferedImage)}
+ * into the same image every frame.
+ *
+ * A light counts as changed when a different light takes its place in the list
+ * or its {@link Light#getBakeKey()} differs; both its old and its new
+ * {@link Light#getBounds(Rect) bounds} become dirty. Dirty pixels are shaded
+ * again with every light, so the result is identical to a full render.
+ * Everything else - the material, sprite, size, shaders, lightmap, occluders or
+ * lighting settings - forces a full render, as do active shaders and lights without bounds.
+ *
+ * Changes the tracker can't see, such as editing the sprite's pixels or a custom
+ * light that doesn't override {@link Light#getBakeKey()}, need {@link #invalidate()}.
+ * The material is compared by its {@link Material#getRevision() revision}.
+ */
+public class RelightTracker {
+    /** Dirty regions are merged into their bounding box past this count */
+    public static final int maxRegions = 8;
+
+    // Dirty area, as a fraction of the image, past which the whole image is redrawn
+    private float fullRedrawRatio = 0.5f;
+
+    // What the last render depended on besides its lights, all compared exactly
+    private boolean valid;
+    private Material material;
+    private int materialRevision;
+    private BufferedImage sprite, dest;
+    private ShaderPipeline pipeline;
+    private Lightmap lightmap;
+    private ShadowCache shadows;
+    private int occluderRevision;
+    private int width, height, scale;
+    private boolean linear, batchLighting;
+    private int pad;
+
+    // Each light of the last render, with its key and its pixel bounds as x0, y0, x1, y1
+    private Light[] lights = new Light[0];
+    private long[] keys = new long[0];
+    private int[] bounds = new int[0];
+    private boolean[] bounded = new boolean[0];
+    private int lightCount;
+
+    // Regions to shade this frame, as x0, y0, x1, y1
+    private int[] regions = new int[4 * (maxRegions + 1)];
+    private int regionCount;
+
+    // Light term of the last render at reduced resolution, still valid outside the regions
+    float[] coarseLight;
+
+    private final Rect rect = new Rect();
+    private final int[] scratch = new int[4];
+
+    /**
+     * Work out the regions to shade for a render and remember its state for the next one
+     *
+     * @return Whether the whole image needs to be shaded
+     */
+    boolean update(Material material, Material.RenderContext context, BufferedImage dest, ShaderPipeline pipeline,
+                   int width, int height, int scale, boolean linear) {
+        // The material's revision covers its maps, so the diffuse pixels need no check of their own
+        int occluderRevision = context.shadows != null ? context.shadows.getOccluders().getRevision() : 0;
+
+        // Upsampled lighting spreads each sample up to two blocks away
+        pad = scale > 1 ? scale * 2 : 0;
+
+        boolean full = !valid || material != this.material || material.getRevision() != materialRevision
+            || width != this.width || height != this.height || scale != this.scale || linear != this.linear
+            || context.batchLighting != batchLighting || context.shadows != shadows || occluderRevision != this.occluderRevision
+            || context.sprite != sprite || dest != this.dest || pipeline != this.pipeline || context.lightmap != lightmap
+            || pipeline.getActiveCount() > 0;
+
+        this.material = material;
+        materialRevision = material.getRevision();
+        sprite = context.sprite;
+        this.dest = dest;
+        this.pipeline = pipeline;
+        lightmap = context.lightmap;
+        shadows = context.shadows;
+        this.occluderRevision = occluderRevision;
+        this.width = width;
+        this.height = height;
+        this.scale = scale;
+        this.linear = linear;
+        batchLighting = context.batchLighting;
+        valid = true;
+
+        regionCount = 0;
+        full |= !diffLights(context.lights);
+
+        if (full || getDirtyPixels() > (long)width * height * fullRedrawRatio) {
+            regionCount = 0;
+            pad = 0;
+            addRegion(0, 0, width, height);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Compare the lights against the last render, marking the bounds of every changed light dirty
+     *
+     * @return False if a light without bounds changed and everything is dirty
+     */
+    private boolean diffLights(List<Light> current) {
+        int n = current.size();
+        int oldCount = lightCount;
+        boolean bounded = true;
+
+        if (lights.length < n) {
+            lights = Arrays.copyOf(lights, n);
+            keys = Arrays.copyOf(keys, n);
+            bounds = Arrays.copyOf(bounds, n * 4);
+            this.bounded = Arrays.copyOf(this.bounded, n);
+        }
+
+        for (int i = 0; i < Math.max(n, oldCount); i++) {
+            Light light = i < n ? current.get(i) : null;
+            long key = light != null ? light.getBakeKey() : 0;
+            if (i < oldCount && light == lights[i] && key == keys[i]) {
+                continue;
+            }
+
+            // The old bounds lose this light's contribution
+            if (i < oldCount) {
+                if (!this.bounded[i]) {
+                    bounded = false;
+                } else {
+                    addRegion(bounds[i * 4], bounds[i * 4 + 1], bounds[i * 4 + 2], bounds[i * 4 + 3]);
+                }
+            }
+
+            // And the new bounds gain it
+            if (light != null) {
+                lights[i] = light;
+                keys[i] = key;
+                this.bounded[i] = light.getPixelBounds(width, height, rect, scratch);
+                System.arraycopy(scratch, 0, bounds, i * 4, 4);
+                if (!this.bounded[i]) {
+                    bounded = false;
+                } else {
+                    addRegion(scratch[0], scratch[1], scratch[2], scratch[3]);
+                }
+            }
+        }
+
+        for (int i = n; i < oldCount; i++) {
+            lights[i] = null;
+        }
+        lightCount = n;
+        return bounded;
+    }
+
+    /**
+     * Add a dirty region, merging it with any it overlaps or touches
+     */
+    private void addRegion(int x0, int y0, int x1, int y1) {
+        if (x0 >= x1 || y0 >= y1) {
+            return;
+        }
+        x0 = Math.max(0, x0 - pad);
+        y0 = Math.max(0, y0 - pad);
+        x1 = Math.min(width, x1 + pad);
+        y1 = Math.min(height, y1 + pad);
+
+        // Merging can make a region touch one it didn't before, so keep going until nothing merges
+        for (int i = 0; i < regionCount; i++) {
+            int[] r = regions;
+            if (x0 <= r[i * 4 + 2] && r[i * 4] <= x1 && y0 <= r[i * 4 + 3] && r[i * 4 + 1] <= y1) {
+                x0 = Math.min(x0, r[i * 4]);
+                y0 = Math.min(y0, r[i * 4 + 1]);
+                x1 = Math.max(x1, r[i * 4 + 2]);
+                y1 = Math.max(y1, r[i * 4 + 3]);
+
+                regionCount--;
+                System.arraycopy(r, regionCount * 4, r, i * 4, 4);
+                i = -1;
+            }
+        }
+
+        if (regionCount == maxRegions) {
+            for (int i = 0; i < regionCount; i++) {
+                x0 = Math.min(x0, regions[i * 4]);
+                y0 = Math.min(y0, regions[i * 4 + 1]);
+                x1 = Math.max(x1, regions[i * 4 + 2]);
+                y1 = Math.max(y1, regions[i * 4 + 3]);
+            }
+            regionCount = 0;
+        }
+
+        regions[regionCount * 4] = x0;
+        regions[regionCount * 4 + 1] = y0;
+        regions[regionCount * 4 + 2] = x1;
+        regions[regionCount * 4 + 3] = y1;
+        regionCount++;
+    }
+
+    /**
+     * Force a full render next time, e.g. after drawing into the sprite
+     */
+    public void invalidate() {
+        valid = false;
+    }
+
+    /** @return Number of regions shaded by the last render */
+    public int getRegionCount() { return regionCount; }
+
+    /** @return Regions shaded by the last render, as x0, y0, x1, y1 with exclusive ends */
+    public int[] getRegions() { return regions; }
+
+    /** @return Number of pixels shaded by the last render */
+    public long getDirtyPixels() {
+        long area = 0;
+        for (int i = 0; i < regionCount; i++) {
+            area += (long)(regions[i * 4 + 2] - regions[i * 4]) * (regions[i * 4 + 3] - regions[i * 4 + 1]);
+        }
+        return area;
+    }
+
+    public float getFullRedrawRatio() { return fullRedrawRatio; }
+
+    /**
+     * @param ratio Fraction of the image past which a full render is cheaper than shading the dirty regions
+     */
+    public void setFullRedrawRatio(float ratio) {
+        this.fullRedrawRatio = ratio;
+    }
+}
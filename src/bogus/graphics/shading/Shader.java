@@ -1,17 +1,54 @@
 package bogus.graphics.shading;
 
 import bogus.math.geom.Vec3;
+import bogus.struct.ObjectIntMap;
+import bogus.util.Reflect;
 import java.awt.Color;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
- * Abstract base class for all shaders
+ * Abstract base class for all shaders.
+ * 
+ * Uniforms read inside {@link #shade} should be declared once as typed slots,
+ * then read by index from primitive storage:
+ * <pre>
+ * private final int strength = declareFloat("strength", 1f);
+ * 
+ * public int shade(...) {
+ *     float s = getFloat(strength);
+ * }
+ * </pre>
+ * The String-keyed {@link #setUniform}/{@link #getUniform} still work for
+ * setup code and write through to declared slots.
  */
 public abstract class Shader {
+    // Bumped whenever any shader is enabled or disabled, so compiled pipelines know to rebuild
+    private static final AtomicInteger revision = new AtomicInteger();
+    
     // Uniform variables common to most shaders
     protected Map<String, Object> uniforms = new HashMap<>();
     
+    // Typed uniforms, laid out back to back; slots are offsets into these arrays
+    private final ObjectIntMap<String> floatSlots = new ObjectIntMap<>();
+    private final ObjectIntMap<String> intSlots = new ObjectIntMap<>();
+    private float[] floatUniforms = new float[0];
+    private int[] intUniforms = new int[0];
+    
+    // Class declaring the Color shade each shader class runs, looked up once per class
+    private static final ClassValue<Class<?>> shadeClassByClass = new ClassValue<Class<?>>() {
+        @Override
+        protected Class<?> computeValue(Class<?> type) {
+            return Reflect.declaringClass(type, "shade", Vec3.class, Vec3.class, Vec3.class, Color.class, Material.class);
+        }
+    };
+    
+    // Class declaring the Color shade this shader runs, so the built-in shaders can
+    // send their packed shade through a subclass's override
+    private final Class<?> shadeClass = shadeClassByClass.get(getClass());
+    
     // Shader attributes
     protected String name;
     protected boolean enabled = true;
@@ -28,7 +65,17 @@ public abstract class Shader {
      * @return This shader for chaining
      */
     public Shader setUniform(String name, Object value) {
-        uniforms.put(name, value);
+        int slot = floatSlots.get(name, -1);
+        if (slot >= 0 && value instanceof Number) {
+            floatUniforms[slot] = ((Number)value).floatValue();
+        } else if (slot >= 0 && value instanceof float[]) {
+            float[] values = (float[])value;
+            System.arraycopy(values, 0, floatUniforms, slot, Math.min(values.length, getFloatSize(slot)));
+        } else if ((slot = intSlots.get(name, -1)) >= 0 && value instanceof Number) {
+            intUniforms[slot] = ((Number)value).intValue();
+        } else {
+            uniforms.put(name, value);
+        }
         return this;
     }
     
@@ -41,10 +88,96 @@ public abstract class Shader {
      */
     @SuppressWarnings("unchecked")
     public <T> T getUniform(String name, T defaultValue) {
+        int slot = floatSlots.get(name, -1);
+        if (slot >= 0) {
+            int size = getFloatSize(slot);
+            return (T)(size == 1 ? (Object)floatUniforms[slot] : Arrays.copyOfRange(floatUniforms, slot, slot + size));
+        }
+        if ((slot = intSlots.get(name, -1)) >= 0) {
+            return (T)(Object)intUniforms[slot];
+        }
+        
         Object value = uniforms.get(name);
         return value != null ? (T)value : defaultValue;
     }
     
+    /**
+     * Declare a float uniform, or a vector of floats
+     * 
+     * @param name Uniform name, also usable with {@link #setUniform}
+     * @param initial Initial value of each component; the count sets the size
+     * @return Slot of the first component, for {@link #getFloat} and {@link #setFloat}
+     */
+    protected int declareFloat(String name, float... initial) {
+        if (floatSlots.containsKey(name) || intSlots.containsKey(name)) {
+            throw new IllegalArgumentException("Uniform '" + name + "' is already declared");
+        }
+        
+        int slot = floatUniforms.length;
+        floatUniforms = Arrays.copyOf(floatUniforms, slot + Math.max(1, initial.length));
+        System.arraycopy(initial, 0, floatUniforms, slot, initial.length);
+        floatSlots.put(name, slot);
+        return slot;
+    }
+    
+    /**
+     * Declare an int uniform
+     * 
+     * @param name Uniform name, also usable with {@link #setUniform}
+     * @param initial Initial value
+     * @return Slot for {@link #getInt} and {@link #setInt}
+     */
+    protected int declareInt(String name, int initial) {
+        if (floatSlots.containsKey(name) || intSlots.containsKey(name)) {
+            throw new IllegalArgumentException("Uniform '" + name + "' is already declared");
+        }
+        
+        int slot = intUniforms.length;
+        intUniforms = Arrays.copyOf(intUniforms, slot + 1);
+        intUniforms[slot] = initial;
+        intSlots.put(name, slot);
+        return slot;
+    }
+    
+    /**
+     * @return The slot of a declared float uniform, or -1 if there is none with this name
+     */
+    public int getFloatSlot(String name) {
+        return floatSlots.get(name, -1);
+    }
+    
+    /**
+     * @return The slot of a declared int uniform, or -1 if there is none with this name
+     */
+    public int getIntSlot(String name) {
+        return intSlots.get(name, -1);
+    }
+    
+    public float getFloat(int slot) { return floatUniforms[slot]; }
+    
+    public Shader setFloat(int slot, float value) {
+        floatUniforms[slot] = value;
+        return this;
+    }
+    
+    public int getInt(int slot) { return intUniforms[slot]; }
+    
+    public Shader setInt(int slot, int value) {
+        intUniforms[slot] = value;
+        return this;
+    }
+    
+    /**
+     * Number of components of the float uniform starting at a slot
+     */
+    private int getFloatSize(int slot) {
+        int next = floatUniforms.length;
+        for (ObjectIntMap.Entry<String> entry : floatSlots.entries()) {
+            if (entry.value > slot && entry.value < next) next = entry.value;
+        }
+        return next - slot;
+    }
+    
     /**
      * Apply the shader to a specific fragment (pixel)
      * 
@@ -57,12 +190,39 @@ public abstract class Shader {
      */
     public abstract Color shade(Vec3 position, Vec3 normal, Vec3 viewDir, Color baseColor, Material material);
     
+    /**
+     * Apply the shader to a specific fragment (pixel) without allocating.
+     * The built-in shaders implement this directly, unless a subclass overrides
+     * the {@link Color} variant; other shaders fall back to it.
+     * 
+     * @param position World position
+     * @param normal Surface normal
+     * @param viewDir View direction
+     * @param baseColor Base color at this position as packed 0xAARRGGBB
+     * @param material Material properties
+     * @return The shaded color as packed 0xAARRGGBB
+     */
+    public int shade(Vec3 position, Vec3 normal, Vec3 viewDir, int baseColor, Material material) {
+        return shade(position, normal, viewDir, new Color(baseColor, true), material).getRGB();
+    }
+    
+    /**
+     * Whether a subclass of a built-in shader overrides the {@link Color} variant
+     * of shade, which the built-in's packed shade must then go through
+     */
+    boolean overridesShade(Class<? extends Shader> type) {
+        return shadeClass != type;
+    }
+    
     /**
      * Enable or disable this shader
      * @return 
      */
     public Shader setEnabled(boolean enabled) {
-        this.enabled = enabled;
+        if (this.enabled != enabled) {
+            this.enabled = enabled;
+            revision.incrementAndGet();
+        }
         return this;
     }
     
@@ -73,6 +233,13 @@ public abstract class Shader {
         return enabled;
     }
     
+    /**
+     * Get the global enable/disable revision, compared by {@link ShaderManager#getPipeline()}
+     */
+    static int getRevision() {
+        return revision.get();
+    }
+    
     /**
      * Get shader name
      */
@@ -9,16 +9,21 @@ import java.util.Map;
 import bogus.math.geom.Vec3;
 
 /**
- * Manages shader instances and applies them in sequence
+ * Manages shader instances and applies them in sequence.
+ * Changes to the active stack publish a new immutable {@link ShaderPipeline},
+ * so the stack may be edited while other threads are rendering with it.
  */
 public class ShaderManager {
-    private static ShaderManager instance;
+    private static final ShaderManager instance = new ShaderManager();
     
     private Map<String, Shader> shaders = new HashMap<>();
     private List<Shader> activeShaders = new ArrayList<>();
+    
+    // Snapshot of the active stack; replaced, never modified
+    private volatile ShaderPipeline pipeline = new ShaderPipeline(new Shader[0], Shader.getRevision());
 
     public int getActiveShaderCount(){
-        return activeShaders.size();
+        return pipeline.getActiveCount();
     }
     
     // Private constructor for singleton
@@ -29,19 +34,46 @@ public class ShaderManager {
      * Get the singleton instance
      */
     public static ShaderManager getInstance() {
-        if (instance == null) {
-            instance = new ShaderManager();
-        }
         return instance;
     }
     
+    /**
+     * Freeze the active, enabled shaders into a new pipeline and publish it.
+     * This happens automatically when the active stack changes or a shader is
+     * enabled or disabled; call it directly after changing what a custom
+     * shader's {@link Shader#isEnabled()} returns by other means.
+     * 
+     * @return The new pipeline
+     */
+    public synchronized ShaderPipeline compile() {
+        // Read the revision first, so a concurrent change is seen by the next getPipeline
+        int revision = Shader.getRevision();
+        pipeline = new ShaderPipeline(activeShaders.toArray(new Shader[0]), revision);
+        return pipeline;
+    }
+    
+    /**
+     * Get the current pipeline, recompiling it if a shader was enabled or
+     * disabled since it was published. Renderers should fetch this once per
+     * frame and use it for every fragment.
+     * 
+     * @return The current pipeline
+     */
+    public ShaderPipeline getPipeline() {
+        ShaderPipeline current = pipeline;
+        if (current.revision != Shader.getRevision()) {
+            current = compile();
+        }
+        return current;
+    }
+    
     /**
      * Register a shader
      * 
      * @param shader The shader to register
      * @return This manager for chaining
      */
-    public ShaderManager registerShader(Shader shader) {
+    public synchronized ShaderManager registerShader(Shader shader) {
         shaders.put(shader.getName(), shader);
         return this;
     }
@@ -52,7 +84,7 @@ public class ShaderManager {
      * @param name The shader name
      * @return The shader or null if not found
      */
-    public Shader getShader(String name) {
+    public synchronized Shader getShader(String name) {
         return shaders.get(name);
     }
     
@@ -62,9 +94,10 @@ public class ShaderManager {
      * @param shader The shader to activate
      * @return This manager for chaining
      */
-    public ShaderManager addActiveShader(Shader shader) {
+    public synchronized ShaderManager addActiveShader(Shader shader) {
         if (!activeShaders.contains(shader)) {
             activeShaders.add(shader);
+            compile();
         }
         return this;
     }
@@ -75,8 +108,10 @@ public class ShaderManager {
      * @param shader The shader to deactivate
      * @return This manager for chaining
      */
-    public ShaderManager removeActiveShader(Shader shader) {
-        activeShaders.remove(shader);
+    public synchronized ShaderManager removeActiveShader(Shader shader) {
+        if (activeShaders.remove(shader)) {
+            compile();
+        }
         return this;
     }
     
@@ -85,8 +120,9 @@ public class ShaderManager {
      * 
      * @return This manager for chaining
      */
-    public ShaderManager clearActiveShaders() {
+    public synchronized ShaderManager clearActiveShaders() {
         activeShaders.clear();
+        compile();
         return this;
     }
     
@@ -101,16 +137,21 @@ public class ShaderManager {
      * @return The final shaded color
      */
     public Color applyShaders(Vec3 position, Vec3 normal, Vec3 viewDir, Color baseColor, Material material) {
-        Color currentColor = baseColor;
-        
-        // Apply each active shader in sequence
-        for (Shader shader : activeShaders) {
-            if (shader.isEnabled()) {
-                currentColor = shader.shade(position, normal, viewDir, currentColor, material);
-            }
-        }
-        
-        return currentColor;
+        return getPipeline().apply(position, normal, viewDir, baseColor, material);
+    }
+    
+    /**
+     * Apply all active shaders to the given fragment without allocating
+     * 
+     * @param position World position
+     * @param normal Surface normal
+     * @param viewDir View direction
+     * @param baseColor Base color at this position as packed 0xAARRGGBB
+     * @param material Material properties
+     * @return The final shaded color as packed 0xAARRGGBB
+     */
+    public int applyShaders(Vec3 position, Vec3 normal, Vec3 viewDir, int baseColor, Material material) {
+        return getPipeline().apply(position, normal, viewDir, baseColor, material);
     }
 
 
@@ -0,0 +1,112 @@
+package bogus.graphics.shading;
+
+import java.awt.Color;
+
+import bogus.math.geom.Vec3;
+
+/**
+ * An immutable snapshot of the active shader stack, compiled by
+ * {@link ShaderManager#compile()}. Only shaders that were enabled when the
+ * pipeline was compiled are kept, in a flat array, so applying the pipeline
+ * does not re-check anything per fragment. Pipelines are never modified after
+ * they are published, so any number of render threads may share one.
+ */
+public final class ShaderPipeline {
+    private final Shader[] shaders;
+    // Counter of each shader, or null when shading isn't instrumented
+    private final ShadingStats.Counter[] counters;
+    private final int activeCount;
+    final int revision;
+
+    ShaderPipeline(Shader[] active, int revision) {
+        int enabled = 0;
+        for (Shader shader : active) {
+            if (shader.isEnabled()) enabled++;
+        }
+
+        this.shaders = new Shader[enabled];
+        for (int i = 0, j = 0; i < active.length; i++) {
+            if (active[i].isEnabled()) shaders[j++] = active[i];
+        }
+        this.activeCount = active.length;
+        this.revision = revision;
+
+        if (ShadingStats.enabled) {
+            counters = new ShadingStats.Counter[enabled];
+            for (int i = 0; i < enabled; i++) {
+                counters[i] = ShadingStats.counter(shaders[i]);
+            }
+        } else {
+            counters = null;
+        }
+    }
+
+    /**
+     * Apply every shader in the pipeline to the given fragment
+     *
+     * @param position World position
+     * @param normal Surface normal
+     * @param viewDir View direction
+     * @param baseColor Base color at this position as packed 0xAARRGGBB
+     * @param material Material properties
+     * @return The final shaded color as packed 0xAARRGGBB
+     */
+    public int apply(Vec3 position, Vec3 normal, Vec3 viewDir, int baseColor, Material material) {
+        return apply(position, normal, viewDir, baseColor, material, null, false);
+    }
+
+    /**
+     * Apply every shader in the pipeline to the given fragment, counting each shader
+     *
+     * @param tally Counts of the shaders, from {@link #newTally()}, or null to count nothing
+     * @param timed Whether to time each shader on this fragment
+     */
+    int apply(Vec3 position, Vec3 normal, Vec3 viewDir, int baseColor, Material material,
+              ShadingStats.Tally tally, boolean timed) {
+        Shader[] shaders = this.shaders;
+        int currentColor = baseColor;
+        for (int i = 0; i < shaders.length; i++) {
+            if (ShadingStats.enabled && tally != null) {
+                long start = timed ? System.nanoTime() : 0;
+                currentColor = shaders[i].shade(position, normal, viewDir, currentColor, material);
+                tally.add(i, timed ? System.nanoTime() - start : 0, 1, timed);
+            } else {
+                currentColor = shaders[i].shade(position, normal, viewDir, currentColor, material);
+            }
+        }
+        return currentColor;
+    }
+
+    /**
+     * @return Empty counts of this pipeline's shaders for one thread, or null when shading isn't instrumented
+     */
+    ShadingStats.Tally newTally() {
+        return counters != null ? new ShadingStats.Tally(counters) : null;
+    }
+
+    /**
+     * Apply every shader in the pipeline to the given fragment
+     *
+     * @return The final shaded color
+     */
+    public Color apply(Vec3 position, Vec3 normal, Vec3 viewDir, Color baseColor, Material material) {
+        Shader[] shaders = this.shaders;
+        Color currentColor = baseColor;
+        for (int i = 0; i < shaders.length; i++) {
+            currentColor = shaders[i].shade(position, normal, viewDir, currentColor, material);
+        }
+        return currentColor;
+    }
+
+    /** @return Number of enabled shaders in the pipeline */
+    public int size() { return shaders.length; }
+
+    /** @return The shader at the given position in the pipeline */
+    public Shader get(int index) { return shaders[index]; }
+
+    /**
+     * @return Number of active shaders when compiled, including disabled ones. Any
+     * active shader replaces the built-in lighting model, even if it is disabled.
+     */
+    public int getActiveCount() { return activeCount; }
+}
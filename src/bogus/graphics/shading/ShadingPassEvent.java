@@ -0,0 +1,34 @@
+package bogus.graphics.shading;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * A lighting pass as recorded by JFR, committed when {@link ShadingStats} are enabled
+ */
+@Name("bogus.ShadingPass")
+@Label("Shading Pass")
+@Category({"Bogus", "Graphics"})
+@Description("One call of Material.processLightingWithShaders or TileRenderer.render")
+class ShadingPassEvent extends Event {
+    @Label("Width")
+    int width;
+
+    @Label("Height")
+    int height;
+
+    @Label("Pixels Shaded")
+    long pixels;
+
+    @Label("Lights Evaluated")
+    long lightsEvaluated;
+
+    @Label("Lights Culled")
+    long lightsCulled;
+
+    @Label("Shaders")
+    int shaders;
+}
@@ -0,0 +1,301 @@
+package bogus.graphics.shading;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Opt-in counters for finding what a frame's shading time goes to: how often
+ * and for how long each shader ran, how many pixels each light lit, and how
+ * many light evaluations the light culler saved.
+ *
+ * Instrumentation is switched on for the whole run with
+ * {@code -Dbogus.shading.stats=true}. The flag is read once into a static final,
+ * so with it off every check folds away and shading runs as if uninstrumented.
+ * With it on, every lighting pass is also committed as a {@code bogus.ShadingPass}
+ * JFR event when a flight recording is running.
+ *
+ * Every call and pixel is counted, but reading the clock costs about as much
+ * as lighting a pixel, so only part of the work is timed: lights over batches
+ * of at least {@link #timedBatch} pixels, and shaders at one fragment in
+ * {@link #shaderSampling}. Lights lit a pixel at a time, with batching off or at
+ * reduced resolution, are mostly untimed; their time still shows in the pass
+ * totals, which are timed a region at a time. Each {@link Entry} records how many
+ * pixels its time covers, so nanos / timedPixels estimates its cost per pixel.
+ *
+ * Lighting passes, {@link DeferredRenderer} light passes and {@link Lightmap}
+ * bakes count towards each light; only lighting passes count towards the pass totals.
+ */
+public final class ShadingStats {
+    /** Whether shading is instrumented, from the bogus.shading.stats system property */
+    public static final boolean enabled = Boolean.getBoolean("bogus.shading.stats");
+
+    /** Fewest pixels a batch must have for a light's time over it to be measured */
+    public static final int timedBatch = 64;
+
+    /** Shaders are timed at one fragment in this many, a power of two */
+    public static final int shaderSampling = 64;
+
+    // Whether passes are reported to JFR, which some runtimes leave out
+    static final boolean jfr = enabled && hasJfr();
+
+    private static final LongAdder passes = new LongAdder();
+    private static final LongAdder passNanos = new LongAdder();
+    private static final LongAdder pixels = new LongAdder();
+    private static final LongAdder lightsEvaluated = new LongAdder();
+    private static final LongAdder lightsCulled = new LongAdder();
+
+    // Counters of each shader and light seen, dropped with them
+    private static final Map<Object, Counter> counters = Collections.synchronizedMap(new WeakHashMap<>());
+
+    private ShadingStats() {
+    }
+
+    private static boolean hasJfr() {
+        try {
+            Class.forName("jdk.jfr.Event");
+            return true;
+        } catch (ClassNotFoundException | LinkageError e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return The counter of a shader or light, created on first use
+     */
+    static Counter counter(Object source) {
+        synchronized (counters) {
+            Counter counter = counters.get(source);
+            if (counter == null) {
+                counter = new Counter();
+                counters.put(source, counter);
+            }
+            return counter;
+        }
+    }
+
+    /**
+     * Add the totals of a finished lighting pass
+     */
+    static void addPass(long nanos, long pixelCount, long evaluated, long culled) {
+        passes.increment();
+        passNanos.add(nanos);
+        pixels.add(pixelCount);
+        lightsEvaluated.add(evaluated);
+        lightsCulled.add(culled);
+    }
+
+    /**
+     * @return Everything counted since the start or the last {@link #reset()}
+     */
+    public static Snapshot snapshot() {
+        List<Entry> shaders = new ArrayList<>();
+        List<Entry> lights = new ArrayList<>();
+        synchronized (counters) {
+            for (Map.Entry<Object, Counter> e : counters.entrySet()) {
+                Object source = e.getKey();
+                Counter c = e.getValue();
+                if (c.invocations.sum() == 0) continue;
+                Entry entry = new Entry(source, c.invocations.sum(), c.nanos.sum(), c.pixels.sum(), c.timedPixels.sum());
+                (source instanceof Shader ? shaders : lights).add(entry);
+            }
+        }
+        shaders.sort((a, b) -> Long.compare(b.nanos, a.nanos));
+        lights.sort((a, b) -> Long.compare(b.nanos, a.nanos));
+
+        return new Snapshot(passes.sum(), passNanos.sum(), pixels.sum(), lightsEvaluated.sum(), lightsCulled.sum(),
+            Collections.unmodifiableList(shaders), Collections.unmodifiableList(lights));
+    }
+
+    /**
+     * Clear every counter, e.g. at the start of a frame
+     */
+    public static void reset() {
+        passes.reset();
+        passNanos.reset();
+        pixels.reset();
+        lightsEvaluated.reset();
+        lightsCulled.reset();
+        synchronized (counters) {
+            for (Counter counter : counters.values()) {
+                counter.invocations.reset();
+                counter.nanos.reset();
+                counter.pixels.reset();
+                counter.timedPixels.reset();
+            }
+        }
+    }
+
+    /**
+     * Totals of one lighting pass, added to by every region as it finishes
+     */
+    static final class Pass {
+        final LongAdder nanos = new LongAdder();
+        final LongAdder pixels = new LongAdder();
+        final LongAdder evaluated = new LongAdder();
+        final LongAdder culled = new LongAdder();
+
+        // Started with the pass so JFR times it from construction to finish
+        private final ShadingPassEvent event = jfr ? new ShadingPassEvent() : null;
+
+        Pass() {
+            if (event != null) event.begin();
+        }
+
+        void addRegion(long nanos, long pixels, long evaluated, long culled) {
+            this.nanos.add(nanos);
+            this.pixels.add(pixels);
+            this.evaluated.add(evaluated);
+            this.culled.add(culled);
+        }
+
+        void finish(int width, int height, int shaders) {
+            addPass(nanos.sum(), pixels.sum(), evaluated.sum(), culled.sum());
+            if (event != null && event.shouldCommit()) {
+                event.width = width;
+                event.height = height;
+                event.pixels = pixels.sum();
+                event.lightsEvaluated = evaluated.sum();
+                event.lightsCulled = culled.sum();
+                event.shaders = shaders;
+                event.commit();
+            }
+        }
+    }
+
+    static final class Counter {
+        final LongAdder invocations = new LongAdder();
+        final LongAdder nanos = new LongAdder();
+        final LongAdder pixels = new LongAdder();
+        final LongAdder timedPixels = new LongAdder();
+
+        void add(long invocations, long nanos, long pixels, long timedPixels) {
+            this.invocations.add(invocations);
+            this.nanos.add(nanos);
+            this.pixels.add(pixels);
+            this.timedPixels.add(timedPixels);
+        }
+    }
+
+    /**
+     * Counts of a run of work for each of a set of shaders or lights, kept in plain
+     * arrays by one thread and added to their counters once the run is done
+     */
+    static final class Tally {
+        private final Counter[] counters;
+        private final long[] invocations, nanos, pixels, timedPixels;
+
+        Tally(Counter[] counters) {
+            this.counters = counters;
+            invocations = new long[counters.length];
+            nanos = new long[counters.length];
+            pixels = new long[counters.length];
+            timedPixels = new long[counters.length];
+        }
+
+        /**
+         * @param source Index of the shader or light in the counters
+         * @param timed Whether nanos were measured over the pixels
+         */
+        void add(int source, long nanos, long pixels, boolean timed) {
+            invocations[source]++;
+            this.nanos[source] += nanos;
+            this.pixels[source] += pixels;
+            if (timed) timedPixels[source] += pixels;
+        }
+
+        /**
+         * Add everything counted to the counters and start over
+         */
+        void flush() {
+            for (int i = 0; i < counters.length; i++) {
+                if (invocations[i] == 0) continue;
+                counters[i].add(invocations[i], nanos[i], pixels[i], timedPixels[i]);
+                invocations[i] = nanos[i] = pixels[i] = timedPixels[i] = 0;
+            }
+        }
+    }
+
+    /**
+     * Counts of one shader or light
+     */
+    public static final class Entry {
+        /** The shader or light counted */
+        public final Object source;
+        /** Calls: one per pixel for a shader, one per batch of pixels for a light */
+        public final long invocations;
+        /** Time measured over {@link #timedPixels} of the pixels */
+        public final long nanos;
+        /** Pixels shaded */
+        public final long pixels;
+        /** Pixels the time was measured over */
+        public final long timedPixels;
+
+        Entry(Object source, long invocations, long nanos, long pixels, long timedPixels) {
+            this.source = source;
+            this.invocations = invocations;
+            this.nanos = nanos;
+            this.pixels = pixels;
+            this.timedPixels = timedPixels;
+        }
+
+        /** @return Estimated time per pixel, or 0 if none of the pixels were timed */
+        public double getNanosPerPixel() {
+            return timedPixels > 0 ? (double)nanos / timedPixels : 0;
+        }
+
+        /** @return The shader's name, or the light's class and identity */
+        public String getName() {
+            return source instanceof Shader ? ((Shader)source).getName()
+                : source.getClass().getSimpleName() + "@" + Integer.toHexString(System.identityHashCode(source));
+        }
+
+        @Override
+        public String toString() {
+            return getName() + ": " + invocations + " calls, " + pixels + " pixels, " + nanos / 1000 + "us over "
+                + timedPixels + " timed pixels";
+        }
+    }
+
+    /**
+     * Counters at one point in time, with shaders and lights sorted from the most measured time to the least
+     */
+    public static final class Snapshot {
+        /** Lighting passes finished */
+        public final long passes;
+        /** Time spent shading pass regions, summed over threads */
+        public final long nanos;
+        public final long pixels;
+        /** Light evaluations, one per light per lit pixel */
+        public final long lightsEvaluated;
+        /** Light evaluations the light culler skipped */
+        public final long lightsCulled;
+        public final List<Entry> shaders;
+        public final List<Entry> lights;
+
+        Snapshot(long passes, long nanos, long pixels, long lightsEvaluated, long lightsCulled,
+                 List<Entry> shaders, List<Entry> lights) {
+            this.passes = passes;
+            this.nanos = nanos;
+            this.pixels = pixels;
+            this.lightsEvaluated = lightsEvaluated;
+            this.lightsCulled = lightsCulled;
+            this.shaders = shaders;
+            this.lights = lights;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder();
+            builder.append(passes).append(" passes, ").append(pixels).append(" pixels, ")
+                .append(nanos / 1000).append("us, lights evaluated ").append(lightsEvaluated)
+                .append(", culled ").append(lightsCulled);
+            for (Entry entry : shaders) builder.append("\n  shader ").append(entry);
+            for (Entry entry : lights) builder.append("\n  light ").append(entry);
+            return builder.toString();
+        }
+    }
+}
@@ -0,0 +1,248 @@
+package bogus.graphics.shading;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import bogus.math.geom.Rect;
+import bogus.math.geom.Vec3;
+import bogus.struct.Bits;
+
+/**
+ * Per-light visibility maps over an {@link OcclusionGrid}. A pixel is visible
+ * to a light when the digital line from the light to it crosses no blocking pixel;
+ * the pixel itself may block, so the faces of occluders are lit. Only lights with
+ * {@link Light#getCastsShadows()} set and a {@link Light#getShadowOrigin(Vec3) position} cast shadows.
+ *
+ * Maps are swept outward from the light a column at a time, or a row at a time
+ * above and below it, keeping the slopes of the lines the blocking pixels passed
+ * so far cut off. A map costs a slope test per pixel in the light's bounds rather
+ * than a line walked per pixel. Each light's map is kept until the light moves to
+ * another pixel, its bounds change, or the occluders change. Lights are held
+ * weakly, so dropped lights free their maps.
+ */
+public class ShadowCache {
+    private final OcclusionGrid occluders;
+    private final Map<Light, Entry> entries = new WeakHashMap<>();
+    private int computeCount;
+
+    private final Vec3 origin = new Vec3();
+    private final Rect rect = new Rect();
+    private final int[] bounds = new int[4];
+
+    // Slopes cut off by the blockers swept so far
+    private final Slopes shadowed = new Slopes();
+
+    public ShadowCache(OcclusionGrid occluders) {
+        this.occluders = occluders;
+    }
+
+    public OcclusionGrid getOccluders() { return occluders; }
+
+    /**
+     * Get a light's visibility map, recomputing it if it is stale
+     *
+     * @return Bits set at every visible pixel, indexed by x + y * width of the grid,
+     * or null if the light doesn't cast shadows
+     */
+    public Bits getVisibility(Light light) {
+        if (!light.getCastsShadows() || !light.getShadowOrigin(origin)) {
+            return null;
+        }
+
+        int width = occluders.getWidth(), height = occluders.getHeight();
+        int ox = (int)Math.floor(origin.x), oy = (int)Math.floor(origin.y);
+        if (!light.getPixelBounds(width, height, rect, bounds)) {
+            bounds[0] = bounds[1] = 0;
+            bounds[2] = width;
+            bounds[3] = height;
+        }
+
+        Entry entry = entries.get(light);
+        if (entry != null && entry.originX == ox && entry.originY == oy && entry.revision == occluders.getRevision()
+            && entry.x0 == bounds[0] && entry.y0 == bounds[1] && entry.x1 == bounds[2] && entry.y1 == bounds[3]) {
+            return entry.visible;
+        }
+
+        if (entry == null) {
+            entry = new Entry(width * height);
+            entries.put(light, entry);
+        }
+        compute(entry, ox, oy);
+        return entry.visible;
+    }
+
+    /**
+     * @return Whether a light reaches a pixel unblocked; lights that don't cast shadows reach every pixel
+     */
+    public boolean isVisible(Light light, int x, int y) {
+        Bits visible = getVisibility(light);
+        return visible == null || visible.get(x + y * occluders.getWidth());
+    }
+
+    private void compute(Entry entry, int ox, int oy) {
+        int width = occluders.getWidth();
+        entry.visible.clear();
+        entry.originX = ox;
+        entry.originY = oy;
+        entry.revision = occluders.getRevision();
+        entry.x0 = bounds[0];
+        entry.y0 = bounds[1];
+        entry.x1 = bounds[2];
+        entry.y1 = bounds[3];
+
+        // Pixels outside the bounds get no light anyway and stay clear
+        if (entry.x0 < entry.x1 && entry.y0 < entry.y1) {
+            if (ox >= entry.x0 && ox < entry.x1 && oy >= entry.y0 && oy < entry.y1) {
+                entry.visible.set(ox + oy * width);
+            }
+            for (int direction = -1; direction <= 1; direction += 2) {
+                sweep(entry, ox, oy, direction, true);
+                sweep(entry, ox, oy, direction, false);
+            }
+        }
+        computeCount++;
+    }
+
+    /**
+     * Sweep the pixels on one side of the light whose lines are longer along one axis,
+     * a column or row at a time. A line takes one pixel per step along its longer axis,
+     * rounded to the nearest pixel along the other, so it crosses the pixel k across at
+     * step s exactly when its slope is in [(2k - 1) / 2s, (2k + 1) / 2s).
+     *
+     * @param direction Side of the light to sweep along the longer axis, 1 or -1
+     * @param columns Whether to sweep the lines at least as long in x as in y, a column at a time,
+     * rather than the lines longer in y, a row at a time
+     */
+    private void sweep(Entry entry, int ox, int oy, int direction, boolean columns) {
+        int width = occluders.getWidth();
+        int origin = columns ? ox : oy, originAcross = columns ? oy : ox;
+        int from = columns ? entry.x0 : entry.y0, to = columns ? entry.x1 : entry.y1;
+        int acrossFrom = columns ? entry.y0 : entry.x0, acrossTo = columns ? entry.y1 : entry.x1;
+        int size = columns ? width : occluders.getHeight(), acrossSize = columns ? occluders.getHeight() : width;
+
+        // Lines longer in y leave the diagonals to the columns
+        int spread = columns ? 0 : -1;
+        shadowed.clear();
+
+        for (int step = 1; ; step++) {
+            int line = origin + direction * step;
+            if (direction > 0 ? line >= to : line < from) break;
+
+            // Pixels of the bounds on this line, in the order of their slopes
+            if (direction > 0 ? line >= from : line < to) {
+                int first = Math.max(acrossFrom, originAcross - step - spread);
+                int last = Math.min(acrossTo - 1, originAcross + step + spread);
+                for (int across = first, i = 0; across <= last; across++) {
+                    i = shadowed.find(across - originAcross, step, i);
+                    if (!shadowed.contains(i, across - originAcross, step)) {
+                        entry.visible.set(columns ? line + across * width : across + line * width);
+                    }
+                }
+            }
+
+            // Blocking pixels on this line cut off lines further out, which stay between the light and the bounds
+            if (line >= 0 && line < size) {
+                int first = Math.max(Math.max(0, originAcross - step), Math.min(originAcross, acrossFrom));
+                int last = Math.min(Math.min(acrossSize - 1, originAcross + step), Math.max(originAcross, acrossTo - 1));
+                for (int across = first; across <= last; across++) {
+                    if (!(columns ? occluders.isSolid(line, across) : occluders.isSolid(across, line))) continue;
+                    int run = across;
+                    while (across < last && (columns ? occluders.isSolid(line, across + 1) : occluders.isSolid(across + 1, line))) {
+                        across++;
+                    }
+                    shadowed.add(2L * (run - originAcross) - 1, 2L * (across - originAcross) + 1, 2L * step);
+                }
+            }
+        }
+    }
+
+    /**
+     * Drop every cached map, e.g. after editing the grid's bits some other way
+     */
+    public void invalidate() {
+        entries.clear();
+    }
+
+    /** @return Number of visibility maps computed so far */
+    public int getComputeCount() { return computeCount; }
+
+    /**
+     * Disjoint, sorted ranges of slopes [start, end), each a fraction over a positive denominator
+     */
+    private static class Slopes {
+        private long[] startNum = new long[16], startDen = new long[16];
+        private long[] endNum = new long[16], endDen = new long[16];
+        private int count;
+
+        void clear() {
+            count = 0;
+        }
+
+        /**
+         * @return Index of the first range from a starting index that doesn't end at or before a slope
+         */
+        int find(long num, long den, int from) {
+            while (from < count && endNum[from] * den <= num * endDen[from]) from++;
+            return from;
+        }
+
+        /** @return Whether the range at an index from {@link #find} contains a slope */
+        boolean contains(int index, long num, long den) {
+            return index < count && startNum[index] * den <= num * startDen[index];
+        }
+
+        /**
+         * Add the slopes [startNum / den, endNum / den), merging it with the ranges it overlaps or touches
+         */
+        void add(long startNum, long endNum, long den) {
+            // The ranges from first until last overlap or touch the new one
+            int first = 0;
+            while (first < count && this.endNum[first] * den < startNum * endDen[first]) first++;
+            int last = first;
+            long sNum = startNum, sDen = den, eNum = endNum, eDen = den;
+            while (last < count && this.startNum[last] * den <= endNum * startDen[last]) {
+                if (this.startNum[last] * sDen < sNum * startDen[last]) {
+                    sNum = this.startNum[last];
+                    sDen = startDen[last];
+                }
+                if (this.endNum[last] * eDen > eNum * endDen[last]) {
+                    eNum = this.endNum[last];
+                    eDen = endDen[last];
+                }
+                last++;
+            }
+
+            // Replace them with the merged range
+            int shift = 1 - (last - first);
+            if (count + shift > this.startNum.length) {
+                int capacity = (count + shift) * 2;
+                this.startNum = Arrays.copyOf(this.startNum, capacity);
+                startDen = Arrays.copyOf(startDen, capacity);
+                this.endNum = Arrays.copyOf(this.endNum, capacity);
+                endDen = Arrays.copyOf(endDen, capacity);
+            }
+            if (shift != 0) {
+                System.arraycopy(this.startNum, last, this.startNum, last + shift, count - last);
+                System.arraycopy(startDen, last, startDen, last + shift, count - last);
+                System.arraycopy(this.endNum, last, this.endNum, last + shift, count - last);
+                System.arraycopy(endDen, last, endDen, last + shift, count - last);
+            }
+            this.startNum[first] = sNum;
+            startDen[first] = sDen;
+            this.endNum[first] = eNum;
+            endDen[first] = eDen;
+            count += shift;
+        }
+    }
+
+    private static class Entry {
+        final Bits visible;
+        int originX, originY, revision;
+        int x0, y0, x1, y1;
+
+        Entry(int size) {
+            visible = new Bits(size);
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package bogus.graphics.shading;
+
+/**
+ * A lookup table for {@code pow(x, exponent)} over [0, 1], linearly interpolated.
+ * The table is made just large enough that no lookup is further than the
+ * requested tolerance from {@link Math#pow}, the error between each pair of
+ * entries being worked out exactly rather than sampled. Exponents that would
+ * need more than {@link #maxSize} entries are computed with Math.pow instead.
+ */
+public class SpecularTable {
+    /**
+     * Tables are never larger than this, 16KB of floats, so a table stays in cache next to the
+     * pixels being lit. Exponents up to 100 meet tolerances down to about 1/4096 within it.
+     */
+    public static final int maxSize = 1 << 12;
+
+    public final float exponent;
+    public final float tolerance;
+
+    // Null when the tolerance can't be met and lookups use Math.pow
+    private final float[] values;
+    private final float scale;
+
+    private SpecularTable(float exponent, float tolerance, int size) {
+        this.exponent = exponent;
+        this.tolerance = tolerance;
+        this.scale = size - 1;
+
+        if (size == 0) {
+            values = null;
+            return;
+        }
+
+        // One extra entry so interpolating at x = 1 stays in bounds
+        values = new float[size + 1];
+        for (int i = 0; i < size; i++) {
+            values[i] = (float)Math.pow(i / scale, exponent);
+        }
+        values[size] = values[size - 1];
+    }
+
+    /**
+     * Build a table for an exponent
+     *
+     * @param exponent The specular exponent
+     * @param tolerance Largest allowed absolute error of a lookup
+     * @return The smallest table meeting the tolerance
+     */
+    public static SpecularTable create(float exponent, float tolerance) {
+        for (int size = 64; size <= maxSize; size *= 2) {
+            SpecularTable table = new SpecularTable(exponent, tolerance, size);
+            if (table.maxError() <= tolerance) {
+                return table;
+            }
+        }
+        return new SpecularTable(exponent, tolerance, 0);
+    }
+
+    /** @return Whether lookups are interpolated rather than computed with Math.pow */
+    public boolean isTabulated() {
+        return values != null;
+    }
+
+    /**
+     * @param x Base in [0, 1]; values outside are clamped
+     * @return Approximately {@code pow(x, exponent)}
+     */
+    public float get(float x) {
+        if (values == null) {
+            return (float)Math.pow(Math.max(0, Math.min(1, x)), exponent);
+        }
+
+        float f = Math.max(0, Math.min(1, x)) * scale;
+        int i = (int)f;
+        float a = values[i];
+        return a + (values[i + 1] - a) * (f - i);
+    }
+
+    /**
+     * The largest error of a lookup anywhere in [0, 1]. Between two entries the error is the
+     * line through them less {@code pow(x, exponent)}, which is convex or concave, so it peaks
+     * at the ends or where the curve's slope matches the line's, and is measured there.
+     * Float rounding of the lookup is added on top: of the position in the table, which moves
+     * along the steepest line, and of the interpolated result.
+     */
+    private float maxError() {
+        double p = exponent;
+        double max = 0, steepest = 0;
+        for (int i = 0; i < scale; i++) {
+            double a = i / (double)scale, b = (i + 1) / (double)scale;
+            double va = values[i], slope = (values[i + 1] - va) * scale;
+            steepest = Math.max(steepest, Math.abs(slope));
+            max = Math.max(max, Math.abs(va - Math.pow(a, p)));
+            max = Math.max(max, Math.abs(values[i + 1] - Math.pow(b, p)));
+            if (p != 0 && p != 1) {
+                // Where p * x^(p - 1) equals the slope
+                double x = Math.pow(slope / p, 1 / (p - 1));
+                if (x > a && x < b) {
+                    max = Math.max(max, Math.abs(va + slope * (x - a) - Math.pow(x, p)));
+                }
+            }
+        }
+        return (float)(max + steepest * Math.ulp(scale) / scale + 4 * Math.ulp(1f));
+    }
+}
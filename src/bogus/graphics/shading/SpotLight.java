@@ -2,7 +2,9 @@ package bogus.graphics.shading;
 
 import java.awt.Color;
 
+import bogus.math.geom.Rect;
 import bogus.math.geom.Vec3;
+import bogus.struct.Bits;
 
 /**
  * A spotlight that emits a cone of light in a specific direction
@@ -39,22 +41,68 @@ public class SpotLight extends Light {
         this.outerConeAngle = Math.max(innerConeAngle, angle);
     }
     
+    @Override
+    public long getBakeKey() {
+        long key = mix(mix(super.getBakeKey(), position), direction);
+        key = mix(key, range);
+        key = mix(key, innerConeAngle);
+        key = mix(key, outerConeAngle);
+        key = mix(key, falloffLinear);
+        return mix(key, falloffQuadratic);
+    }
+    
+    @Override
+    public boolean getBounds(Rect out) {
+        return getRangeBounds(position, range, out);
+    }
+    
+    @Override
+    public boolean getShadowOrigin(Vec3 out) {
+        out.set(position);
+        return true;
+    }
+    
     @Override
     public Color calculateLightingAt(Vec3 position, Vec3 normal, Vec3 viewDir, Material material) {
+        return new Color(light(position, normal, viewDir, material, 1f));
+    }
+    
+    @Override
+    public int calculateLightingRGB(Vec3 position, Vec3 normal, Vec3 viewDir, Material material) {
+        if (overridesLightingAt(SpotLight.class)) {
+            return super.calculateLightingRGB(position, normal, viewDir, material);
+        }
+        return light(position, normal, viewDir, material, 1f);
+    }
+    
+    @Override
+    public int calculateLightingRGB(Vec3 position, Vec3 normal, Vec3 viewDir, Material material, float specular) {
+        if (overridesLighting(SpotLight.class)) {
+            return calculateLightingRGB(position, normal, viewDir, material);
+        }
+        return light(position, normal, viewDir, material, specular);
+    }
+    
+    private int light(Vec3 position, Vec3 normal, Vec3 viewDir, Material material, float specular) {
         // Calculate direction from the surface point to the light
-        Vec3 toLight = this.position.subtract(position);
-        float distance = toLight.length();
+        float toX = this.position.x - position.x;
+        float toY = this.position.y - position.y;
+        float toZ = this.position.z - position.z;
+        float distance = (float)Math.sqrt(toX * toX + toY * toY + toZ * toZ);
         
         // If beyond range, no light contribution
         if (distance > range) {
-            return new Color(0, 0, 0);
+            return 0xFF000000;
         }
         
         // Normalize direction
-        Vec3 lightDir = toLight.multiply(1.0f / distance);
+        float invDistance = 1.0f / distance;
+        float lx = toX * invDistance;
+        float ly = toY * invDistance;
+        float lz = toZ * invDistance;
         
         // Calculate spot effect
-        float cosAngle = -lightDir.dot(direction); // Negative because lightDir points toward the light
+        float cosAngle = -(lx * direction.x + ly * direction.y + lz * direction.z); // Negative because lightDir points toward the light
         
         // Convert cone angles to cosine space for easy comparison
         float cosInner = (float)Math.cos(Math.toRadians(innerConeAngle));
@@ -62,7 +110,7 @@ public class SpotLight extends Light {
         
         // Check if the point is outside the spotlight cone
         if (cosAngle < cosOuter) {
-            return new Color(0, 0, 0);
+            return 0xFF000000;
         }
         
         // Calculate spotlight intensity factor (smooth transition between inner and outer cones)
@@ -77,6 +125,45 @@ public class SpotLight extends Light {
         // Apply spotlight factor to attenuation
         attenuation *= spotFactor;
         
-        return calculatePhongLighting(position, normal, viewDir, lightDir, material, attenuation);
+        return phong(position, normal, viewDir, lx, ly, lz, material, attenuation, specular);
+    }
+    
+    @Override
+    void accumulate(LightBatch batch, Material material, float[] levels, Bits visible) {
+        if (!calculatesLike(SpotLight.class)) {
+            super.accumulate(batch, material, levels, visible);
+            return;
+        }
+        
+        float cosInner = (float)Math.cos(Math.toRadians(innerConeAngle));
+        float cosOuter = (float)Math.cos(Math.toRadians(outerConeAngle));
+        // With no cone between them, nothing fades in
+        boolean fades = cosInner > cosOuter;
+        float span = cosInner - cosOuter;
+        
+        float positionX = position.x, positionY = position.y, positionZ = position.z;
+        float directionX = direction.x, directionY = direction.y, directionZ = direction.z;
+        float range = this.range, falloffLinear = this.falloffLinear, falloffQuadratic = this.falloffQuadratic;
+        float[] x = batch.x, y = batch.y;
+        float[] lightX = batch.lightX, lightY = batch.lightY, lightZ = batch.lightZ, attenuation = batch.attenuation;
+        for (int i = 0; i < batch.count; i++) {
+            float toX = positionX - x[i];
+            float toY = positionY - y[i];
+            float toZ = positionZ - 0;
+            float distance = (float)Math.sqrt(toX * toX + toY * toY + toZ * toZ);
+            float invDistance = 1.0f / distance;
+            float lx = toX * invDistance;
+            float ly = toY * invDistance;
+            float lz = toZ * invDistance;
+            float cosAngle = -(lx * directionX + ly * directionY + lz * directionZ);
+            float spotFactor = fades ? Math.min(1.0f, (cosAngle - cosOuter) / span) : 1.0f;
+            
+            float falloff = 1.0f / (1.0f + falloffLinear * distance + falloffQuadratic * distance * distance);
+            lightX[i] = lx;
+            lightY[i] = ly;
+            lightZ[i] = lz;
+            attenuation[i] = atLeastZero(range - distance) * atLeastZero(cosAngle - cosOuter) * (falloff * spotFactor);
+        }
+        accumulatePhong(batch, material, levels, visible);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,314 @@
+package bogus.graphics.shading;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import bogus.util.Disposable;
+
+/**
+ * Renders lighting in square tiles, optionally spread over a {@link ForkJoinPool}.
+ * Every pixel is shaded independently of its neighbours, so the output is
+ * identical to {@link Material#processLightingWithShaders} for any parallelism
+ * or tile size.
+ *
+ * Each pass keeps its area to itself, so several threads may render through one
+ * renderer at once, with one context or several, as long as no context they share
+ * holds per-render state; see {@link Material.RenderContext}. The tile stats are those
+ * of whichever pass finished last.
+ */
+public class TileRenderer implements Disposable {
+    /** 64x64 ARGB pixels is 16KB, which keeps a tile's input and output in cache */
+    public static final int defaultTileSize = 64;
+
+    private int parallelism;
+    private int tileSize;
+    private ForkJoinPool pool;
+
+    // The last pass to finish, kept for its timings
+    private volatile Pass lastPass = new Pass();
+
+    /**
+     * Creates a renderer using one thread per available processor
+     */
+    public TileRenderer() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    public TileRenderer(int parallelism) {
+        this(parallelism, defaultTileSize);
+    }
+
+    public TileRenderer(int parallelism, int tileSize) {
+        setParallelism(parallelism);
+        setTileSize(tileSize);
+    }
+
+    public int getParallelism() { return parallelism; }
+
+    /**
+     * Set the number of worker threads. A parallelism of 1 renders every tile
+     * on the calling thread without a pool.
+     *
+     * @param parallelism Number of threads
+     * @return This renderer for chaining
+     */
+    public TileRenderer setParallelism(int parallelism) {
+        parallelism = Math.max(1, parallelism);
+        if (parallelism != this.parallelism) {
+            if (pool != null) {
+                pool.shutdown();
+            }
+            pool = parallelism > 1 ? new ForkJoinPool(parallelism) : null;
+            this.parallelism = parallelism;
+        }
+        return this;
+    }
+
+    public int getTileSize() { return tileSize; }
+
+    /**
+     * Set the width and height of a tile in pixels
+     *
+     * @param tileSize Tile size, at least 8
+     * @return This renderer for chaining
+     */
+    public TileRenderer setTileSize(int tileSize) {
+        this.tileSize = Math.max(8, tileSize);
+        return this;
+    }
+
+    /**
+     * Render lighting for a material. Equivalent to
+     * {@link Material#processLightingWithShaders(Material, Material.RenderContext)}.
+     */
+    public BufferedImage render(Material material, Material.RenderContext context) {
+        BufferedImage lightBuffer = new BufferedImage(
+            LightingPass.width(context), LightingPass.height(context), BufferedImage.TYPE_INT_ARGB);
+
+        return render(material, context, lightBuffer);
+    }
+
+    /**
+     * Render lighting for a material into an existing image. Equivalent to
+     * {@link Material#processLightingWithShaders(Material, Material.RenderContext, BufferedImage)}.
+     */
+    public BufferedImage render(Material material, Material.RenderContext context, BufferedImage dest) {
+        LightingPass pass = new LightingPass(material, context, dest);
+        if (pass.scale > 1) {
+            int[] blocks = pass.getCoarseRegions();
+            for (int i = 0; i < pass.getCoarseRegionCount(); i++) {
+                int x = blocks[i * 4], y = blocks[i * 4 + 1];
+                forEachTile(x, y, blocks[i * 4 + 2] - x, blocks[i * 4 + 3] - y, pass::shadeCoarse);
+            }
+        }
+
+        int[] regions = pass.getRegions();
+        for (int i = 0; i < pass.getRegionCount(); i++) {
+            int x = regions[i * 4], y = regions[i * 4 + 1];
+            forEachTile(x, y, regions[i * 4 + 2] - x, regions[i * 4 + 3] - y, pass::shade);
+        }
+        pass.finish();
+        return dest;
+    }
+
+    /**
+     * Run a task over every tile of a width x height area and wait for all of them to finish.
+     * Tiles are disjoint, so the task may write to its own region of a shared buffer.
+     *
+     * @param width Width of the area
+     * @param height Height of the area
+     * @param task Task to run for each tile
+     */
+    public void forEachTile(int width, int height, TileTask task) {
+        forEachTile(0, 0, width, height, task);
+    }
+
+    /**
+     * Run a task over every tile of a rectangle and wait for all of them to finish.
+     * Tiles start at the corner of the rectangle.
+     *
+     * @param x Left edge of the rectangle
+     * @param y Top edge of the rectangle
+     * @param width Width of the rectangle
+     * @param height Height of the rectangle
+     * @param task Task to run for each tile
+     */
+    public void forEachTile(int x, int y, int width, int height, TileTask task) {
+        forEachTile(new Pass(), x, y, width, height, task);
+    }
+
+    /**
+     * Run a task over every tile of a rectangle, reusing the timings and pool tasks of a pass
+     * the caller keeps, so running tiles every frame allocates nothing once the pass has
+     * grown to fit. The pass must not be used by two calls at once.
+     *
+     * @param pass Pass to run the tiles with, left holding their timings
+     * @see #forEachTile(int, int, int, int, TileTask)
+     */
+    public void forEachTile(Pass pass, int x, int y, int width, int height, TileTask task) {
+        ForkJoinPool pool = this.pool;
+        pass.set(x, y, width, height, tileSize, task);
+
+        long start = System.nanoTime();
+        if (pool == null || pass.count <= 1) {
+            for (int i = 0; i < pass.count; i++) {
+                pass.runTile(i);
+            }
+        } else {
+            pass.invoke(pool, parallelism);
+        }
+        pass.task = null;
+        pass.nanos = System.nanoTime() - start;
+        lastPass = pass;
+    }
+
+    /** @return Number of tile columns in the last pass */
+    public int getTilesX() { return lastPass.tilesX; }
+
+    /** @return Number of tile rows in the last pass */
+    public int getTilesY() { return lastPass.tilesY; }
+
+    /** @return Time spent rendering the given tile in the last pass, in nanoseconds */
+    public long getTileNanos(int tileX, int tileY) {
+        Pass pass = lastPass;
+        if (tileX < 0 || tileX >= pass.tilesX || tileY < 0 || tileY >= pass.tilesY) {
+            throw new IndexOutOfBoundsException("Tile " + tileX + ", " + tileY + " outside " + pass.tilesX + "x" + pass.tilesY);
+        }
+        return pass.tileNanos[tileX + tileY * pass.tilesX];
+    }
+
+    /** @return Sum of all tile times in the last pass. Divided by {@link #getLastPassNanos()} this is the effective speedup. */
+    public long getTotalTileNanos() {
+        Pass pass = lastPass;
+        long total = 0;
+        for (int i = 0; i < pass.count; i++) {
+            total += pass.tileNanos[i];
+        }
+        return total;
+    }
+
+    /** @return Longest single tile time in the last pass */
+    public long getMaxTileNanos() {
+        Pass pass = lastPass;
+        long max = 0;
+        for (int i = 0; i < pass.count; i++) {
+            max = Math.max(max, pass.tileNanos[i]);
+        }
+        return max;
+    }
+
+    /** @return Wall-clock time of the last pass, in nanoseconds. A render with several dirty regions makes one pass per region. */
+    public long getLastPassNanos() { return lastPass.nanos; }
+
+    @Override
+    public void dispose() {
+        if (pool != null) {
+            pool.shutdown();
+            pool = null;
+        }
+    }
+
+    /**
+     * Work for a single tile, covering pixels [x0, x1) x [y0, y1)
+     */
+    public interface TileTask {
+        void render(int x0, int y0, int x1, int y1);
+    }
+
+    /**
+     * The tiles of a call to {@link #forEachTile(Pass, int, int, int, int, TileTask)} and how long each took.
+     * Keep one to run tiles every frame without allocating.
+     */
+    public static final class Pass {
+        int x, y, x1, y1;
+        int tileSize, tilesX, tilesY, count;
+        long[] tileNanos = new long[0];
+        long nanos;
+
+        // Task being run, and the next tile for a worker to take
+        TileTask task;
+        private final AtomicInteger next = new AtomicInteger();
+
+        // Pool tasks, kept for the next call with the same parallelism
+        private PassAction action;
+
+        void set(int x, int y, int width, int height, int tileSize, TileTask task) {
+            this.x = x;
+            this.y = y;
+            this.x1 = x + width;
+            this.y1 = y + height;
+            this.tileSize = tileSize;
+            this.task = task;
+            tilesX = (width + tileSize - 1) / tileSize;
+            tilesY = (height + tileSize - 1) / tileSize;
+            count = tilesX * tilesY;
+            if (tileNanos.length < count) {
+                tileNanos = new long[count];
+            }
+        }
+
+        void invoke(ForkJoinPool pool, int parallelism) {
+            if (action == null || action.workers.length != parallelism) {
+                action = new PassAction(this, parallelism);
+            }
+            next.set(0);
+            action.reinitialize();
+            pool.invoke(action);
+        }
+
+        void runTile(int index) {
+            int x0 = x + (index % tilesX) * tileSize;
+            int y0 = y + (index / tilesX) * tileSize;
+
+            long start = System.nanoTime();
+            task.render(x0, y0, Math.min(x1, x0 + tileSize), Math.min(y1, y0 + tileSize));
+            tileNanos[index] = System.nanoTime() - start;
+        }
+    }
+
+    /**
+     * Runs the tiles of a pass with one worker per pool thread
+     */
+    private static class PassAction extends RecursiveAction {
+        private static final long serialVersionUID = -5696744676995807345L;
+
+        private final TileAction[] workers;
+
+        PassAction(Pass pass, int parallelism) {
+            workers = new TileAction[parallelism];
+            for (int i = 0; i < parallelism; i++) {
+                workers[i] = new TileAction(pass);
+            }
+        }
+
+        @Override
+        protected void compute() {
+            for (TileAction worker : workers) {
+                worker.reinitialize();
+            }
+            invokeAll(workers);
+        }
+    }
+
+    /**
+     * Takes tiles of a pass one at a time until none are left, so slow tiles don't hold up idle workers
+     */
+    private static class TileAction extends RecursiveAction {
+        private static final long serialVersionUID = -1062774375111550254L;
+
+        private final Pass pass;
+
+        TileAction(Pass pass) {
+            this.pass = pass;
+        }
+
+        @Override
+        protected void compute() {
+            for (int i = pass.next.getAndIncrement(); i < pass.count; i = pass.next.getAndIncrement()) {
+                pass.runTile(i);
+            }
+        }
+    }
+}
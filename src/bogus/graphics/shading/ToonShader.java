@@ -80,15 +80,28 @@ public class ToonShader extends Shader {
     
     @Override
     public Color shade(Vec3 position, Vec3 normal, Vec3 viewDir, Color baseColor, Material material) {
+        return new Color(shadeRGB(position, normal, viewDir, baseColor.getRGB(), material), true);
+    }
+    
+    @Override
+    public int shade(Vec3 position, Vec3 normal, Vec3 viewDir, int baseColor, Material material) {
+        if (overridesShade(ToonShader.class)) {
+            return super.shade(position, normal, viewDir, baseColor, material);
+        }
+        return shadeRGB(position, normal, viewDir, baseColor, material);
+    }
+    
+    private int shadeRGB(Vec3 position, Vec3 normal, Vec3 viewDir, int baseColor, Material material) {
         // Calculate the maximum diffuse intensity from all lights
         float maxDiffuse = 0.0f;
         
-        for (Light light : lights) {
+        for (int i = 0, n = lights.size(); i < n; i++) {
+            Light light = lights.get(i);
             // For toon shading, we only care about the main directional contribution
             if (light instanceof DirectionalLight) {
                 DirectionalLight dirLight = (DirectionalLight) light;
-                Vec3 lightDir = dirLight.getDirection().multiply(-1);
-                float diffuse = Math.max(0, normal.dot(lightDir));
+                Vec3 dir = dirLight.getDirection();
+                float diffuse = Math.max(0, normal.x * -dir.x + normal.y * -dir.y + normal.z * -dir.z);
                 maxDiffuse = Math.max(maxDiffuse, diffuse * dirLight.getIntensity());
             }
         }
@@ -105,24 +118,24 @@ public class ToonShader extends Shader {
         }
         
         // Calculate final color
-        Color result;
+        int result;
         if (isEdge) {
-            result = outlineColor;
+            result = outlineColor.getRGB();
         } else {
             // Mix ambient and diffuse for the color
             float ambient = 0.2f; // Minimum light level
             float intensity = ambient + (1.0f - ambient) * toonDiffuse;
             
-            int r = (int)(baseColor.getRed() * intensity);
-            int g = (int)(baseColor.getGreen() * intensity);
-            int b = (int)(baseColor.getBlue() * intensity);
+            int r = (int)(((baseColor >> 16) & 0xFF) * intensity);
+            int g = (int)(((baseColor >> 8) & 0xFF) * intensity);
+            int b = (int)((baseColor & 0xFF) * intensity);
             
             // Clamp values
             r = Math.min(255, Math.max(0, r));
             g = Math.min(255, Math.max(0, g));
             b = Math.min(255, Math.max(0, b));
             
-            result = new Color(r, g, b, baseColor.getAlpha());
+            result = (baseColor & 0xFF000000) | (r << 16) | (g << 8) | b;
         }
         
         return result;
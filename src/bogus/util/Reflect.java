@@ -117,6 +117,19 @@ public class Reflect{
         return invoke(object, name, null);
     }
 
+    /** @return The closest class to a type, itself included, that declares a method; null if none does */
+    public static Class<?> declaringClass(Class<?> type, String name, Class<?>... parameterTypes){
+        for(Class<?> c = type; c != null; c = c.getSuperclass()){
+            try{
+                c.getDeclaredMethod(name, parameterTypes);
+                return c;
+            }catch(NoSuchMethodException e){
+                //not declared here, try the superclass
+            }
+        }
+        return null;
+    }
+
     public static <T> T make(String type){
         try{
             Class<T> c = (Class<T>)Class.forName(type);
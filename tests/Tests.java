@@ -1,13 +1,53 @@
 package tests;
 
+import tests.bogus.DeferredRendererTest;
 import tests.bogus.FilesTest;
+import tests.bogus.LightCullerTest;
+import tests.bogus.LightingScaleTest;
+import tests.bogus.LinearLightingTest;
+import tests.bogus.LightmapTest;
+import tests.bogus.RelightTrackerTest;
+import tests.bogus.BatchLightingTest;
+import tests.bogus.SubclassShadingTest;
+import tests.bogus.RenderLoopTest;
+import tests.bogus.CompositorTest;
+import tests.bogus.TileMapTest;
+import tests.bogus.ParticleSystemTest;
+import tests.bogus.TextRendererTest;
+import tests.bogus.DrawerTest;
 import tests.bogus.LoggerTest;
+import tests.bogus.MipTextureTest;
+import tests.bogus.PostProcessorTest;
+import tests.bogus.ShadowTest;
+import tests.bogus.ShadingStatsTest;
+import tests.bogus.SpecularTableTest;
+import tests.bogus.TileRendererTest;
 
 public class Tests {
 
     static Test[] tests = {
         new LoggerTest("LoggerTest"),
         new FilesTest("FilesTest"),
+        new TileRendererTest("TileRendererTest"),
+        new LightCullerTest("LightCullerTest"),
+        new DeferredRendererTest("DeferredRendererTest"),
+        new PostProcessorTest("PostProcessorTest"),
+        new LightingScaleTest("LightingScaleTest"),
+        new ShadowTest("ShadowTest"),
+        new MipTextureTest("MipTextureTest"),
+        new LightmapTest("LightmapTest"),
+        new RelightTrackerTest("RelightTrackerTest"),
+        new LinearLightingTest("LinearLightingTest"),
+        new BatchLightingTest("BatchLightingTest"),
+        new SubclassShadingTest("SubclassShadingTest"),
+        new ShadingStatsTest("ShadingStatsTest"),
+        new SpecularTableTest("SpecularTableTest"),
+        new RenderLoopTest("RenderLoopTest"),
+        new DrawerTest("DrawerTest"),
+        new CompositorTest("CompositorTest"),
+        new TileMapTest("TileMapTest"),
+        new ParticleSystemTest("ParticleSystemTest"),
+        new TextRendererTest("TextRendererTest"),
     };
 
     public static void main(String[] args) {
@@ -0,0 +1,74 @@
+package tests.bogus;
+
+import bogus.graphics.shading.*;
+import bogus.math.Rand;
+import bogus.math.geom.Vec3;
+import tests.Test;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+
+public class BatchLightingTest extends Test {
+    // Lights in hard bands, which the batch loop of a plain point light would not
+    static class BandedLight extends PointLight {
+        BandedLight(Vec3 position, Color color, float intensity, float range){
+            super(position, color, intensity, range);
+        }
+
+        @Override
+        public int calculateLightingRGB(Vec3 position, Vec3 normal, Vec3 viewDir, Material material, float specular){
+            int rgb = super.calculateLightingRGB(position, normal, viewDir, material, specular);
+            return rgb & 0xFFC0C0C0;
+        }
+    }
+
+    public BatchLightingTest(String name){
+        super(name);
+    }
+
+    @Override
+    public void run(){
+        ShaderManager.getInstance().clearActiveShaders();
+
+        Rand rand = new Rand(5);
+        List<Light> lights = new ArrayList<>();
+        lights.add(new AmbientLight(new Color(20, 20, 30), 1f));
+        lights.add(new DirectionalLight(new Vec3(1, 1, -1), new Color(90, 80, 70), 1f));
+        for(int i = 0; i < 60; i++){
+            lights.add(new PointLight(new Vec3(rand.random(400f), rand.random(300f), rand.random(5f, 40f)),
+                new Color(rand.random(255), rand.random(255), rand.random(255)), 1.5f, 120f));
+        }
+        for(int i = 0; i < 10; i++){
+            lights.add(new SpotLight(new Vec3(rand.random(400f), rand.random(300f), 30f),
+                new Vec3(rand.random(-1f, 1f), rand.random(-1f, 1f), -1f), Color.WHITE, 2f));
+        }
+
+        Material material = Material.Presets.metal(new Color(200, 190, 170));
+        Material.RenderContext context = new Material.RenderContext(400, 300, lights);
+
+        context.batchLighting = false;
+        long start = System.nanoTime();
+        BufferedImage perPixel = Material.processLightingWithShaders(material, context);
+        long perPixelTime = System.nanoTime() - start;
+
+        context.batchLighting = true;
+        start = System.nanoTime();
+        BufferedImage batched = Material.processLightingWithShaders(material, context);
+        long batchedTime = System.nanoTime() - start;
+
+        boolean identical = TileRendererTest.same(perPixel, batched);
+
+        // Subclasses that change how light is calculated are batched a pixel at a time
+        lights.add(new BandedLight(new Vec3(200, 150, 30), new Color(255, 220, 180), 2f, 150f));
+        context.batchLighting = false;
+        perPixel = Material.processLightingWithShaders(material, context);
+        context.batchLighting = true;
+        boolean overridden = TileRendererTest.same(perPixel, Material.processLightingWithShaders(material, context));
+
+        System.out.println("identical = " + identical
+            + ", identical with an overridden light = " + overridden
+            + ", per pixel = " + perPixelTime / 1000 + "us, batched = " + batchedTime / 1000 + "us");
+    }
+}
@@ -0,0 +1,96 @@
+package tests.bogus;
+
+import bogus.graphics.Compositor;
+import bogus.graphics.Drawer;
+import bogus.math.geom.Rect;
+import tests.Test;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+
+public class CompositorTest extends Test {
+    public CompositorTest(String name){
+        super(name);
+    }
+
+    @Override
+    public void run(){
+        BufferedImage sprite = new BufferedImage(12, 12, BufferedImage.TYPE_INT_ARGB);
+        for(int y = 0; y < 12; y++){
+            for(int x = 0; x < 12; x++){
+                sprite.setRGB(x, y, ((x + y) * 10 << 24) | 0xFFC040);
+            }
+        }
+
+        // A panel, and a sprite moving over it
+        int[] position = {20, 30};
+        Compositor.Scene scene = new Compositor.Scene(){
+            @Override
+            public void update(float step){
+            }
+
+            @Override
+            public void paint(Drawer drawer, Graphics2D g, Rect region){
+                g.setColor(Color.BLUE);
+                g.fillRect(10, 10, 100, 80);
+                drawer.draw(sprite, position[0], position[1]);
+            }
+        };
+
+        int width = 320, height = 240;
+        Compositor compositor = new Compositor(scene, width, height);
+        BufferedImage screen = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = screen.createGraphics();
+
+        compositor.render(g, 0);
+        long first = compositor.getRepaintedPixels();
+
+        // Move the sprite, damaging where it was and where it is
+        compositor.damage(position[0], position[1], 12, 12);
+        position[0] += 3;
+        compositor.damage(position[0], position[1], 12, 12);
+        compositor.render(g, 0);
+        long moved = compositor.getRepaintedPixels();
+        int movedRegions = compositor.getRegionCount();
+
+        // Nothing changed, nothing drawn
+        compositor.render(g, 0);
+        long idle = compositor.getRepaintedPixels();
+
+        // Far apart damage stays apart, close damage merges
+        compositor.damage(0, 0, 4, 4);
+        compositor.damage(300, 200, 4, 4);
+        compositor.render(g, 0);
+        int farRegions = compositor.getRegionCount();
+        compositor.damage(0, 0, 4, 4);
+        compositor.damage(6, 0, 4, 4);
+        compositor.render(g, 0);
+        int nearRegions = compositor.getRegionCount();
+
+        // Most of the screen damaged redraws it whole
+        for(int i = 0; i < 40; i++){
+            compositor.damage(i * 8, i * 6, 160, 120);
+        }
+        compositor.render(g, 0);
+        long full = compositor.getRepaintedPixels();
+        g.dispose();
+
+        // The screen matches a redraw of the whole scene
+        Compositor reference = new Compositor(scene, width, height);
+        BufferedImage expected = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D eg = expected.createGraphics();
+        reference.render(eg, 0);
+        eg.dispose();
+        int mismatched = 0;
+        for(int y = 0; y < height; y++){
+            for(int x = 0; x < width; x++){
+                if(screen.getRGB(x, y) != expected.getRGB(x, y)) mismatched++;
+            }
+        }
+
+        System.out.println("first frame = " + first + "px, moved sprite = " + moved + "px in " + movedRegions
+            + " region(s), idle = " + idle + "px, far regions = " + farRegions + ", near regions = " + nearRegions
+            + ", mostly damaged = " + full + "px, mismatched pixels = " + mismatched);
+    }
+}
@@ -0,0 +1,60 @@
+package tests.bogus;
+
+import bogus.graphics.shading.*;
+import bogus.math.Rand;
+import bogus.math.geom.Vec3;
+import tests.Test;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+
+public class DeferredRendererTest extends Test {
+    public DeferredRendererTest(String name){
+        super(name);
+    }
+
+    @Override
+    public void run(){
+        ShaderManager.getInstance().clearActiveShaders();
+
+        Rand rand = new Rand(11);
+        List<Light> lights = new ArrayList<>();
+        lights.add(new AmbientLight(new Color(30, 30, 40), 1f));
+        for(int i = 0; i < 200; i++){
+            Color color = new Color(rand.random(255), rand.random(255), rand.random(255));
+            lights.add(new PointLight(new Vec3(rand.random(400f), rand.random(300f), rand.random(30f)), color, 3f, rand.random(10f, 40f)));
+        }
+
+        Material plastic = Material.Presets.plastic(new Color(180, 160, 140));
+        Material metal = Material.Presets.metal(new Color(200, 200, 220));
+
+        // One material over the whole screen matches forward shading
+        GBuffer buffer = new GBuffer(400, 300);
+        DeferredRenderer renderer = new DeferredRenderer();
+        buffer.fill(plastic, 0, 0, 400, 300);
+
+        long start = System.nanoTime();
+        BufferedImage deferred = renderer.render(buffer, lights);
+        long deferredTime = System.nanoTime() - start;
+        BufferedImage forward = Material.processLightingWithShaders(plastic, new Material.RenderContext(400, 300, lights));
+
+        System.out.println("identical = " + TileRendererTest.same(forward, deferred)
+            + ", light pass = " + deferredTime / 1000 + "us"
+            + ", lit pixels per light = " + renderer.getLitPixels() / lights.size());
+
+        // Summed in linear light it matches forward shading in linear light
+        Material.RenderContext linearContext = new Material.RenderContext(400, 300, lights);
+        linearContext.linearLighting = true;
+        renderer.setLinearLighting(true);
+        boolean linear = TileRendererTest.same(Material.processLightingWithShaders(plastic, linearContext), renderer.render(buffer, lights));
+        renderer.setLinearLighting(false);
+        System.out.println("linear identical = " + linear);
+
+        // Several materials lit in one pass
+        buffer.fill(metal, 100, 50, 120, 80);
+        renderer.render(buffer, lights, deferred);
+        System.out.println("materials = " + buffer.getMaterialCount());
+    }
+}
@@ -0,0 +1,79 @@
+package tests.bogus;
+
+import bogus.graphics.Drawer;
+import bogus.math.Affine2;
+import bogus.math.Rand;
+import tests.Test;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+
+public class DrawerTest extends Test {
+    public DrawerTest(String name){
+        super(name);
+    }
+
+    @Override
+    public void run(){
+        // Four 16x16 sprites with soft edges
+        BufferedImage[] sprites = new BufferedImage[4];
+        for(int i = 0; i < sprites.length; i++){
+            sprites[i] = new BufferedImage(16, 16, BufferedImage.TYPE_INT_ARGB);
+            for(int y = 0; y < 16; y++){
+                for(int x = 0; x < 16; x++){
+                    int alpha = Math.max(0, 255 - (int)(Math.hypot(x - 7.5, y - 7.5) * 30));
+                    sprites[i].setRGB(x, y, (alpha << 24) | (0x40 * i << 16) | (x * 16 << 8) | y * 16);
+                }
+            }
+        }
+
+        int count = 5000;
+        Rand rand = new Rand(2);
+        float[] xs = new float[count], ys = new float[count];
+        for(int i = 0; i < count; i++){
+            xs[i] = rand.random(-8, 800);
+            ys[i] = rand.random(-8, 600);
+        }
+
+        BufferedImage expected = new BufferedImage(800, 600, BufferedImage.TYPE_INT_RGB);
+        BufferedImage batched = new BufferedImage(800, 600, BufferedImage.TYPE_INT_RGB);
+
+        long start = System.nanoTime();
+        Graphics2D g = expected.createGraphics();
+        for(int i = 0; i < count; i++){
+            g.drawImage(sprites[i % 4], (int)xs[i], (int)ys[i], null);
+        }
+        g.dispose();
+        long graphicsTime = System.nanoTime() - start;
+
+        // Queued in the same order, as sorting would reorder overlapping sprites
+        Drawer drawer = new Drawer(batched);
+        drawer.setSortByImage(false);
+        start = System.nanoTime();
+        for(int i = 0; i < count; i++){
+            drawer.draw(sprites[i % 4], (int)xs[i], (int)ys[i]);
+        }
+        drawer.flush();
+        long drawerTime = System.nanoTime() - start;
+        int blitted = drawer.getBlitted();
+
+        int maxDifference = 0;
+        for(int y = 0; y < 600; y++){
+            for(int x = 0; x < 800; x++){
+                int a = expected.getRGB(x, y), b = batched.getRGB(x, y);
+                for(int shift = 0; shift < 24; shift += 8){
+                    maxDifference = Math.max(maxDifference, Math.abs(((a >> shift) & 0xFF) - ((b >> shift) & 0xFF)));
+                }
+            }
+        }
+
+        // Rotated sprites go through Graphics2D
+        drawer.draw(sprites[0], 0, 0, 16, 16, new Affine2().setToTrnRotScl(100, 100, 45, 2, 2));
+        drawer.draw(sprites[1], 10, 10);
+        drawer.flush();
+
+        System.out.println("max channel difference from drawImage = " + maxDifference + ", blitted = " + blitted
+            + ", then " + drawer.getBlitted() + " blitted and " + drawer.getFallbacks() + " through Graphics2D"
+            + ", drawImage = " + graphicsTime / 1000 + "us, drawer = " + drawerTime / 1000 + "us");
+    }
+}
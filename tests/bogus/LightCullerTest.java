@@ -0,0 +1,61 @@
+package tests.bogus;
+
+import bogus.graphics.shading.*;
+import bogus.math.Rand;
+import bogus.math.geom.Vec3;
+import tests.Test;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+
+public class LightCullerTest extends Test {
+    public LightCullerTest(String name){
+        super(name);
+    }
+
+    @Override
+    public void run(){
+        ShaderManager.getInstance().clearActiveShaders();
+
+        Rand rand = new Rand(7);
+        List<Light> lights = new ArrayList<>();
+        lights.add(new AmbientLight(new Color(30, 30, 40), 1f));
+        for(int i = 0; i < 200; i++){
+            Color color = new Color(rand.random(255), rand.random(255), rand.random(255));
+            lights.add(new PointLight(new Vec3(rand.random(400f), rand.random(300f), rand.random(30f)), color, 3f, rand.random(10f, 40f)));
+        }
+
+        Material material = Material.Presets.plastic(new Color(180, 160, 140));
+        Material.RenderContext context = new Material.RenderContext(400, 300, lights);
+
+        context.cullLights = false;
+        long start = System.nanoTime();
+        BufferedImage all = Material.processLightingWithShaders(material, context);
+        long allTime = System.nanoTime() - start;
+
+        context.cullLights = true;
+        context.lightCuller = new LightCuller();
+        start = System.nanoTime();
+        BufferedImage culled = Material.processLightingWithShaders(material, context);
+        long culledTime = System.nanoTime() - start;
+
+        LightCuller culler = context.lightCuller;
+        float entries = culler.getBinnedCount();
+        System.out.println("identical = " + TileRendererTest.same(all, culled)
+            + ", all lights = " + allTime / 1000 + "us, culled = " + culledTime / 1000 + "us"
+            + ", light entries per tile = " + entries / (culler.getTilesX() * culler.getTilesY()));
+
+        // A smaller build leaves no references to the lights it dropped
+        LightCuller rebuilt = new LightCuller();
+        rebuilt.build(lights, 400, 300);
+        int before = rebuilt.getBinnedCount();
+        rebuilt.build(lights.subList(0, 10), 400, 300);
+        boolean cleared = true;
+        for(int i = rebuilt.getBinnedCount(); i < before; i++){
+            cleared &= rebuilt.getLights()[i] == null;
+        }
+        System.out.println("entries = " + before + " then " + rebuilt.getBinnedCount() + ", dropped entries cleared = " + cleared);
+    }
+}
@@ -0,0 +1,87 @@
+package tests.bogus;
+
+import bogus.graphics.shading.*;
+import bogus.math.geom.Vec3;
+import tests.Test;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+
+public class LightingScaleTest extends Test {
+    public LightingScaleTest(String name){
+        super(name);
+    }
+
+    @Override
+    public void run(){
+        ShaderManager.getInstance().clearActiveShaders();
+
+        List<Light> lights = new ArrayList<>();
+        lights.add(new AmbientLight(new Color(30, 30, 40), 1f));
+        lights.add(new PointLight(new Vec3(100, 80, 60), new Color(255, 120, 60), 2f, 300f));
+        lights.add(new PointLight(new Vec3(300, 150, 40), new Color(80, 160, 255), 2f, 200f));
+
+        // Tiles of the normal map tilt left and right, making hard creases in the light
+        BufferedImage normalMap = new BufferedImage(400, 300, BufferedImage.TYPE_INT_ARGB);
+        for(int y = 0; y < 300; y++){
+            for(int x = 0; x < 400; x++){
+                normalMap.setRGB(x, y, ((x / 25 + y / 25) % 2 == 0) ? 0xFF40A0E0 : 0xFFC060E0);
+            }
+        }
+
+        Material material = Material.Presets.plastic(new Color(180, 160, 140));
+        material.setNormalMap(normalMap);
+        Material.RenderContext context = new Material.RenderContext(400, 300, lights);
+        BufferedImage full = Material.processLightingWithShaders(material, context);
+
+        for(int scale = 2; scale <= 4; scale *= 2){
+            context.lightingScale = scale;
+            BufferedImage reduced = Material.processLightingWithShaders(material, context);
+
+            TileRenderer renderer = new TileRenderer(2, 48);
+            boolean identical = TileRendererTest.same(reduced, renderer.render(material, context));
+            renderer.dispose();
+
+            float difference = difference(full, reduced);
+            System.out.println("1/" + scale + " resolution: mean difference = " + difference
+                + ", within tolerance = " + (difference < 2f) + ", tiled identical = " + identical);
+        }
+
+        // Relighting only the coarse samples under the moved light must match lighting all of them
+        PointLight moving = new PointLight(new Vec3(200, 150, 20), new Color(255, 255, 200), 2f, 40f);
+        lights.add(moving);
+        context.lightingScale = 2;
+        context.relightTracker = new RelightTracker();
+        BufferedImage dest = new BufferedImage(400, 300, BufferedImage.TYPE_INT_ARGB);
+        Material.processLightingWithShaders(material, context, dest);
+        // Rendered from a context of its own, so it doesn't refresh the coarse samples the tracked renders keep
+        Material.RenderContext reference = new Material.RenderContext(400, 300, lights);
+        reference.lightingScale = 2;
+        boolean identical = true;
+        for(int frame = 1; frame <= 5; frame++){
+            moving.setPosition(new Vec3(200 - frame * 7, 150 + frame * 3, 20));
+            Material.processLightingWithShaders(material, context, dest);
+            identical &= TileRendererTest.same(dest, Material.processLightingWithShaders(material, reference));
+        }
+        System.out.println("1/2 resolution relit regions: identical = " + identical
+            + ", regions = " + context.relightTracker.getRegionCount());
+    }
+
+    /**
+     * Mean absolute difference per channel, in 0-255 levels
+     */
+    static float difference(BufferedImage a, BufferedImage b){
+        long total = 0;
+        for(int y = 0; y < a.getHeight(); y++){
+            for(int x = 0; x < a.getWidth(); x++){
+                int p = a.getRGB(x, y), q = b.getRGB(x, y);
+                for(int shift = 0; shift < 24; shift += 8){
+                    total += Math.abs(((p >> shift) & 0xFF) - ((q >> shift) & 0xFF));
+                }
+            }
+        }
+        return total / (3f * a.getWidth() * a.getHeight());
+    }
+}
@@ -0,0 +1,63 @@
+package tests.bogus;
+
+import bogus.graphics.shading.*;
+import bogus.math.geom.Vec3;
+import tests.Test;
+
+import java.awt.Color;
+import java.util.ArrayList;
+import java.util.List;
+
+public class LightmapTest extends Test {
+    public LightmapTest(String name){
+        super(name);
+    }
+
+    /** A light whose bake key is set directly, to change only some of its bits */
+    static class KeyedLight extends PointLight {
+        long key;
+
+        KeyedLight(long key){
+            super(new Vec3(20, 20, 20), Color.WHITE, 1f, 60f);
+            this.key = key;
+        }
+
+        @Override
+        public long getBakeKey(){
+            return key;
+        }
+    }
+
+    @Override
+    public void run(){
+        Material material = Material.Presets.plastic(new Color(180, 160, 140));
+        Lightmap lightmap = new Lightmap();
+
+        PointLight light = new PointLight(new Vec3(20, 20, 20), Color.WHITE, 1f, 60f);
+        KeyedLight keyed = new KeyedLight(1L << 40);
+        List<Light> lights = new ArrayList<>();
+        lights.add(light);
+        lights.add(keyed);
+
+        boolean first = lightmap.update(material, lights, 64, 64);
+        boolean unchanged = lightmap.update(material, lights, 64, 64);
+
+        // Nudging a static light rebakes
+        light.setPosition(new Vec3(20.001f, 20, 20));
+        boolean nudged = lightmap.update(material, lights, 64, 64);
+
+        // So does a key differing only in bits a float can't hold
+        keyed.key = (1L << 40) + 1;
+        boolean lowBits = lightmap.update(material, lights, 64, 64);
+
+        // The material is compared by its revision: setting the same roughness keeps the bake, invalidating its normals doesn't
+        material.setRoughness(material.getRoughness());
+        boolean sameRoughness = lightmap.update(material, lights, 64, 64);
+        material.invalidateSurfaceNormals();
+        boolean invalidated = lightmap.update(material, lights, 64, 64);
+
+        System.out.println("first bake = " + first + ", rebaked unchanged = " + unchanged + ", rebaked after nudge = " + nudged
+            + ", rebaked after low key bits changed = " + lowBits + ", rebaked after same roughness = " + sameRoughness
+            + ", rebaked after invalidating normals = " + invalidated + ", bakes = " + lightmap.getBakeCount());
+    }
+}
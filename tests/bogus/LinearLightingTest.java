@@ -0,0 +1,88 @@
+package tests.bogus;
+
+import bogus.graphics.Srgb;
+import bogus.graphics.shading.*;
+import bogus.math.Rand;
+import bogus.math.geom.Vec3;
+import tests.Test;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+
+public class LinearLightingTest extends Test {
+    public LinearLightingTest(String name){
+        super(name);
+    }
+
+    @Override
+    public void run(){
+        ShaderManager.getInstance().clearActiveShaders();
+
+        int roundTrip = 0;
+        for(int i = 0; i < 256; i++){
+            if(Srgb.toSrgb(Srgb.toLinear[i]) == i) roundTrip++;
+        }
+
+        // A full-strength white light leaves the base color as it is
+        List<Light> white = new ArrayList<>();
+        white.add(new AmbientLight(Color.WHITE, 1f));
+        Material material = Material.Presets.plastic(new Color(180, 160, 140));
+        Material.RenderContext context = new Material.RenderContext(64, 64, white);
+        context.linearLighting = true;
+        int unlit = Material.processLightingWithShaders(material, context).getRGB(10, 10);
+
+        // Intensity scales the decoded color, so half a white light is half the linear light on white
+        List<Light> half = new ArrayList<>();
+        half.add(new AmbientLight(Color.WHITE, 0.5f));
+        context = new Material.RenderContext(64, 64, half);
+        context.linearLighting = true;
+        int halved = Material.processLightingWithShaders(Material.Presets.plastic(Color.WHITE), context).getRGB(10, 10) & 0xFF;
+
+        // A light past full strength keeps brightening a dark base rather than clamping at its color,
+        // the same whether pixels are lit one at a time, in runs, from a lightmap or at reduced resolution
+        List<Light> bright = new ArrayList<>();
+        DirectionalLight sun = new DirectionalLight(new Vec3(0, 0, -1), new Color(255, 255, 255), 1.5f);
+        bright.add(sun);
+        Material dark = Material.Presets.plastic(new Color(60, 60, 60));
+        context = new Material.RenderContext(64, 64, bright);
+        context.linearLighting = true;
+        BufferedImage batched = Material.processLightingWithShaders(dark, context);
+        context.batchLighting = false;
+        BufferedImage perPixel = Material.processLightingWithShaders(dark, context);
+        sun.setStatic(true);
+        context.lightmap = new Lightmap();
+        BufferedImage baked = Material.processLightingWithShaders(dark, context);
+        context.lightmap = null;
+        context.lightingScale = 2;
+        int coarse = Material.processLightingWithShaders(dark, context).getRGB(10, 10) & 0xFF;
+        int overbright = batched.getRGB(10, 10) & 0xFF;
+        boolean identical = TileRendererTest.same(batched, perPixel) && TileRendererTest.same(batched, baked);
+
+        // Many dim overlapping lights
+        Rand rand = new Rand(3);
+        List<Light> lights = new ArrayList<>();
+        for(int i = 0; i < 100; i++){
+            lights.add(new PointLight(new Vec3(rand.random(300f), rand.random(200f), rand.random(10f, 30f)), new Color(40, 40, 40), 1f, 80f));
+        }
+        context = new Material.RenderContext(300, 200, lights);
+
+        long start = System.nanoTime();
+        BufferedImage srgb = Material.processLightingWithShaders(material, context);
+        long srgbTime = System.nanoTime() - start;
+
+        context.linearLighting = true;
+        start = System.nanoTime();
+        BufferedImage linear = Material.processLightingWithShaders(material, context);
+        long linearTime = System.nanoTime() - start;
+
+        System.out.println("levels surviving a round trip = " + roundTrip + "/256"
+            + ", white light keeps base = " + ((unlit & 0xFFFFFF) == 0xB4A08C)
+            + ", half intensity is half the light = " + (halved == Srgb.toSrgb(0.5f)) + " (" + halved + ")"
+            + ", overbright light unclamped = " + (overbright > 60 && coarse == overbright) + " (" + overbright + ")"
+            + ", per pixel, batched and baked identical = " + identical
+            + ", mean difference from sRGB sums = " + LightingScaleTest.difference(srgb, linear)
+            + ", sRGB = " + srgbTime / 1000 + "us, linear = " + linearTime / 1000 + "us");
+    }
+}
@@ -0,0 +1,72 @@
+package tests.bogus;
+
+import bogus.graphics.shading.*;
+import bogus.math.geom.Vec3;
+import tests.Test;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+
+public class MipTextureTest extends Test {
+    public MipTextureTest(String name){
+        super(name);
+    }
+
+    @Override
+    public void run(){
+        ShaderManager.getInstance().clearActiveShaders();
+
+        // A one-texel checkerboard aliases badly when shrunk
+        BufferedImage checker = new BufferedImage(256, 256, BufferedImage.TYPE_INT_ARGB);
+        for(int y = 0; y < 256; y++){
+            for(int x = 0; x < 256; x++){
+                checker.setRGB(x, y, (x + y) % 2 == 0 ? 0xFFFFFFFF : 0xFF000000);
+            }
+        }
+        MipTexture texture = MipTexture.create(checker);
+        int nearest = texture.resample(64, 64, MipTexture.Filter.NEAREST)[0] & 0xFF;
+        int mipmapped = texture.resample(64, 64, MipTexture.Filter.MIPMAP_BILINEAR)[0] & 0xFF;
+        // Drawing at two sizes in turn resamples each once
+        int[] full = texture.resample(128, 128, MipTexture.Filter.NEAREST);
+        int[] half = texture.resample(64, 64, MipTexture.Filter.NEAREST);
+        boolean cached = texture.resample(128, 128, MipTexture.Filter.NEAREST) == full && texture.resample(64, 64, MipTexture.Filter.NEAREST) == half;
+        System.out.println("levels = " + texture.getLevels() + ", shrunk 4x: nearest = " + nearest + ", mipmapped = " + mipmapped
+            + ", alternating sizes cached = " + cached);
+
+        // Specular maps mask the highlight per texel
+        List<Light> lights = new ArrayList<>();
+        lights.add(new PointLight(new Vec3(32, 32, 30), Color.WHITE, 2f, 200f));
+        Material metal = Material.Presets.metal(new Color(120, 120, 130));
+        Material.RenderContext context = new Material.RenderContext(64, 64, lights);
+        BufferedImage plain = Material.processLightingWithShaders(metal, context);
+
+        BufferedImage white = new BufferedImage(8, 8, BufferedImage.TYPE_INT_ARGB);
+        for(int y = 0; y < 8; y++){
+            for(int x = 0; x < 8; x++){
+                white.setRGB(x, y, 0xFFFFFFFF);
+            }
+        }
+        metal.setSpecularMap(white);
+        boolean unchanged = TileRendererTest.same(plain, Material.processLightingWithShaders(metal, context));
+
+        metal.setSpecularMap(new BufferedImage(8, 8, BufferedImage.TYPE_INT_ARGB));
+        int masked = Material.processLightingWithShaders(metal, context).getRGB(32, 32) & 0xFF;
+
+        // Painting the map white in place is only seen after invalidating the material
+        BufferedImage black = metal.getSpecularMap();
+        for(int y = 0; y < 8; y++){
+            for(int x = 0; x < 8; x++){
+                black.setRGB(x, y, 0xFFFFFFFF);
+            }
+        }
+        boolean stale = (Material.processLightingWithShaders(metal, context).getRGB(32, 32) & 0xFF) == masked;
+        metal.invalidate();
+        boolean invalidated = TileRendererTest.same(plain, Material.processLightingWithShaders(metal, context));
+
+        System.out.println("white specular map identical = " + unchanged
+            + ", highlight = " + (plain.getRGB(32, 32) & 0xFF) + ", masked = " + masked
+            + ", edited in place: stale until invalidated = " + stale + ", identical after = " + invalidated);
+    }
+}
@@ -0,0 +1,112 @@
+package tests.bogus;
+
+import bogus.graphics.ParticleSystem;
+import bogus.math.CumulativeDistribution;
+import bogus.math.Interp;
+import bogus.math.Rand;
+import tests.Test;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.lang.management.ManagementFactory;
+
+public class ParticleSystemTest extends Test {
+    public ParticleSystemTest(String name){
+        super(name);
+    }
+
+    @Override
+    public void run(){
+        ParticleSystem sequential = create(), parallel = create();
+        parallel.setParallelism(4);
+
+        BufferedImage screen = new BufferedImage(800, 600, BufferedImage.TYPE_INT_RGB);
+        long allocatedBefore = 0, updateNanos = 0, drawNanos = 0;
+        int frames = 120;
+        for(int frame = 0; frame < frames; frame++){
+            // Measured once the arrays have grown to their size
+            if(frame == 60) allocatedBefore = allocatedBytes();
+
+            long start = System.nanoTime();
+            sequential.update(1 / 60f);
+            long middle = System.nanoTime();
+            sequential.draw(screen, 0, 0);
+            updateNanos += middle - start;
+            drawNanos += System.nanoTime() - middle;
+
+            parallel.update(1 / 60f);
+        }
+        long allocated = allocatedBytes() - allocatedBefore;
+
+        // The parallel update reuses its tasks, counted on every thread as the pool's workers run them
+        long parallelBefore = allThreadsAllocatedBytes();
+        for(int frame = 0; frame < 60; frame++){
+            parallel.update(1 / 60f);
+            sequential.update(1 / 60f);
+        }
+        long parallelAllocated = allThreadsAllocatedBytes() - parallelBefore;
+
+        // Every particle is stepped by the same code, so splitting the update changes nothing
+        boolean same = sequential.getCount() == parallel.getCount();
+        BufferedImage a = new BufferedImage(800, 600, BufferedImage.TYPE_INT_RGB), b = new BufferedImage(800, 600, BufferedImage.TYPE_INT_RGB);
+        sequential.draw(a, 0, 0);
+        parallel.draw(b, 0, 0);
+        for(int y = 0; y < 600 && same; y++){
+            for(int x = 0; x < 800 && same; x++){
+                same = a.getRGB(x, y) == b.getRGB(x, y);
+            }
+        }
+        parallel.dispose();
+
+        System.out.println("alive = " + sequential.getCount() + ", dropped = " + sequential.getDropped()
+            + ", update = " + updateNanos / frames / 1000 + "us, draw = " + drawNanos / frames / 1000
+            + "us per frame, bytes allocated in 60 frames = " + allocated + ", parallel matches = " + same
+            + ", parallel bytes allocated in 60 frames = " + parallelAllocated);
+    }
+
+    private static ParticleSystem create(){
+        CumulativeDistribution<Color> palette = new CumulativeDistribution<>();
+        palette.add(new Color(255, 200, 40), 3);
+        palette.add(new Color(255, 80, 20), 1);
+        palette.add(new Color(180, 180, 180, 128), 1);
+        palette.generateNormalized();
+
+        ParticleSystem system = new ParticleSystem(150_000);
+        system.gravityY = 60;
+        system.drag = 0.5f;
+        system.sizeOverLife = Interp.reverse;
+
+        ParticleSystem.Emitter emitter = new ParticleSystem.Emitter(400, 300, 60_000);
+        emitter.width = 600;
+        emitter.height = 400;
+        emitter.lifeMin = 0.5f;
+        emitter.lifeMax = 2f;
+        emitter.sizeMin = 1;
+        emitter.sizeMax = 4;
+        emitter.distribution = Interp.pow2In;
+        emitter.palette = palette;
+        emitter.rand = new Rand(4);
+        system.add(emitter);
+        return system;
+    }
+
+    private static long allThreadsAllocatedBytes(){
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if(threads instanceof com.sun.management.ThreadMXBean){
+            long total = 0;
+            for(long bytes : ((com.sun.management.ThreadMXBean)threads).getThreadAllocatedBytes(threads.getAllThreadIds())){
+                total += Math.max(0, bytes);
+            }
+            return total;
+        }
+        return -1;
+    }
+
+    private static long allocatedBytes(){
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if(threads instanceof com.sun.management.ThreadMXBean){
+            return ((com.sun.management.ThreadMXBean)threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+}
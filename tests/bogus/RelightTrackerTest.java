@@ -0,0 +1,69 @@
+package tests.bogus;
+
+import bogus.graphics.shading.*;
+import bogus.math.Rand;
+import bogus.math.geom.Vec3;
+import tests.Test;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+
+public class RelightTrackerTest extends Test {
+    public RelightTrackerTest(String name){
+        super(name);
+    }
+
+    @Override
+    public void run(){
+        ShaderManager.getInstance().clearActiveShaders();
+
+        Rand rand = new Rand(7);
+        List<Light> lights = new ArrayList<>();
+        lights.add(new AmbientLight(new Color(30, 30, 40), 1f));
+        for(int i = 0; i < 200; i++){
+            Color color = new Color(rand.random(255), rand.random(255), rand.random(255));
+            lights.add(new PointLight(new Vec3(rand.random(400f), rand.random(300f), rand.random(30f)), color, 3f, rand.random(10f, 40f)));
+        }
+
+        Material material = Material.Presets.plastic(new Color(180, 160, 140));
+        Material.RenderContext context = new Material.RenderContext(400, 300, lights);
+
+        // Move one light per frame and only re-shade around it
+        context.relightTracker = new RelightTracker();
+        TileRenderer renderer = new TileRenderer(2);
+        BufferedImage dest = new BufferedImage(400, 300, BufferedImage.TYPE_INT_ARGB);
+        renderer.render(material, context, dest);
+
+        boolean identical = true;
+        long dirty = 0;
+        for(int frame = 0; frame < 20; frame++){
+            ((PointLight)lights.get(1 + rand.random(199))).setPosition(new Vec3(rand.random(400f), rand.random(300f), rand.random(30f)));
+            renderer.render(material, context, dest);
+            dirty += context.relightTracker.getDirtyPixels();
+
+            RelightTracker tracker = context.relightTracker;
+            context.relightTracker = null;
+            identical &= TileRendererTest.same(dest, Material.processLightingWithShaders(material, context));
+            context.relightTracker = tracker;
+        }
+
+        // Settings that change how pixels are lit redraw everything
+        context.batchLighting = !context.batchLighting;
+        renderer.render(material, context, dest);
+        boolean toggled = context.relightTracker.getDirtyPixels() == 400 * 300;
+
+        // As does any change to the material, seen through its revision
+        renderer.render(material, context, dest);
+        boolean settled = context.relightTracker.getDirtyPixels() == 0;
+        material.setMetalness(material.getMetalness() + 0.25f);
+        renderer.render(material, context, dest);
+        boolean changed = context.relightTracker.getDirtyPixels() == 400 * 300;
+        renderer.dispose();
+
+        System.out.println("relit identical = " + identical + ", dirty pixels per frame = " + dirty / 20 + " of " + 400 * 300
+            + ", batching toggled redraws all = " + toggled + ", unchanged redraws nothing = " + settled
+            + ", material change redraws all = " + changed);
+    }
+}
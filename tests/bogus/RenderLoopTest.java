@@ -0,0 +1,44 @@
+package tests.bogus;
+
+import bogus.graphics.RenderLoop;
+import tests.Test;
+
+import java.awt.Graphics2D;
+
+public class RenderLoopTest extends Test {
+    public RenderLoopTest(String name){
+        super(name);
+    }
+
+    @Override
+    public void run(){
+        int[] updates = new int[1];
+        RenderLoop loop = new RenderLoop(null, new RenderLoop.Handler(){
+            @Override
+            public void update(float step){
+                updates[0]++;
+            }
+
+            @Override
+            public void render(Graphics2D g, float alpha){
+            }
+        });
+
+        // One second of frames at 144Hz runs the game at its own 60Hz. Frame times are
+        // rounded so they add up to exactly a second, as a real clock's would
+        float alpha = 0;
+        boolean alphaInRange = true;
+        for(int i = 0; i < 144; i++){
+            alpha = loop.advance((i + 1) * 1_000_000_000L / 144 - i * 1_000_000_000L / 144);
+            alphaInRange &= alpha >= 0 && alpha < 1;
+        }
+        int steady = updates[0];
+
+        // A 200ms hitch catches up at most five steps and drops the rest
+        updates[0] = 0;
+        loop.advance(200_000_000L);
+
+        System.out.println("updates in a second at 144fps = " + steady + ", 60 = " + (steady == 60) + ", alpha in range = " + alphaInRange
+            + ", updates after a hitch = " + updates[0] + ", 5 = " + (updates[0] == 5) + ", dropped = " + loop.getStats().getDroppedUpdates());
+    }
+}
@@ -0,0 +1,276 @@
+package tests.bogus;
+
+import bogus.graphics.shading.*;
+import bogus.math.Rand;
+import bogus.math.geom.Vec3;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Throughput and allocation of the shading subsystem over a grid of image sizes,
+ * light counts, shaders and normal maps. Every case is warmed up, then run for a
+ * fixed time; allocation is read from the thread's allocation counter and
+ * garbage collection from the collectors, so a change that allocates per pixel
+ * shows up as well as one that is slower.
+ *
+ * Arguments are key=value pairs, lists separated by commas:
+ * <pre>
+ * sizes=64,256,1024     Image widths and heights, up to 4096
+ * lights=1,16,128       Point light counts, up to 512
+ * shaders=none,phong,toon
+ * normals=flat,map
+ * warmup=500 time=1000  Milliseconds per case
+ * out=results.csv       Write the results for a later baseline
+ * baseline=results.csv  Compare against earlier results, flagging slower cases
+ * threshold=0.1         Slowdown past which a case counts as a regression
+ * </pre>
+ */
+public class ShadingBenchmark {
+    static class Result {
+        String name;
+        double opsPerSecond;
+        double pixelsPerSecond;
+        double bytesPerOp;
+        long gcCount, gcMillis;
+    }
+
+    public static void main(String[] args) throws IOException {
+        Map<String, String> options = new HashMap<>();
+        for(String arg : args){
+            int split = arg.indexOf('=');
+            if(split > 0) options.put(arg.substring(0, split), arg.substring(split + 1));
+        }
+
+        int[] sizes = ints(options.getOrDefault("sizes", "64,256,1024"));
+        int[] lightCounts = ints(options.getOrDefault("lights", "1,16,128"));
+        String[] shaders = options.getOrDefault("shaders", "none,phong,toon").split(",");
+        String[] normals = options.getOrDefault("normals", "flat,map").split(",");
+        long warmup = Long.parseLong(options.getOrDefault("warmup", "500"));
+        long time = Long.parseLong(options.getOrDefault("time", "1000"));
+        double threshold = Double.parseDouble(options.getOrDefault("threshold", "0.1"));
+
+        List<Result> results = new ArrayList<>();
+        System.out.println(String.format(Locale.ROOT, "%-36s %12s %12s %14s %8s %8s",
+            "case", "ops/s", "Mpx/s", "bytes/op", "gc", "gc ms"));
+
+        // Per-call cost of the shader stack on its own
+        for(String shader : shaders){
+            Result result = measureApply(shader, warmup, time);
+            results.add(result);
+            print(result);
+        }
+
+        for(String shader : shaders){
+            for(String normal : normals){
+                for(int size : sizes){
+                    for(int lightCount : lightCounts){
+                        Result result = measureRender(shader, normal.equals("map"), size, lightCount, warmup, time);
+                        results.add(result);
+                        print(result);
+                    }
+                }
+            }
+        }
+        ShaderManager.getInstance().clearActiveShaders();
+
+        if(options.containsKey("out")){
+            List<String> lines = new ArrayList<>();
+            lines.add("case,ops_per_second,pixels_per_second,bytes_per_op,gc_count,gc_millis");
+            for(Result result : results){
+                lines.add(String.format(Locale.ROOT, "%s,%.3f,%.1f,%.1f,%d,%d", result.name, result.opsPerSecond,
+                    result.pixelsPerSecond, result.bytesPerOp, result.gcCount, result.gcMillis));
+            }
+            Files.write(Paths.get(options.get("out")), lines);
+        }
+
+        if(options.containsKey("baseline")){
+            compare(results, Paths.get(options.get("baseline")), threshold);
+        }
+    }
+
+    /**
+     * Render a sprite-sized area under a set of point lights, through the active shader or the built-in model
+     */
+    static Result measureRender(String shader, boolean normalMap, int size, int lightCount, long warmup, long time){
+        Rand rand = new Rand(1);
+        List<Light> lights = new ArrayList<>();
+        for(int i = 0; i < lightCount; i++){
+            lights.add(new PointLight(new Vec3(rand.random(size), rand.random(size), rand.random(5f, 40f)),
+                new Color(rand.random(255), rand.random(255), rand.random(255)), 1f, size / 4f));
+        }
+
+        Material material = Material.Presets.plastic(new Color(180, 160, 140));
+        if(normalMap) material.setNormalMap(bumps(256));
+        activate(shader, lights);
+
+        Material.RenderContext context = new Material.RenderContext(size, size, lights);
+        BufferedImage dest = new BufferedImage(size, size, BufferedImage.TYPE_INT_ARGB);
+
+        Result result = measure(() -> Material.processLightingWithShaders(material, context, dest), warmup, time);
+        result.name = "render/" + shader + "/" + (normalMap ? "map" : "flat") + "/" + size + "/" + lightCount;
+        result.pixelsPerSecond = result.opsPerSecond * size * size;
+        return result;
+    }
+
+    /**
+     * Shade single pixels through {@link ShaderManager#applyShaders}
+     */
+    static Result measureApply(String shader, long warmup, long time){
+        List<Light> lights = new ArrayList<>();
+        lights.add(new PointLight(new Vec3(10, 10, 20), Color.WHITE, 1f));
+        activate(shader, lights);
+
+        ShaderManager manager = ShaderManager.getInstance();
+        Material material = Material.Presets.plastic(new Color(180, 160, 140));
+        Vec3 position = new Vec3(), normal = new Vec3(0, 0, 1), viewDir = new Vec3(0, 0, 1);
+        int calls = 1024;
+        int[] sink = new int[1];
+
+        Result result = measure(() -> {
+            for(int i = 0; i < calls; i++){
+                position.set(i & 31, i >> 5, 0);
+                sink[0] += manager.applyShaders(position, normal, viewDir, 0xFFB4A08C, material);
+            }
+        }, warmup, time);
+        result.name = "apply/" + shader;
+        result.pixelsPerSecond = result.opsPerSecond * calls;
+        return result;
+    }
+
+    private static void activate(String shader, List<Light> lights){
+        ShaderManager manager = ShaderManager.getInstance();
+        manager.clearActiveShaders();
+        if(shader.equals("phong")){
+            PhongShader phong = new PhongShader();
+            for(Light light : lights) phong.addLight(light);
+            manager.addActiveShader(phong);
+        }else if(shader.equals("toon")){
+            ToonShader toon = new ToonShader();
+            for(Light light : lights) toon.addLight(light);
+            manager.addActiveShader(toon);
+        }else if(!shader.equals("none")){
+            throw new IllegalArgumentException("Unknown shader " + shader);
+        }
+    }
+
+    /**
+     * Run an operation for a warm-up period, then for a measured period, always at least once
+     */
+    static Result measure(Runnable op, long warmupMillis, long timeMillis){
+        long end = System.nanoTime() + warmupMillis * 1_000_000L;
+        do{
+            op.run();
+        }while(System.nanoTime() < end);
+
+        long gcCount = gcCount(), gcMillis = gcMillis();
+        long allocated = allocatedBytes();
+        long start = System.nanoTime();
+        end = start + timeMillis * 1_000_000L;
+        long ops = 0;
+        long now;
+        do{
+            op.run();
+            ops++;
+            now = System.nanoTime();
+        }while(now < end);
+
+        Result result = new Result();
+        result.opsPerSecond = ops / ((now - start) / 1e9);
+        result.bytesPerOp = allocated < 0 ? -1 : (allocatedBytes() - allocated) / (double)ops;
+        result.gcCount = gcCount() - gcCount;
+        result.gcMillis = gcMillis() - gcMillis;
+        return result;
+    }
+
+    /** @return Bytes allocated by this thread so far, or -1 if the JVM doesn't count them */
+    private static long allocatedBytes(){
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if(threads instanceof com.sun.management.ThreadMXBean){
+            return ((com.sun.management.ThreadMXBean)threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    private static long gcCount(){
+        long count = 0;
+        for(GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()){
+            count += Math.max(0, gc.getCollectionCount());
+        }
+        return count;
+    }
+
+    private static long gcMillis(){
+        long millis = 0;
+        for(GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()){
+            millis += Math.max(0, gc.getCollectionTime());
+        }
+        return millis;
+    }
+
+    /**
+     * A normal map of round bumps, so normals vary from pixel to pixel
+     */
+    static BufferedImage bumps(int size){
+        BufferedImage map = new BufferedImage(size, size, BufferedImage.TYPE_INT_RGB);
+        for(int y = 0; y < size; y++){
+            for(int x = 0; x < size; x++){
+                float nx = (float)Math.sin(x * 0.2), ny = (float)Math.sin(y * 0.2);
+                float nz = (float)Math.sqrt(Math.max(0, 1 - (nx * nx + ny * ny) * 0.25f));
+                int r = (int)((nx * 0.5f * 0.5f + 0.5f) * 255), g = (int)((ny * 0.5f * 0.5f + 0.5f) * 255), b = (int)((nz * 0.5f + 0.5f) * 255);
+                map.setRGB(x, y, (r << 16) | (g << 8) | b);
+            }
+        }
+        return map;
+    }
+
+    private static void print(Result result){
+        System.out.println(String.format(Locale.ROOT, "%-36s %12.1f %12.2f %14.1f %8d %8d", result.name,
+            result.opsPerSecond, result.pixelsPerSecond / 1e6, result.bytesPerOp, result.gcCount, result.gcMillis));
+    }
+
+    /**
+     * Print every case that got slower than its baseline by more than the threshold
+     */
+    private static void compare(List<Result> results, Path baseline, double threshold) throws IOException {
+        Map<String, Double> previous = new HashMap<>();
+        List<String> lines = Files.readAllLines(baseline);
+        for(int i = 1; i < lines.size(); i++){
+            String[] fields = lines.get(i).split(",");
+            if(fields.length > 1) previous.put(fields[0], Double.parseDouble(fields[1]));
+        }
+
+        int regressions = 0;
+        for(Result result : results){
+            Double before = previous.get(result.name);
+            if(before == null || before <= 0) continue;
+
+            double change = result.opsPerSecond / before - 1;
+            if(change < -threshold){
+                regressions++;
+                System.out.println(String.format(Locale.ROOT, "regression: %s %.1f%% slower", result.name, -change * 100));
+            }
+        }
+        System.out.println(regressions + " regression(s) against " + baseline);
+    }
+
+    private static int[] ints(String list){
+        String[] parts = list.split(",");
+        int[] values = new int[parts.length];
+        for(int i = 0; i < parts.length; i++){
+            values[i] = Integer.parseInt(parts[i].trim());
+        }
+        return values;
+    }
+}
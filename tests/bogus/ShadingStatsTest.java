@@ -0,0 +1,101 @@
+package tests.bogus;
+
+import bogus.graphics.shading.*;
+import bogus.math.geom.Vec3;
+import tests.Test;
+
+import java.awt.Color;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+
+public class ShadingStatsTest extends Test {
+    public ShadingStatsTest(String name){
+        super(name);
+    }
+
+    @Override
+    public void run(){
+        // Stats are switched on for the whole JVM, so they are counted in one of their own
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        ProcessBuilder builder = new ProcessBuilder(java, "-Dbogus.shading.stats=true", "-Djava.awt.headless=true",
+            "-cp", System.getProperty("java.class.path"), ShadingStatsTest.class.getName());
+        builder.redirectErrorStream(true);
+        try{
+            Process process = builder.start();
+            try(BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))){
+                String line;
+                while((line = reader.readLine()) != null) System.out.println(line);
+            }
+            process.waitFor();
+        }catch(IOException | InterruptedException e){
+            throw new RuntimeException(e);
+        }
+    }
+
+    public static void main(String[] args){
+        ShaderManager manager = ShaderManager.getInstance();
+        manager.clearActiveShaders();
+        int size = 64, pixels = size * size;
+
+        PointLight point = new PointLight(new Vec3(32, 32, 20), Color.WHITE, 1f);
+        AmbientLight ambient = new AmbientLight(new Color(30, 30, 40), 1f);
+        List<Light> lights = new ArrayList<>();
+        lights.add(ambient);
+        lights.add(point);
+
+        Material material = Material.Presets.plastic(new Color(180, 160, 140));
+        Material.RenderContext context = new Material.RenderContext(size, size, lights);
+        context.cullLights = false;
+
+        // Rows of 64 pixels are timed in a batch, pixels lit one at a time are only counted
+        ShadingStats.reset();
+        Material.processLightingWithShaders(material, context);
+        ShadingStats.Entry batched = entry(ShadingStats.snapshot().lights, point);
+        context.batchLighting = false;
+        Material.processLightingWithShaders(material, context);
+        ShadingStats.Entry perPixel = entry(ShadingStats.snapshot().lights, point);
+        context.batchLighting = true;
+
+        // Shaders are timed at a sample of their fragments
+        PhongShader shader = new PhongShader();
+        manager.registerShader(shader);
+        manager.addActiveShader(shader);
+        Material.processLightingWithShaders(material, context);
+        manager.clearActiveShaders();
+        ShadingStats.Snapshot shaded = ShadingStats.snapshot();
+        ShadingStats.Entry shading = entry(shaded.shaders, shader);
+
+        // Deferred light passes and lightmap bakes count towards the lights too
+        GBuffer buffer = new GBuffer(size, size);
+        buffer.fill(material, 0, 0, size, size);
+        new DeferredRenderer().render(buffer, lights);
+        ShadingStats.Entry deferred = entry(ShadingStats.snapshot().lights, point);
+        point.setStatic(true);
+        new Lightmap().update(material, lights, size, size);
+        ShadingStats.Entry baked = entry(ShadingStats.snapshot().lights, point);
+
+        System.out.println("enabled = " + ShadingStats.enabled + ", passes = " + shaded.passes + ", pixels = " + shaded.pixels
+            + ", evaluated = " + shaded.lightsEvaluated + " (" + (shaded.lightsEvaluated == 2L * 2 * pixels) + ")");
+        System.out.println("batched light: pixels = " + batched.pixels + ", timed = " + batched.timedPixels
+            + " (" + (batched.pixels == pixels && batched.timedPixels == pixels && batched.invocations == size && batched.nanos > 0) + ")"
+            + ", per pixel: pixels = " + perPixel.pixels + ", timed = " + perPixel.timedPixels
+            + " (" + (perPixel.pixels == 2L * pixels && perPixel.timedPixels == pixels) + ")");
+        System.out.println("shader: calls = " + shading.invocations + ", timed = " + shading.timedPixels
+            + " (" + (shading.invocations == pixels && shading.timedPixels == pixels / ShadingStats.shaderSampling) + ")"
+            + ", deferred pixels = " + (deferred.pixels - perPixel.pixels) + ", baked pixels = " + (baked.pixels - deferred.pixels)
+            + " (" + (deferred.pixels - perPixel.pixels == pixels && baked.pixels - deferred.pixels == pixels) + ")");
+        ShadingStats.reset();
+        System.out.println("reset clears = " + (ShadingStats.snapshot().passes == 0 && ShadingStats.snapshot().lights.isEmpty()));
+    }
+
+    static ShadingStats.Entry entry(List<ShadingStats.Entry> entries, Object source){
+        for(ShadingStats.Entry entry : entries){
+            if(entry.source == source) return entry;
+        }
+        throw new IllegalStateException("No counts for " + source);
+    }
+}
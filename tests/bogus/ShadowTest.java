@@ -0,0 +1,63 @@
+package tests.bogus;
+
+import bogus.graphics.shading.*;
+import bogus.math.geom.Vec3;
+import tests.Test;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+
+public class ShadowTest extends Test {
+    public ShadowTest(String name){
+        super(name);
+    }
+
+    @Override
+    public void run(){
+        ShaderManager.getInstance().clearActiveShaders();
+
+        PointLight light = new PointLight(new Vec3(120, 100, 20), new Color(255, 220, 180), 2f, 250f);
+        light.setCastsShadows(true);
+        List<Light> lights = new ArrayList<>();
+        lights.add(new AmbientLight(new Color(30, 30, 40), 1f));
+        lights.add(light);
+
+        // A wall just right of the light
+        OcclusionGrid occluders = new OcclusionGrid(300, 200);
+        occluders.fill(140, 60, 8, 80, true);
+        ShadowCache shadows = new ShadowCache(occluders);
+
+        Material material = Material.Presets.plastic(new Color(180, 160, 140));
+        Material.RenderContext context = new Material.RenderContext(300, 200, lights);
+        context.shadows = shadows;
+
+        long start = System.nanoTime();
+        BufferedImage first = Material.processLightingWithShaders(material, context);
+        long firstTime = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        BufferedImage cached = Material.processLightingWithShaders(material, context);
+        long cachedTime = System.nanoTime() - start;
+
+        // Pixels either side of the light at the same distance, one behind the wall
+        boolean shadowed = (first.getRGB(160, 100) & 0xFF) < (first.getRGB(80, 100) & 0xFF);
+
+        // Lighting the same scene deferred matches forward shading
+        GBuffer buffer = new GBuffer(300, 200);
+        buffer.fill(material, 0, 0, 300, 200);
+        DeferredRenderer deferred = new DeferredRenderer();
+        deferred.setShadows(shadows);
+        boolean same = TileRendererTest.same(first, deferred.render(buffer, lights));
+
+        int computed = shadows.getComputeCount();
+        occluders.set(10, 10, true);
+        Material.processLightingWithShaders(material, context);
+
+        System.out.println("shadowed = " + shadowed + ", deferred identical = " + same
+            + ", cached identical = " + TileRendererTest.same(first, cached)
+            + ", maps computed = " + computed + " then " + shadows.getComputeCount() + " after an occluder change"
+            + ", first = " + firstTime / 1000 + "us, cached = " + cachedTime / 1000 + "us");
+    }
+}
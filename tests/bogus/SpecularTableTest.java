@@ -0,0 +1,35 @@
+package tests.bogus;
+
+import bogus.graphics.shading.SpecularTable;
+import tests.Test;
+
+public class SpecularTableTest extends Test {
+    public SpecularTableTest(String name){
+        super(name);
+    }
+
+    @Override
+    public void run(){
+        // Checked densely, well past the entries, so no lookup anywhere strays past the tolerance
+        float[] exponents = {2, 10, 33.3f, 50, 80, 100};
+        float[] tolerances = {1 / 256f, 1 / 512f, 1 / 4096f};
+        boolean within = true;
+        int tabulated = 0;
+        for(float exponent : exponents){
+            for(float tolerance : tolerances){
+                SpecularTable table = SpecularTable.create(exponent, tolerance);
+                if(table.isTabulated()) tabulated++;
+                for(int i = 0; i <= 1 << 20; i++){
+                    float x = i / (float)(1 << 20);
+                    within &= Math.abs(table.get(x) - Math.pow(x, exponent)) <= tolerance;
+                }
+            }
+        }
+
+        // Tolerances the largest table can't meet fall back to Math.pow
+        SpecularTable strict = SpecularTable.create(100, 1e-6f);
+
+        System.out.println("within tolerance = " + within + ", tabulated = " + tabulated + "/" + exponents.length * tolerances.length
+            + ", max size = " + SpecularTable.maxSize + ", too strict falls back = " + !strict.isTabulated());
+    }
+}
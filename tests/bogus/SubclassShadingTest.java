@@ -0,0 +1,98 @@
+package tests.bogus;
+
+import bogus.graphics.shading.*;
+import bogus.math.geom.Vec3;
+import tests.Test;
+
+import java.awt.Color;
+import java.util.ArrayList;
+import java.util.List;
+
+public class SubclassShadingTest extends Test {
+    // Subclasses of the built-ins that only override the Color methods
+    static class RedLight extends PointLight {
+        RedLight(Vec3 position){
+            super(position, Color.WHITE, 1f);
+        }
+
+        @Override
+        public Color calculateLightingAt(Vec3 position, Vec3 normal, Vec3 viewDir, Material material){
+            return Color.RED;
+        }
+    }
+
+    static class GreenPhongLight extends DirectionalLight {
+        GreenPhongLight(Vec3 direction){
+            super(direction, Color.WHITE, 1f);
+        }
+
+        @Override
+        protected Color calculatePhongLighting(Vec3 position, Vec3 normal, Vec3 viewDir, Vec3 lightDir, Material material, float attenuation){
+            return Color.GREEN;
+        }
+    }
+
+    static class YellowPackedPhongLight extends SpotLight {
+        YellowPackedPhongLight(Vec3 position){
+            super(position, new Vec3(0, 0, -1), Color.WHITE, 1f);
+        }
+
+        @Override
+        protected int calculatePhongLighting(Vec3 normal, Vec3 viewDir, float lx, float ly, float lz, Material material, float attenuation){
+            return 0xFFFFFF00;
+        }
+    }
+
+    static class BlueShader extends PhongShader {
+        @Override
+        public Color shade(Vec3 position, Vec3 normal, Vec3 viewDir, Color baseColor, Material material){
+            return new Color(0, 0, 255, baseColor.getAlpha());
+        }
+    }
+
+    public SubclassShadingTest(String name){
+        super(name);
+    }
+
+    @Override
+    public void run(){
+        ShaderManager manager = ShaderManager.getInstance();
+        manager.clearActiveShaders();
+        Material material = Material.Presets.plastic(Color.WHITE);
+
+        List<Light> lights = new ArrayList<>();
+        lights.add(new RedLight(new Vec3(32, 32, 20)));
+        int red = render(material, lights, false), redBatched = render(material, lights, true);
+
+        lights.set(0, new GreenPhongLight(new Vec3(0, 0, -1)));
+        int green = render(material, lights, false), greenBatched = render(material, lights, true);
+
+        lights.set(0, new YellowPackedPhongLight(new Vec3(32, 32, 20)));
+        int yellow = render(material, lights, false), yellowBatched = render(material, lights, true);
+        Material.RenderContext scaled = new Material.RenderContext(64, 64, lights);
+        scaled.lightingScale = 2;
+        int yellowScaled = Material.processLightingWithShaders(material, scaled).getRGB(32, 32);
+
+        lights.set(0, new PointLight(new Vec3(32, 32, 20), Color.WHITE, 1f));
+        BlueShader shader = new BlueShader();
+        manager.registerShader(shader);
+        manager.addActiveShader(shader);
+        int blue = render(material, lights, false);
+        manager.clearActiveShaders();
+
+        System.out.println("overridden light = " + hex(red) + " (" + (red == 0xFFFF0000 && redBatched == red) + ")"
+            + ", overridden phong = " + hex(green) + " (" + (green == 0xFF00FF00 && greenBatched == green) + ")"
+            + ", overridden packed phong = " + hex(yellow) + " (" + (yellow == 0xFFFFFF00 && yellowBatched == yellow && yellowScaled == yellow) + ")"
+            + ", overridden shader = " + hex(blue) + " (" + (blue == 0xFF0000FF) + ")");
+    }
+
+    static int render(Material material, List<Light> lights, boolean batched){
+        Material.RenderContext context = new Material.RenderContext(64, 64, lights);
+        context.batchLighting = batched;
+        return Material.processLightingWithShaders(material, context).getRGB(32, 32);
+    }
+
+    static String hex(int argb){
+        return Integer.toHexString(argb);
+    }
+}
@@ -0,0 +1,117 @@
+package tests.bogus;
+
+import bogus.graphics.Drawer;
+import bogus.graphics.TextRenderer;
+import bogus.util.ColorCodes;
+import tests.Test;
+
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+
+public class TextRendererTest extends Test {
+    public TextRendererTest(String name){
+        super(name);
+    }
+
+    @Override
+    public void run(){
+        Font font = new Font(Font.MONOSPACED, Font.PLAIN, 14);
+        TextRenderer text = new TextRenderer();
+        BufferedImage screen = new BufferedImage(640, 480, BufferedImage.TYPE_INT_RGB);
+        Drawer drawer = new Drawer(screen);
+
+        // Markup and escapes both color the text, and neither is drawn
+        TextRenderer.Layout marked = text.layout("ab &lrcd&fr ef", font);
+        TextRenderer.Layout escaped = text.layout("ab " + ColorCodes.lightRed + "cd" + ColorCodes.reset + " ef", font);
+        TextRenderer.Layout plain = text.layout("ab cd ef", font);
+        boolean sameWidth = marked.getWidth() == plain.getWidth() && escaped.getWidth() == plain.getWidth();
+
+        // A bold font lays out bold, as wide as AWT draws it, and a reset keeps it bold
+        Font bold = new Font(Font.SERIF, Font.BOLD, 20);
+        Graphics2D metrics = screen.createGraphics();
+        int awtWidth = metrics.getFontMetrics(bold).stringWidth("Hello World");
+        metrics.dispose();
+        boolean boldWidth = text.layout("Hello World", bold).getWidth() == awtWidth
+            && text.layout("&fbHello&fr World", bold).getWidth() == awtWidth;
+
+        text.draw(drawer, marked, 0, 0);
+        drawer.flush();
+        int red = 0, white = 0;
+        for(int y = 0; y < marked.getHeight(); y++){
+            for(int x = 0; x < marked.getWidth(); x++){
+                int rgb = screen.getRGB(x, y);
+                int r = (rgb >> 16) & 0xFF, g = (rgb >> 8) & 0xFF;
+                if(r > 128 && g < 128) red++;
+                if(r > 128 && g > 128) white++;
+            }
+        }
+
+        // One layout queued in two colors before a flush keeps both
+        screen.getGraphics().clearRect(0, 0, 640, 480);
+        drawer.setTint(0xFFFF0000);
+        text.draw(drawer, plain, 0, 100);
+        drawer.setTint(0xFF0000FF);
+        text.draw(drawer, plain, 0, 200);
+        drawer.setTint(0xFFFFFFFF);
+        drawer.flush();
+        boolean twoColors = count(screen, 0, 100, plain, 0xFF0000) > 0 && count(screen, 0, 200, plain, 0x0000FF) > 0;
+
+        // Alternating between the two keeps a strip for each rather than drawing them over
+        long before = text.getMisses();
+        for(int frame = 0; frame < 10; frame++){
+            drawer.setTint(frame % 2 == 0 ? 0xFFFF0000 : 0xFF0000FF);
+            text.draw(drawer, plain, 0, 100);
+        }
+        drawer.setTint(0xFFFFFFFF);
+        drawer.flush();
+        boolean alternating = plain.getStripCount() == 2 && text.getMisses() == before;
+
+        // A 30 line log drawn from cached layouts, against drawing the strings every frame
+        String[] lines = new String[30];
+        for(int i = 0; i < lines.length; i++){
+            lines[i] = "[&lgLOG&fr][Test] message number " + i + " of the log";
+        }
+        long cached = 0, awt = 0;
+        for(int frame = 0; frame < 1000; frame++){
+            long start = System.nanoTime();
+            for(int i = 0; i < lines.length; i++){
+                text.draw(drawer, lines[i], font, 0, i * 16);
+            }
+            drawer.flush();
+            long middle = System.nanoTime();
+
+            Graphics2D g = screen.createGraphics();
+            g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+            g.setFont(font);
+            for(int i = 0; i < lines.length; i++){
+                g.drawString(lines[i], 0, i * 16 + 14);
+            }
+            g.dispose();
+            if(frame >= 500){
+                cached += middle - start;
+                awt += System.nanoTime() - middle;
+            }
+        }
+
+        System.out.println("markup width matches plain = " + sameWidth + ", bold width matches AWT = " + boldWidth + ", red pixels = " + red + ", white pixels = " + white
+            + ", two tints in one flush = " + twoColors + ", alternating tints keep strips = " + alternating + ", layouts cached = " + text.getCachedLayouts() + ", misses = " + text.getMisses()
+            + ", glyphs = " + text.getAtlas(font).getGlyphCount() + ", cached draw = " + cached / 500 / 1000
+            + "us, drawString = " + awt / 500 / 1000 + "us per frame, speedup = " + String.format("%.2f", awt / (double)cached)
+            + "x, faster = " + (cached < awt));
+    }
+
+    /**
+     * @return Pixels of a layout's area that are exactly one color
+     */
+    static int count(BufferedImage screen, int x, int y, TextRenderer.Layout layout, int rgb){
+        int found = 0;
+        for(int py = y; py < y + layout.getHeight(); py++){
+            for(int px = x; px < x + layout.getWidth(); px++){
+                if((screen.getRGB(px, py) & 0xFFFFFF) == rgb) found++;
+            }
+        }
+        return found;
+    }
+}
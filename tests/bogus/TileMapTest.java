@@ -0,0 +1,77 @@
+package tests.bogus;
+
+import bogus.graphics.Drawer;
+import bogus.graphics.TileMap;
+import bogus.math.Rand;
+import bogus.math.geom.Rect;
+import tests.Test;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+
+public class TileMapTest extends Test {
+    public TileMapTest(String name){
+        super(name);
+    }
+
+    @Override
+    public void run(){
+        // Four 8x8 tiles in a row, each with a pattern and a transparent corner
+        BufferedImage tileset = new BufferedImage(32, 8, BufferedImage.TYPE_INT_ARGB);
+        for(int y = 0; y < 8; y++){
+            for(int x = 0; x < 32; x++){
+                int alpha = x % 8 + y < 2 ? 0 : 255;
+                tileset.setRGB(x, y, (alpha << 24) | (x / 8 * 60 << 16) | (x % 8 * 30 << 8) | y * 30);
+            }
+        }
+
+        // A 500x500 world with holes, from -100 so it spans negative chunks
+        TileMap map = new TileMap(tileset, 8, 8, 16);
+        Rand rand = new Rand(3);
+        for(int y = -100; y < 400; y++){
+            for(int x = -100; x < 400; x++){
+                if(rand.random(10) > 0) map.set(x, y, 1 + rand.random(3));
+            }
+        }
+
+        Rect camera = new Rect(-333, -211, 640, 480);
+        BufferedImage screen = new BufferedImage(640, 480, BufferedImage.TYPE_INT_RGB);
+        Drawer drawer = new Drawer(screen);
+        map.draw(drawer, camera);
+        drawer.flush();
+        int firstRendered = map.getRendered();
+
+        // Changing one tile redraws only its chunk
+        map.set(-20, -20, map.get(-20, -20) % 4 + 1);
+        map.draw(drawer, camera);
+        drawer.flush();
+        int changedRendered = map.getRendered(), drawn = map.getDrawn();
+
+        map.draw(drawer, camera);
+        drawer.flush();
+        int idleRendered = map.getRendered();
+
+        // The same view drawn tile by tile
+        BufferedImage expected = new BufferedImage(640, 480, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = expected.createGraphics();
+        for(int y = -100; y < 400; y++){
+            for(int x = -100; x < 400; x++){
+                int tile = map.get(x, y);
+                if(tile == TileMap.empty) continue;
+                int sx = x * 8 + 333, sy = y * 8 + 211;
+                g.drawImage(tileset, sx, sy, sx + 8, sy + 8, (tile - 1) * 8, 0, tile * 8, 8, null);
+            }
+        }
+        g.dispose();
+
+        int mismatched = 0;
+        for(int y = 0; y < 480; y++){
+            for(int x = 0; x < 640; x++){
+                if(screen.getRGB(x, y) != expected.getRGB(x, y)) mismatched++;
+            }
+        }
+
+        System.out.println("chunks = " + map.getChunkCount() + ", drawn = " + drawn + ", rendered first = " + firstRendered
+            + ", after one change = " + changedRendered + ", idle = " + idleRendered + ", mismatched pixels = " + mismatched);
+    }
+}
@@ -0,0 +1,107 @@
+package tests.bogus;
+
+import bogus.graphics.shading.*;
+import bogus.math.geom.Vec3;
+import tests.Test;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+
+public class TileRendererTest extends Test {
+    public TileRendererTest(String name){
+        super(name);
+    }
+
+    @Override
+    public void run(){
+        ShaderManager.getInstance().clearActiveShaders();
+
+        List<Light> lights = new ArrayList<>();
+        lights.add(new AmbientLight(new Color(30, 30, 40), 1f));
+        lights.add(new DirectionalLight(new Vec3(1, 1, -1), new Color(255, 240, 200), 0.6f));
+        lights.add(new PointLight(new Vec3(100, 80, 40), new Color(255, 120, 60), 2f, 300f));
+
+        Material material = Material.Presets.plastic(new Color(180, 160, 140));
+        Material.RenderContext context = new Material.RenderContext(300, 200, lights);
+
+        BufferedImage serial = Material.processLightingWithShaders(material, context);
+
+        int maxThreads = Math.max(4, Runtime.getRuntime().availableProcessors());
+        for(int threads = 1; threads <= maxThreads; threads *= 2){
+            TileRenderer renderer = new TileRenderer(threads, 48);
+            BufferedImage tiled = renderer.render(material, context);
+
+            System.out.println(threads + " threads: identical = " + same(serial, tiled)
+                + ", wall = " + renderer.getLastPassNanos() / 1000 + "us"
+                + ", tiles = " + renderer.getTotalTileNanos() / 1000 + "us"
+                + ", slowest tile = " + renderer.getMaxTileNanos() / 1000 + "us");
+            renderer.dispose();
+        }
+
+        // Two threads rendering different areas through one renderer at once each get their own
+        TileRenderer shared = new TileRenderer(2, 16);
+        Material.RenderContext other = new Material.RenderContext(120, 90, lights);
+        BufferedImage small = Material.processLightingWithShaders(material, other);
+        boolean[] wrong = new boolean[1];
+        Thread thread = new Thread(() -> {
+            for(int i = 0; i < 50; i++){
+                try{
+                    if(!same(small, shared.render(material, other))) wrong[0] = true;
+                }catch(RuntimeException e){
+                    wrong[0] = true;
+                }
+            }
+        });
+        thread.start();
+        boolean concurrent = true;
+        for(int i = 0; i < 20; i++){
+            concurrent &= same(serial, shared.render(material, context));
+        }
+        try{
+            thread.join();
+        }catch(InterruptedException e){
+            throw new RuntimeException(e);
+        }
+        System.out.println("concurrent renders identical = " + (concurrent && !wrong[0]));
+
+        // Two threads rendering different materials with one context at once don't see each other's scratch
+        Material red = Material.Presets.plastic(new Color(200, 40, 40));
+        Material blue = Material.Presets.plastic(new Color(40, 40, 200));
+        BufferedImage redSerial = Material.processLightingWithShaders(red, context);
+        BufferedImage blueSerial = Material.processLightingWithShaders(blue, context);
+        wrong[0] = false;
+        thread = new Thread(() -> {
+            for(int i = 0; i < 20; i++){
+                try{
+                    if(!same(blueSerial, shared.render(blue, context))) wrong[0] = true;
+                }catch(RuntimeException e){
+                    wrong[0] = true;
+                }
+            }
+        });
+        thread.start();
+        boolean sharedContext = true;
+        for(int i = 0; i < 20; i++){
+            sharedContext &= same(redSerial, shared.render(red, context));
+        }
+        try{
+            thread.join();
+        }catch(InterruptedException e){
+            throw new RuntimeException(e);
+        }
+        shared.dispose();
+        System.out.println("shared context renders identical = " + (sharedContext && !wrong[0]));
+    }
+
+    static boolean same(BufferedImage a, BufferedImage b){
+        if(a.getWidth() != b.getWidth() || a.getHeight() != b.getHeight()) return false;
+        for(int y = 0; y < a.getHeight(); y++){
+            for(int x = 0; x < a.getWidth(); x++){
+                if(a.getRGB(x, y) != b.getRGB(x, y)) return false;
+            }
+        }
+        return true;
+    }
+}